@@ -12,5 +12,12 @@ public final class Constants {
 	public static final String STRING = "string";
 	public static final String CTX = "ctx";
     public static final String DEFAULT = "default";
+	public static final String JSON_CONTENT_TYPE = "application/json";
+	public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+	public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+	public static final String GZIP_ENCODING = "gzip";
+	public static final String ZSTD_ENCODING = "zstd";
+	public static final String LZ4_ENCODING = "lz4";
+	public static final String ACCEPTED_EVENTS_HEADER = "Timbermill-Accepted-Events";
 }
 
@@ -7,7 +7,6 @@ import com.datorama.oss.timbermill.common.ZonedDateTimeJacksonSerializer;
 import com.fasterxml.jackson.annotation.*;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +14,7 @@ import javax.validation.constraints.NotNull;
 import java.io.Serializable;
 import java.time.ZonedDateTime;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -32,6 +32,9 @@ import java.util.UUID;
 public abstract class Event implements Serializable {
 
 	public static final String EVENT_ID_DELIMITER = "___";
+	// Bump whenever normalize() changes, so the server normalizes again events that older clients normalized
+	public static final int NORMALIZATION_VERSION = 1;
+	private static final String TIMBERMILL2_SUFFIX = "_timbermill2";
 
 	protected String taskId;
 	private static final Logger LOG = LoggerFactory.getLogger(Event.class);
@@ -76,6 +79,9 @@ public abstract class Event implements Serializable {
 	@JsonInclude(JsonInclude.Include.NON_NULL)
 	protected ZonedDateTime dateToDelete;
 
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Integer normalizationVersion;
+
 	public Event() {
 	}
 
@@ -87,10 +93,11 @@ public abstract class Event implements Serializable {
 		this.parentId = parentId;
 		this.time = ZonedDateTime.now();
 		this.name = name;
-		this.strings = logParams.getStrings();
-		this.text = logParams.getTexts();
-		this.context = logParams.getContext();
-		this.metrics = logParams.getMetrics();
+		// Copies, normalize() rewrites the maps in place on the sender thread while the caller may keep using its LogParams
+		this.strings = new HashMap<>(logParams.getStrings());
+		this.text = new HashMap<>(logParams.getTexts());
+		this.context = new HashMap<>(logParams.getContext());
+		this.metrics = new HashMap<>(logParams.getMetrics());
 	}
 
     public String getTaskId() {
@@ -234,6 +241,19 @@ public abstract class Event implements Serializable {
 		this.dateToDelete = dateToDelete;
 	}
 
+	public Integer getNormalizationVersion() {
+		return normalizationVersion;
+	}
+
+	public void setNormalizationVersion(Integer normalizationVersion) {
+		this.normalizationVersion = normalizationVersion;
+	}
+
+	@JsonIgnore
+	public boolean isNormalized() {
+		return normalizationVersion != null && normalizationVersion == NORMALIZATION_VERSION;
+	}
+
 	@JsonIgnore
 	ZonedDateTime getDateToDelete(long daysRotation) {
 		return TimbermillDatesUtils.getDateToDeleteWithDefault(daysRotation, this.dateToDelete);
@@ -254,9 +274,11 @@ public abstract class Event implements Serializable {
 		int parentsPathSize = parentsPath == null ? 0 : stringListSize(parentsPath) + 14; // "parentPath":[],
 		int orphanSize = orphan == null ? 0 : 16; // "orphan":"true",
 		int dateToDeleteSize = dateToDelete == null ? 0 : 42; // "orphan":"true",
+		int normalizationVersionSize = normalizationVersion == null ? 0 : 25; // "normalizationVersion":1,
 		return this.getClass().getSimpleName().length() + 13 + // {"@type":"StartEvent",}
 				34 + // "time":"2020-02-03T16:40:03.898Z",
-				primaryIdLength + taskIdLength + nameLength + parentIdLength + envLength + stringsSize + textsSize + contextSize + metricsSize + parentsPathSize + orphanSize + dateToDeleteSize;
+				primaryIdLength + taskIdLength + nameLength + parentIdLength + envLength + stringsSize + textsSize + contextSize + metricsSize + parentsPathSize + orphanSize + dateToDeleteSize
+				+ normalizationVersionSize;
 	}
 
 	@JsonIgnore
@@ -295,106 +317,89 @@ public abstract class Event implements Serializable {
 		return Math.max(size-1, 0); // Last ,
 	}
 
+	// Fixes ids, replaces dots in keys, trims long values and zeroes NaN metrics in a single pass over every map.
+	// Maps are changed in place, and only when one of their keys or values has to change
 	@JsonIgnore
-	public void trimAllStrings() {
-		strings = getTrimmedLongValues(strings, Constants.STRING);
-		context = getTrimmedLongValues(context, Constants.CTX);
-		text = getTrimmedLongValues(text, Constants.TEXT);
-		metrics = removeNaNs();
-	}
-
-	@JsonIgnore
-	private Map<String, Number> removeNaNs() {
-		if (metrics != null) {
-			Map<String, Number> newMetrics = Maps.newHashMap();
-			for (Map.Entry<String, Number> entry : metrics.entrySet()) {
-				String key = entry.getKey();
-				Number value = entry.getValue();
-				if (value != null) {
-					if (Double.isNaN(value.doubleValue()) || Float.isNaN(value.floatValue())) {
-						newMetrics.put(key, 0);
-					} else {
-						newMetrics.put(key, value);
-					}
-				}
-			}
-			return newMetrics;
+	public void normalize() {
+		taskId = removeTimbermill2Suffixes(taskId);
+		parentId = removeTimbermill2Suffixes(parentId);
+		normalizeStrings(strings, Constants.STRING, Constants.MAX_CHARS_ALLOWED_FOR_NON_ANALYZED_FIELDS);
+		normalizeStrings(context, Constants.CTX, Constants.MAX_CHARS_ALLOWED_FOR_NON_ANALYZED_FIELDS);
+		normalizeStrings(text, Constants.TEXT, Constants.MAX_CHARS_ALLOWED_FOR_ANALYZED_FIELDS);
+		normalizeMetrics(metrics);
+		normalizationVersion = NORMALIZATION_VERSION;
+	}
+
+	private static String removeTimbermill2Suffixes(String id) {
+		if (id == null || !id.endsWith(TIMBERMILL2_SUFFIX)) {
+			return id;
 		}
-		else {
-			return null;
+		int end = id.length();
+		while (end >= TIMBERMILL2_SUFFIX.length() && id.startsWith(TIMBERMILL2_SUFFIX, end - TIMBERMILL2_SUFFIX.length())) {
+			end -= TIMBERMILL2_SUFFIX.length();
 		}
+		return id.substring(0, end);
 	}
 
-	@JsonIgnore
-	private Map<String, String> getTrimmedLongValues(Map<String, String> oldMap, String type) {
-		if (oldMap != null) {
-			Map<String, String> newMap = new HashMap<>();
-			for (Map.Entry<String, String> entry : oldMap.entrySet()) {
-				String key = entry.getKey();
-				String value = trimIfNeededValue(type, key, entry.getValue());
-				newMap.put(key, value);
+	private static void normalizeStrings(Map<String, String> map, String type, int maxChars) {
+		if (map == null) {
+			return;
+		}
+		Map<String, String> renamedEntries = null;
+		for (Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator(); iterator.hasNext(); ) {
+			Map.Entry<String, String> entry = iterator.next();
+			String value = entry.getValue();
+			if (value != null && value.length() > maxChars) {
+				LOG.debug("Value for key {}.{} is too large, trimmed to {} chars. Value starts with: {}", type, entry.getKey(), maxChars, value.substring(0, 100));
+				value = value.substring(0, maxChars);
+				entry.setValue(value);
+			}
+			String key = entry.getKey();
+			if (key != null && key.indexOf('.') >= 0) {
+				if (renamedEntries == null) {
+					renamedEntries = new HashMap<>();
+				}
+				renamedEntries.put(replaceDots(key), value);
+				iterator.remove();
 			}
-			return newMap;
 		}
-		else {
-			return null;
+		if (renamedEntries != null) {
+			map.putAll(renamedEntries);
 		}
 	}
 
-	@JsonIgnore
-	private String trimIfNeededValue(String type, String key, String value) {
-		if (type.equals(Constants.TEXT)) {
-			value = trimValue(type, key, value, Constants.MAX_CHARS_ALLOWED_FOR_ANALYZED_FIELDS);
-		} else {
-			value = trimValue(type, key, value, Constants.MAX_CHARS_ALLOWED_FOR_NON_ANALYZED_FIELDS);
+	private static void normalizeMetrics(Map<String, Number> map) {
+		if (map == null) {
+			return;
 		}
-		return value;
-	}
-
-	@JsonIgnore
-	private String trimValue(String type, String key, String value, int maxChars) {
-		if (value != null && value.length() > maxChars) {
-			LOG.debug("Value for key {}.{} is too large, trimmed to {} chars. Value starts with: {}", type, key, maxChars, value.substring(0, 100));
-			value = value.substring(0, maxChars);
-		}
-		return value;
-	}
-
-	// elasticsearch doesn't support key with dots, replacing them with "_"
-	@JsonIgnore
-	public void replaceAllFieldsWithDots() {
-		context = replaceFieldWithDots(context);
-		strings = replaceFieldWithDots(strings);
-		text = replaceFieldWithDots(text);
-		metrics = replaceFieldWithDots(metrics);
-	}
-
-
-	@JsonIgnore
-	private <T> HashMap<String, T> replaceFieldWithDots(Map<String, T> field) {
-		HashMap<String, T> newMap = new HashMap<>();
-		if (field != null) {
-			for (Map.Entry<String, ?> entry : field.entrySet()) {
-				String key = entry.getKey();
-				newMap.put(key.replace(".", "_"), field.get(key));
+		Map<String, Number> renamedEntries = null;
+		for (Iterator<Map.Entry<String, Number>> iterator = map.entrySet().iterator(); iterator.hasNext(); ) {
+			Map.Entry<String, Number> entry = iterator.next();
+			Number value = entry.getValue();
+			if (value == null) {
+				iterator.remove();
+				continue;
+			}
+			if (Double.isNaN(value.doubleValue()) || Float.isNaN(value.floatValue())) {
+				value = 0;
+				entry.setValue(value);
+			}
+			String key = entry.getKey();
+			if (key != null && key.indexOf('.') >= 0) {
+				if (renamedEntries == null) {
+					renamedEntries = new HashMap<>();
+				}
+				renamedEntries.put(replaceDots(key), value);
+				iterator.remove();
 			}
 		}
-		return newMap;
+		if (renamedEntries != null) {
+			map.putAll(renamedEntries);
+		}
 	}
 
-	@JsonIgnore
-	public void fixErrors() {
-		if (this.taskId != null && this.taskId.endsWith("_timbermill2_timbermill2")){
-			this.taskId = this.taskId.replace("_timbermill2_timbermill2", "");
-		}
-		if (this.taskId != null && this.taskId.endsWith("_timbermill2")){
-			this.taskId = this.taskId.replace("_timbermill2", "");
-		}
-		if (this.parentId != null && this.parentId.endsWith("_timbermill2_timbermill2")){
-			this.parentId = this.parentId.replace("_timbermill2_timbermill2", "");
-		}
-		if (this.parentId != null && this.parentId.endsWith("_timbermill2")){
-			this.parentId = this.parentId.replace("_timbermill2", "");
-		}
+	// elasticsearch doesn't support key with dots, replacing them with "_"
+	private static String replaceDots(String key) {
+		return key.replace('.', '_');
 	}
 }
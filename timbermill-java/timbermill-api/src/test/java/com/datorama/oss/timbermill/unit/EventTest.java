@@ -0,0 +1,73 @@
+package com.datorama.oss.timbermill.unit;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.datorama.oss.timbermill.common.Constants;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+
+import static org.junit.Assert.*;
+
+public class EventTest {
+
+	@Test
+	public void normalize() {
+		String longString = Strings.repeat("a", Constants.MAX_CHARS_ALLOWED_FOR_NON_ANALYZED_FIELDS + 1);
+		LogParams logParams = LogParams.create()
+				.string("with.dots", "value")
+				.string("long", longString)
+				.context("ctx.key", longString)
+				.text("text", longString)
+				.metric("nan", Double.NaN)
+				.metric("metric.with.dots", 1);
+		Event event = new StartEvent("id_timbermill2_timbermill2", "name", logParams, "parent_timbermill2");
+		Map<String, String> strings = event.getStrings();
+
+		event.normalize();
+
+		assertEquals("id", event.getTaskId());
+		assertEquals("parent", event.getParentId());
+		assertSame(strings, event.getStrings());
+		assertEquals("value", event.getStrings().get("with_dots"));
+		assertFalse(event.getStrings().containsKey("with.dots"));
+		assertEquals(Constants.MAX_CHARS_ALLOWED_FOR_NON_ANALYZED_FIELDS, event.getStrings().get("long").length());
+		assertEquals(Constants.MAX_CHARS_ALLOWED_FOR_NON_ANALYZED_FIELDS, event.getContext().get("ctx_key").length());
+		assertEquals(longString, event.getText().get("text"));
+		assertEquals(0, event.getMetrics().get("nan").intValue());
+		assertEquals(1, event.getMetrics().get("metric_with_dots").intValue());
+		assertTrue(event.isNormalized());
+	}
+
+	@Test
+	public void normalizeKeepsLogParamsIntact() {
+		String longString = Strings.repeat("a", Constants.MAX_CHARS_ALLOWED_FOR_NON_ANALYZED_FIELDS + 1);
+		LogParams logParams = LogParams.create()
+				.string("with.dots", longString)
+				.context("ctx.key", "value")
+				.metric("nan", Double.NaN);
+		Event event = new InfoEvent("id", logParams);
+
+		event.normalize();
+
+		assertEquals(longString, logParams.getStrings().get("with.dots"));
+		assertEquals("value", logParams.getContext().get("ctx.key"));
+		assertTrue(Double.isNaN(logParams.getMetrics().get("nan").doubleValue()));
+		assertFalse(logParams.getStrings().containsKey("with_dots"));
+	}
+
+	@Test
+	public void normalizationVersionIsSerialized() throws Exception {
+		ObjectMapper objectMapper = new ObjectMapper();
+		Event event = new InfoEvent("id", LogParams.create());
+		assertFalse(objectMapper.readValue(objectMapper.writeValueAsString(event), Event.class).isNormalized());
+
+		event.normalize();
+		Event deserialized = objectMapper.readValue(objectMapper.writeValueAsString(event), Event.class);
+		assertTrue(deserialized.isNormalized());
+
+		deserialized.setNormalizationVersion(Event.NORMALIZATION_VERSION - 1);
+		assertFalse(deserialized.isNormalized());
+	}
+}
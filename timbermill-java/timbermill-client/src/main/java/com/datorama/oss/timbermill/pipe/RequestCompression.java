@@ -0,0 +1,53 @@
+package com.datorama.oss.timbermill.pipe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.datorama.oss.timbermill.common.Constants;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+/**
+ * Content-Encoding used for requests sent to the Timbermill server.
+ * Zstd and LZ4 are cheaper to decompress on the server than gzip, zstd can also use a dictionary trained on Timbermill events (see {@link ZstdDictionaryTrainer}).
+ */
+public enum RequestCompression {
+    NONE(null) {
+        @Override OutputStream compress(OutputStream os, int size, byte[] zstdDictionary) {
+            return os;
+        }
+    },
+    GZIP(Constants.GZIP_ENCODING) {
+        @Override OutputStream compress(OutputStream os, int size, byte[] zstdDictionary) throws IOException {
+            return new GZIPOutputStream(os, size);
+        }
+    },
+    ZSTD(Constants.ZSTD_ENCODING) {
+        @Override OutputStream compress(OutputStream os, int size, byte[] zstdDictionary) throws IOException {
+            ZstdOutputStream zstdOutputStream = new ZstdOutputStream(os);
+            if (zstdDictionary != null) {
+                zstdOutputStream.setDict(zstdDictionary);
+            }
+            return zstdOutputStream;
+        }
+    },
+    LZ4(Constants.LZ4_ENCODING) {
+        @Override OutputStream compress(OutputStream os, int size, byte[] zstdDictionary) throws IOException {
+            return new LZ4FrameOutputStream(os);
+        }
+    };
+
+    private final String contentEncoding;
+
+    RequestCompression(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    abstract OutputStream compress(OutputStream os, int size, byte[] zstdDictionary) throws IOException;
+}
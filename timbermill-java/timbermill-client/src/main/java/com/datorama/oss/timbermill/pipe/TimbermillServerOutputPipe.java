@@ -1,5 +1,6 @@
 package com.datorama.oss.timbermill.pipe;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
@@ -9,29 +10,42 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.http.HttpHost;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.datorama.oss.timbermill.common.Constants;
 import com.datorama.oss.timbermill.unit.Event;
 import com.datorama.oss.timbermill.unit.EventsWrapper;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class TimbermillServerOutputPipe implements EventOutputPipe {
 
     private static final int HTTP_TIMEOUT = 10000;
     private static final int MAX_RETRY = 5;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int UNSUPPORTED_MEDIA_TYPE = 415;
     private static final Logger LOG = LoggerFactory.getLogger(TimbermillServerOutputPipe.class);
+    private static final String EVENTS_PATH = "/events";
+    private static final String EVENTS_STREAM_PATH = "/events/stream";
+    private static final ObjectMapper JSON_OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectMapper SMILE_OBJECT_MAPPER = new ObjectMapper(new SmileFactory());
     private static volatile boolean keepRunning = true;
     private URL timbermillServerUrl;
     private SizedBoundEventsQueue buffer;
     private ExecutorService executorService;
-    private boolean sendGzippedRequest;
+    private volatile RequestCompression requestCompression;
+    private byte[] zstdDictionary;
+    private boolean sendStreamingRequest;
+    private boolean sendSmileRequest;
+    private ObjectMapper objectMapper;
 
     private TimbermillServerOutputPipe() {
     }
@@ -43,7 +57,7 @@ public class TimbermillServerOutputPipe implements EventOutputPipe {
         }
         try {
             HttpHost httpHost = HttpHost.create(builder.timbermillServerUrl);
-            timbermillServerUrl = new URL(httpHost.toURI() + "/events");
+            timbermillServerUrl = new URL(httpHost.toURI() + (builder.sendStreamingRequest ? EVENTS_STREAM_PATH : EVENTS_PATH));
         } catch (MalformedURLException e) {
             throw new RuntimeException(e);
         }
@@ -52,7 +66,11 @@ public class TimbermillServerOutputPipe implements EventOutputPipe {
         ThreadFactory namedThreadFactory = new ThreadFactoryBuilder().setNameFormat("timbermill-sender-%d").build();
 		this.executorService = Executors.newFixedThreadPool(builder.numOfThreads, namedThreadFactory);
         executeEventsSenders(builder.maxEventsBatchSize, builder.numOfThreads);
-        sendGzippedRequest = builder.sendGzippedRequest;
+        requestCompression = builder.requestCompression;
+        zstdDictionary = builder.zstdDictionary;
+        sendStreamingRequest = builder.sendStreamingRequest;
+        sendSmileRequest = builder.sendSmileRequest;
+        objectMapper = sendSmileRequest ? SMILE_OBJECT_MAPPER : JSON_OBJECT_MAPPER;
 
         // shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -107,51 +125,131 @@ public class TimbermillServerOutputPipe implements EventOutputPipe {
     }
 
     private void sendEvents(EventsWrapper eventsWrapper) throws IOException {
+        List<Event> events = eventsWrapper.getEvents();
         byte[] eventsWrapperBytes = getEventsWrapperBytes(eventsWrapper);
-        for (int tryNum = 1; tryNum <= MAX_RETRY; tryNum++) {
+        int tryNum = 1;
+        while (tryNum <= MAX_RETRY) {
+            long sleepMillis = (long) (Math.pow(2 , tryNum) * 1000); //Exponential backoff
+            boolean throttled = false;
             try {
-                HttpURLConnection httpCon = getHttpURLConnection();
-                sendEventsOverConnection(httpCon, eventsWrapperBytes);
+                RequestCompression compression = requestCompression;
+                HttpURLConnection httpCon = getHttpURLConnection(compression);
+                sendEventsOverConnection(httpCon, eventsWrapperBytes, compression);
                 int responseCode = httpCon.getResponseCode();
                 if (responseCode == 200) {
-                    LOG.debug("{} events were sent to Timbermill server", eventsWrapper.getEvents().size());
+                    LOG.debug("{} events were sent to Timbermill server", events.size());
                     return;
 
+                } else if (responseCode == TOO_MANY_REQUESTS && keepRunning) {
+                    // Server is saturated, wait as long as it asked without using up an attempt
+                    throttled = true;
+                    sleepMillis = getRetryAfterMillis(httpCon, sleepMillis);
+                    LOG.debug("Timbermill server is overloaded, resending {} events in {} ms", events.size(), sleepMillis);
+                } else if (responseCode == UNSUPPORTED_MEDIA_TYPE && compression != RequestCompression.GZIP && compression != RequestCompression.NONE) {
+                    // Server doesn't support this encoding yet, every server version accepts gzip
+                    LOG.warn("Timbermill server doesn't accept {} requests, falling back to gzip", compression);
+                    requestCompression = RequestCompression.GZIP;
+                    continue;
                 } else {
                     LOG.warn("Request #" + tryNum + " to Timbermill return status {}, Attempt: {}/{} Message: {}", responseCode, tryNum, MAX_RETRY, httpCon.getResponseMessage());
+                    int acceptedEvents = getAcceptedEvents(httpCon, events.size());
+                    if (acceptedEvents > 0) {
+                        // The server already queued the beginning of the stream, resending it would index those events twice
+                        events = events.subList(acceptedEvents, events.size());
+                        if (events.isEmpty()) {
+                            return;
+                        }
+                        eventsWrapperBytes = getEventsStreamBytes(events);
+                    }
                 }
             } catch (Exception e){
                 LOG.warn("Request #" + tryNum + " to Timbermill failed, Attempt: "+ tryNum + "/" + MAX_RETRY, e);
             }
             try {
-                Thread.sleep((long) (Math.pow(2 , tryNum) * 1000)); //Exponential backoff
+                Thread.sleep(sleepMillis);
             } catch (InterruptedException ignored) {
             }
+            if (!throttled) {
+                tryNum++;
+            }
+        }
+        if (sendSmileRequest) {
+            LOG.error("Can't send events to Timbermill, failed {} attempts. {} events were dropped", MAX_RETRY, events.size());
+        } else {
+            LOG.error("Can't send events to Timbermill, failed {} attempts.\n Failed request: {} ", MAX_RETRY, new String(eventsWrapperBytes));
         }
-        LOG.error("Can't send events to Timbermill, failed {} attempts.\n Failed request: {} " , MAX_RETRY, new String(eventsWrapperBytes));
     }
 
-    private void sendEventsOverConnection(HttpURLConnection httpCon, byte[] eventsWrapperBytes) throws IOException {
+    // Retry-After in seconds, with up to 50% jitter so throttled clients don't all come back at once
+    private static long getRetryAfterMillis(HttpURLConnection httpCon, long defaultMillis) {
+        String retryAfter = httpCon.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return defaultMillis;
+        }
+        try {
+            long retryAfterMillis = Math.max(Long.parseLong(retryAfter.trim()), 1) * 1000;
+            return retryAfterMillis + ThreadLocalRandom.current().nextLong(retryAfterMillis / 2 + 1);
+        } catch (NumberFormatException e) {
+            return defaultMillis;
+        }
+    }
+
+    // Number of events a streaming request queued on the server before it failed, 0 when the server didn't report any
+    private int getAcceptedEvents(HttpURLConnection httpCon, int sentEvents) {
+        String acceptedEvents = sendStreamingRequest ? httpCon.getHeaderField(Constants.ACCEPTED_EVENTS_HEADER) : null;
+        if (acceptedEvents == null) {
+            return 0;
+        }
+        try {
+            return Math.min(Math.max(Integer.parseInt(acceptedEvents.trim()), 0), sentEvents);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void sendEventsOverConnection(HttpURLConnection httpCon, byte[] eventsWrapperBytes, RequestCompression compression) throws IOException {
         try (OutputStream httpConOS = httpCon.getOutputStream();
-                OutputStream os = sendGzippedRequest ? new GZIPOutputStream(httpConOS, eventsWrapperBytes.length) : httpConOS) {
+                OutputStream os = compression.compress(httpConOS, eventsWrapperBytes.length, zstdDictionary)) {
             os.write(eventsWrapperBytes);
         }
     }
 
-    private byte[] getEventsWrapperBytes(EventsWrapper eventsWrapper) throws JsonProcessingException {
-        ObjectMapper om = new ObjectMapper();
-        return om.writeValueAsBytes(eventsWrapper);
+    private byte[] getEventsWrapperBytes(EventsWrapper eventsWrapper) throws IOException {
+        if (sendStreamingRequest) {
+            return getEventsStreamBytes(eventsWrapper.getEvents());
+        }
+        return objectMapper.writeValueAsBytes(eventsWrapper);
+    }
+
+    // Sequence of root level events (newline delimited in JSON), so the server can parse them one by one
+    private byte[] getEventsStreamBytes(List<Event> events) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectWriter eventWriter = objectMapper.writerFor(Event.class);
+        if (!sendSmileRequest) {
+            eventWriter = eventWriter.withRootValueSeparator("\n");
+        }
+        try (SequenceWriter sequenceWriter = eventWriter.writeValues(out)) {
+            sequenceWriter.writeAll(events);
+        }
+        return out.toByteArray();
+    }
+
+    private String getContentType() {
+        if (sendSmileRequest) {
+            return Constants.SMILE_CONTENT_TYPE;
+        }
+        return sendStreamingRequest ? Constants.NDJSON_CONTENT_TYPE : Constants.JSON_CONTENT_TYPE;
     }
 
-    private HttpURLConnection getHttpURLConnection() throws IOException {
+    private HttpURLConnection getHttpURLConnection(RequestCompression compression) throws IOException {
         HttpURLConnection httpURLConnection = (HttpURLConnection) timbermillServerUrl.openConnection();
         httpURLConnection.setRequestMethod("POST");
-        httpURLConnection.setRequestProperty("content-type", "application/json");
+        httpURLConnection.setRequestProperty("content-type", getContentType());
         httpURLConnection.setDoOutput(true);
         httpURLConnection.setConnectTimeout(HTTP_TIMEOUT);
         httpURLConnection.setReadTimeout(HTTP_TIMEOUT);
-        if (sendGzippedRequest) {
-            httpURLConnection.setRequestProperty("Content-Encoding", "gzip");
+        if (compression.getContentEncoding() != null) {
+            httpURLConnection.setRequestProperty("Content-Encoding", compression.getContentEncoding());
         }
         return httpURLConnection;
     }
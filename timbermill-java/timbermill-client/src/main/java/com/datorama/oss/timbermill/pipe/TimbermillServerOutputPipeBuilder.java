@@ -6,7 +6,10 @@ public class TimbermillServerOutputPipeBuilder {
 	long maxSecondsBeforeBatchTimeout = 3;
 	int maxBufferSize = 200000;
 	int numOfThreads = 1;
-	boolean sendGzippedRequest = true;
+	RequestCompression requestCompression = RequestCompression.GZIP;
+	byte[] zstdDictionary;
+	boolean sendStreamingRequest = false;
+	boolean sendSmileRequest = false;
 
 
 	public TimbermillServerOutputPipeBuilder timbermillServerUrl(String timbermillServerUrl) {
@@ -35,7 +38,27 @@ public class TimbermillServerOutputPipeBuilder {
 	}
 
 	public TimbermillServerOutputPipeBuilder sendGzippedRequest(boolean sendGzippedRequest) {
-		this.sendGzippedRequest = sendGzippedRequest;
+		this.requestCompression = sendGzippedRequest ? RequestCompression.GZIP : RequestCompression.NONE;
+		return this;
+	}
+
+	public TimbermillServerOutputPipeBuilder requestCompression(RequestCompression requestCompression) {
+		this.requestCompression = requestCompression;
+		return this;
+	}
+
+	public TimbermillServerOutputPipeBuilder zstdDictionary(byte[] zstdDictionary) {
+		this.zstdDictionary = zstdDictionary;
+		return this;
+	}
+
+	public TimbermillServerOutputPipeBuilder sendStreamingRequest(boolean sendStreamingRequest) {
+		this.sendStreamingRequest = sendStreamingRequest;
+		return this;
+	}
+
+	public TimbermillServerOutputPipeBuilder sendSmileRequest(boolean sendSmileRequest) {
+		this.sendSmileRequest = sendSmileRequest;
 		return this;
 	}
 
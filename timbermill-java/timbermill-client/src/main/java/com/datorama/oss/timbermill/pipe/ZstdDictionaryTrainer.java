@@ -0,0 +1,33 @@
+package com.datorama.oss.timbermill.pipe;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.datorama.oss.timbermill.unit.Event;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+/**
+ * Trains a zstd dictionary from sample events, to be passed to {@link TimbermillServerOutputPipeBuilder#zstdDictionary(byte[])}
+ * and saved to the file configured as ZSTD_DICTIONARY_PATH on the server.
+ * Event names and keys repeat a lot between requests, so a dictionary makes small batches compress much better.
+ * Samples should be a few thousand real events, zstd fails training when there isn't enough sample data.
+ */
+public final class ZstdDictionaryTrainer {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int MAX_SAMPLES_SIZE = 100 * 1024 * 1024;
+
+    private ZstdDictionaryTrainer() {
+    }
+
+    public static byte[] train(Collection<Event> sampleEvents, int dictionarySize) throws IOException {
+        ZstdDictTrainer trainer = new ZstdDictTrainer(MAX_SAMPLES_SIZE, dictionarySize);
+        for (Event event : sampleEvents) {
+            if (!trainer.addSample(OBJECT_MAPPER.writeValueAsBytes(event))) {
+                break;
+            }
+        }
+        return trainer.trainSamples();
+    }
+}
@@ -36,9 +36,9 @@ public class SizedBoundEventsQueueTest {
 		Event e2 = new StartEvent("id2", "name2", LogParams.create(), null);
 		Event e3 = new StartEvent("id3", "name3", LogParams.create(), null);
 
-		e1.trimAllStrings();
-		e2.trimAllStrings();
-		e3.trimAllStrings();
+		e1.normalize();
+		e2.normalize();
+		e3.normalize();
 
 		events.offer(e1);
 		events.offer(e2);
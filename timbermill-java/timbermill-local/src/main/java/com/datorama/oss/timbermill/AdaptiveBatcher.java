@@ -0,0 +1,89 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.KamonConstants;
+import com.datorama.oss.timbermill.unit.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many events to drain into the next batch and how long to wait for them.
+ * An event waits in the queue for the linger time and then for its batch's bulk requests, so the linger time is whatever is left of the target lag
+ * after the recent bulk latency. The batch size is what is already queued plus what is expected to arrive while lingering.
+ * Once the queue holds a full batch there's no reason to wait, it is drained right away.
+ */
+public class AdaptiveBatcher {
+
+    private static final double RATE_SMOOTHING_FACTOR = 0.2;
+
+    private final IndexingPipeline indexingPipeline;
+    private final long targetLagMillis;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private double eventsPerMilli = 0;
+    private long lastDrainTime = System.currentTimeMillis();
+
+    public AdaptiveBatcher(IndexingPipeline indexingPipeline, long targetLagMillis, int minBatchSize, int maxBatchSize) {
+        if (targetLagMillis < 1) {
+            throw new RuntimeException("Target indexing lag property should be larger than 0");
+        }
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+            throw new RuntimeException("Batch size properties should be larger than 0, and max batch size should not be below min batch size");
+        }
+        this.indexingPipeline = indexingPipeline;
+        this.targetLagMillis = targetLagMillis;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    // Returns an empty list if no event arrived for the target lag, so callers get to check whether they should keep running
+    public List<Event> drain(BlockingQueue<Event> eventsQueue) throws InterruptedException {
+        List<Event> events = new ArrayList<>();
+        Event first = eventsQueue.poll(targetLagMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return events;
+        }
+        events.add(first);
+
+        int queueDepth = eventsQueue.size() + 1;
+        long lingerMillis = getLingerMillis(queueDepth);
+        int batchSize = getBatchSize(queueDepth, lingerMillis);
+        long deadline = System.currentTimeMillis() + lingerMillis;
+        eventsQueue.drainTo(events, batchSize - events.size());
+        long remainingMillis;
+        while (events.size() < batchSize && (remainingMillis = deadline - System.currentTimeMillis()) > 0) {
+            Event event = eventsQueue.poll(remainingMillis, TimeUnit.MILLISECONDS);
+            if (event == null) {
+                break;
+            }
+            events.add(event);
+            eventsQueue.drainTo(events, batchSize - events.size());
+        }
+
+        recordDrain(events.size());
+        KamonConstants.BATCH_SIZE_HISTOGRAM.withoutTags().record(events.size());
+        KamonConstants.BATCH_LINGER_MILLIS_HISTOGRAM.withoutTags().record(lingerMillis);
+        return events;
+    }
+
+    long getLingerMillis(int queueDepth) {
+        if (queueDepth >= maxBatchSize) {
+            return 0;
+        }
+        return Math.max(targetLagMillis - indexingPipeline.getBulkLatencyMillis(), 0);
+    }
+
+    int getBatchSize(int queueDepth, long lingerMillis) {
+        long expectedEvents = queueDepth + (long) (eventsPerMilli * lingerMillis);
+        return (int) Math.min(Math.max(expectedEvents, minBatchSize), maxBatchSize);
+    }
+
+    private void recordDrain(int drainedEvents) {
+        long now = System.currentTimeMillis();
+        long elapsedMillis = Math.max(now - lastDrainTime, 1);
+        eventsPerMilli += RATE_SMOOTHING_FACTOR * ((double) drainedEvents / elapsedMillis - eventsPerMilli);
+        lastDrainTime = now;
+    }
+}
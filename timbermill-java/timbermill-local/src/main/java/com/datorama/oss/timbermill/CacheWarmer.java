@@ -0,0 +1,87 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.KamonConstants;
+import com.datorama.oss.timbermill.common.cache.AbstractCacheHandler;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.Task;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fills the tasks cache on startup with the tasks most likely to be the parents of the next events, the non terminated and the recently
+ * started ones, so an empty cache doesn't send every parent to Elasticsearch. Runs alongside ingestion for up to a time budget, tasks
+ * that ingestion cached meanwhile are newer than the indexed ones and are kept.
+ */
+public class CacheWarmer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheWarmer.class);
+
+    private final ElasticsearchClient es;
+    private final AbstractCacheHandler cacheHandler;
+    private final int warmUpSeconds;
+    private final int lookbackMinutes;
+    private final int maxTasks;
+    private volatile boolean closed;
+
+    public CacheWarmer(ElasticsearchClient es, AbstractCacheHandler cacheHandler, int warmUpSeconds, int lookbackMinutes, int maxTasks) {
+        if (warmUpSeconds < 0 || lookbackMinutes < 0 || maxTasks < 0) {
+            throw new RuntimeException("Cache warm up properties should not be negative");
+        }
+        this.es = es;
+        this.cacheHandler = cacheHandler;
+        this.warmUpSeconds = warmUpSeconds;
+        this.lookbackMinutes = lookbackMinutes;
+        this.maxTasks = maxTasks;
+    }
+
+    public void start() {
+        if (warmUpSeconds == 0 || maxTasks == 0) {
+            return;
+        }
+        Thread warmUpThread = new Thread(this::warmUp, "timbermill-cache-warm-up");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    int warmUp() {
+        LOG.info("Warming up the tasks cache for up to {} seconds", warmUpSeconds);
+        long startTime = System.currentTimeMillis();
+        AtomicInteger cachedTasks = new AtomicInteger();
+        int streamedTasks = es.streamRecentTasks(lookbackMinutes, maxTasks, startTime + TimeUnit.SECONDS.toMillis(warmUpSeconds), tasks -> {
+            if (closed) {
+                return false;
+            }
+            cachedTasks.addAndGet(cacheAbsentTasks(tasks));
+            return true;
+        });
+        LOG.info("Tasks cache warm up cached {} of {} recent tasks in {} ms", cachedTasks.get(), streamedTasks, System.currentTimeMillis() - startTime);
+        return cachedTasks.get();
+    }
+
+    private int cacheAbsentTasks(Map<String, Task> tasks) {
+        cacheHandler.lock();
+        try {
+            Map<String, ParentInfo> cachedTasks = cacheHandler.logGetFromTasksCache(tasks.keySet(), "warm_up");
+            Map<String, ParentInfo> absentTasks = Maps.newHashMap();
+            tasks.forEach((id, task) -> {
+                if (cachedTasks.get(id) == null) {
+                    absentTasks.put(id, new ParentInfo(task));
+                }
+            });
+            cacheHandler.logPushToTasksCache(absentTasks, "warm_up");
+            KamonConstants.CACHE_WARM_UP_TASKS_COUNTER.withoutTags().increment(absentTasks.size());
+            return absentTasks.size();
+        } finally {
+            cacheHandler.release();
+        }
+    }
+}
@@ -17,12 +17,15 @@ import com.evanlennick.retry4j.config.RetryConfig;
 import com.evanlennick.retry4j.config.RetryConfigBuilder;
 import com.evanlennick.retry4j.exception.RetriesExhaustedException;
 import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.gson.*;
 import com.google.gson.internal.LazilyParsedNumber;
+import kamon.metric.Timer;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequestInterceptor;
@@ -35,9 +38,11 @@ import org.elasticsearch.action.admin.cluster.storedscripts.PutStoredScriptReque
 import org.elasticsearch.action.admin.indices.alias.Alias;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
 import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.*;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.*;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
@@ -67,7 +72,9 @@ import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -79,7 +86,9 @@ import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static com.datorama.oss.timbermill.common.ElasticsearchUtil.*;
@@ -100,6 +109,8 @@ public class ElasticsearchClient {
     private static final String META_TASK_BEGIN = "meta.taskBegin";
 	protected final RestHighLevelClient client;
 	private final int indexBulkSize;
+	// Only safe when this server's tasks cache is authoritative: a single server writes the tasks and no near cache is used
+	private final boolean scriptlessUpdates;
 	private final ExecutorService executorService;
 	private final int numberOfShards;
 	private final int maxSlices;
@@ -114,16 +125,25 @@ public class ElasticsearchClient {
 	private final int scrollLimitation;
 	private final int scrollTimeoutSeconds;
 	private final int fetchByIdsPartitions;
+	private final int multiGetMaxIds;
 	private AtomicInteger concurrentScrolls = new AtomicInteger(0);
+	private final Set<String> indicesToRefresh = ConcurrentHashMap.newKeySet();
 	private final int expiredMaxIndicesTodeleteInParallel;
+	// Aliases known to exist, checked again once the entry expires or when a request on the alias fails
+	private final Cache<String, Boolean> aliasesExistence;
+	// The index each env's tasks are written to, published by the rollover job
+	private final Map<String, String> writeIndices = new ConcurrentHashMap<>();
 
 	public ElasticsearchClient(String elasticUrl, int indexBulkSize, int indexingThreads, String awsRegion, String elasticUser, String elasticPassword, long maxIndexAge,
 							   long maxIndexSizeInGB, long maxIndexDocs, int numOfElasticSearchActionsTries, int maxBulkIndexFetches, int searchMaxSize, PersistenceHandler persistenceHandler, int numberOfShards, int numberOfReplicas,
-							   int maxTotalFields, Bulker bulker, int scrollLimitation, int scrollTimeoutSeconds, int fetchByIdsPartitions, int expiredMaxIndicesTodeleteInParallel) {
+							   int maxTotalFields, Bulker bulker, int scrollLimitation, int scrollTimeoutSeconds, int fetchByIdsPartitions, int expiredMaxIndicesTodeleteInParallel,
+							   boolean scriptlessUpdates, int indexStateCacheTtlSeconds, int multiGetMaxIds) {
 
 		validateProperties(indexBulkSize, indexingThreads, maxIndexAge, maxIndexSizeInGB, maxIndexDocs, numOfElasticSearchActionsTries, numOfElasticSearchActionsTries, scrollLimitation,
-				scrollTimeoutSeconds, fetchByIdsPartitions, numberOfShards, expiredMaxIndicesTodeleteInParallel);
+				scrollTimeoutSeconds, fetchByIdsPartitions, numberOfShards, expiredMaxIndicesTodeleteInParallel, indexStateCacheTtlSeconds);
 		this.indexBulkSize = indexBulkSize;
+		this.scriptlessUpdates = scriptlessUpdates;
+		this.aliasesExistence = CacheBuilder.newBuilder().expireAfterWrite(indexStateCacheTtlSeconds, TimeUnit.SECONDS).build();
 		this.searchMaxSize = searchMaxSize;
 		this.maxIndexAge = maxIndexAge;
         this.maxIndexSizeInGB = maxIndexSizeInGB;
@@ -133,6 +153,7 @@ public class ElasticsearchClient {
         this.scrollLimitation = scrollLimitation;
         this.scrollTimeoutSeconds = scrollTimeoutSeconds;
         this.fetchByIdsPartitions = fetchByIdsPartitions;
+        this.multiGetMaxIds = multiGetMaxIds;
 		this.numberOfShards = numberOfShards;
 		this.maxSlices = numberOfShards <= 1 ? 2 : numberOfShards;
 		this.expiredMaxIndicesTodeleteInParallel = expiredMaxIndicesTodeleteInParallel;
@@ -173,7 +194,7 @@ public class ElasticsearchClient {
     }
 
     private void validateProperties(int indexBulkSize, int indexingThreads, long maxIndexAge, long maxIndexSizeInGB, long maxIndexDocs, int numOfMergedTasksTries, int numOfElasticSearchActionsTries,
-			int scrollLimitation, int scrollTimeoutSeconds, int fetchByIdsPartitions, int numberOfShards, int expiredMaxIndicesToDeleteInParallel) {
+			int scrollLimitation, int scrollTimeoutSeconds, int fetchByIdsPartitions, int numberOfShards, int expiredMaxIndicesToDeleteInParallel, int indexStateCacheTtlSeconds) {
 		if (indexBulkSize < 1) {
 			throw new RuntimeException("Index bulk size property should be larger than 0");
 		}
@@ -201,6 +222,9 @@ public class ElasticsearchClient {
 		if (scrollTimeoutSeconds < 1) {
 			throw new RuntimeException("Elasticsearch scroll timeout limitation  property should not be below 1");
 		}
+		if (indexStateCacheTtlSeconds < 0) {
+			throw new RuntimeException("Index state cache TTL property should not be below 0");
+		}
 
 		if (fetchByIdsPartitions < 1) {
 			throw new RuntimeException("Fetch By Ids Partitions property should not be below 1");
@@ -224,7 +248,7 @@ public class ElasticsearchClient {
 	public List<Task> getMultipleTasksById(String taskId) {
         IdsQueryBuilder idsQueryBuilder = QueryBuilders.idsQuery().addIds(taskId);
 		Map<String, List<Task>> map = Maps.newHashMap();
-		List<Future<Map<String, List<Task>>>> futures = runScrollInSlices(idsQueryBuilder, "Test", EMPTY_ARRAY, ALL_TASK_FIELDS, TIMBERMILL_INDEX_WILDCARD);
+		List<Future<Map<String, List<Task>>>> futures = runScrollInSlices(idsQueryBuilder, "Test", EMPTY_ARRAY, ALL_TASK_FIELDS, null, TIMBERMILL_INDEX_WILDCARD);
 		for (Future<Map<String, List<Task>>> future : futures) {
 			Map<String, List<Task>> taskMap;
 			try {
@@ -250,6 +274,12 @@ public class ElasticsearchClient {
 
 	private Map<String, Task> getTasksByIds(List<QueryBuilder> filterQueryBuilders, List<QueryBuilder> mustNotQueryBuilders, Collection<String> taskIds, String functionDescription,
 											String[] taskFieldsToInclude, String[] taskFieldsToExclude, String... indices) {
+		return getTasksByIds(filterQueryBuilders, mustNotQueryBuilders, taskIds, null, functionDescription, taskFieldsToInclude, taskFieldsToExclude, indices);
+	}
+
+	// Ids of partitions that weren't fully searched are added to failedIds, when it isn't null
+	private Map<String, Task> getTasksByIds(List<QueryBuilder> filterQueryBuilders, List<QueryBuilder> mustNotQueryBuilders, Collection<String> taskIds, Set<String> failedIds,
+											String functionDescription, String[] taskFieldsToInclude, String[] taskFieldsToExclude, String... indices) {
 		Map<String, Task> allTasks = Maps.newHashMap();
 		for (List<String> batch : Iterables.partition(taskIds, fetchByIdsPartitions)){
 			BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
@@ -272,16 +302,24 @@ public class ElasticsearchClient {
 				}
 			}
 
-			Map<String, Task> batchResult = getSingleTaskByIds(boolQueryBuilder, functionDescription, taskFieldsToInclude, taskFieldsToExclude, indices);
-			allTasks.putAll(batchResult);
+			if (!collectSingleTaskByIds(allTasks, boolQueryBuilder, functionDescription, taskFieldsToInclude, taskFieldsToExclude, indices) && failedIds != null) {
+				failedIds.addAll(batch);
+			}
 		}
 		return allTasks;
     }
 
     private Map<String, Task> getSingleTaskByIds(AbstractQueryBuilder queryBuilder, String functionDescription, String[] taskFieldsToInclude, String[] taskFieldsToExclude, String... indices) {
         Map<String, Task> retMap = Maps.newHashMap();
+		collectSingleTaskByIds(retMap, queryBuilder, functionDescription, taskFieldsToInclude, taskFieldsToExclude, indices);
+		return retMap;
+	}
 
-		List<Future<Map<String, List<Task>>>> futures = runScrollInSlices(queryBuilder, functionDescription, taskFieldsToInclude, taskFieldsToExclude, indices);
+	// Returns false if any of the slices failed, tasks found by the other slices are still collected
+	private boolean collectSingleTaskByIds(Map<String, Task> retMap, AbstractQueryBuilder queryBuilder, String functionDescription, String[] taskFieldsToInclude,
+										   String[] taskFieldsToExclude, String... indices) {
+		AtomicBoolean failed = new AtomicBoolean();
+		List<Future<Map<String, List<Task>>>> futures = runScrollInSlices(queryBuilder, functionDescription, taskFieldsToInclude, taskFieldsToExclude, failed, indices);
 
 		for (Future<Map<String, List<Task>>> future : futures) {
 			try {
@@ -298,19 +336,20 @@ public class ElasticsearchClient {
 				}
 			} catch (InterruptedException | ExecutionException e) {
 				LOG.error("Error while concurrently running sliced scrolls for [" + functionDescription + "]", e);
+				failed.set(true);
 			}
 		}
-		return retMap;
+		return !failed.get();
     }
 
 	private List<Future<Map<String, List<Task>>>> runScrollInSlices(AbstractQueryBuilder queryBuilder, String functionDescription, String[] taskFieldsToInclude, String[] taskFieldsToExclude,
-																	String... indices) {
+																	AtomicBoolean failed, String... indices) {
 		List<Future<Map<String, List<Task>>>> futures = Lists.newArrayList();
 		for (int sliceId = 0; sliceId < maxSlices; sliceId++) {
 			int finalSliceId = sliceId;
 			String flowId = MDC.get("id");
 			Future<Map<String, List<Task>>> futureFetcher = executorService
-					.submit(() -> runScrollQuery(queryBuilder, functionDescription, taskFieldsToInclude, taskFieldsToExclude, flowId, finalSliceId, indices));
+					.submit(() -> runScrollQuery(queryBuilder, functionDescription, taskFieldsToInclude, taskFieldsToExclude, flowId, finalSliceId, failed, indices));
 			futures.add(futureFetcher);
 		}
 		return futures;
@@ -363,7 +402,9 @@ public class ElasticsearchClient {
 
 	private List<BulkResponse> sendDbBulkRequest(DbBulkRequest dbBulkRequest, String flowId, int bulkNum) {
 		MDC.put("id", flowId);
-		return retryManager.indexBulkRequest(dbBulkRequest, bulkNum);
+		List<BulkResponse> bulkResponses = retryManager.indexBulkRequest(dbBulkRequest, bulkNum);
+		dbBulkRequest.getRequest().requests().forEach(request -> indicesToRefresh.add(request.index()));
+		return bulkResponses;
 	}
 	// wrap bulk method as a not-final method in order that Mockito will able to mock it
 
@@ -404,7 +445,36 @@ public class ElasticsearchClient {
 		return retMap;
 	}
 
-	String rolloverIndex(String timbermillAlias) {
+	// Resolved once per env, batches of an env then write to the index last published by the rollover job
+	public String getWriteIndex(String env) {
+		String index = writeIndices.get(env);
+		if (index == null) {
+			synchronized (writeIndices) {
+				index = writeIndices.get(env);
+				if (index == null) {
+					index = resolveWriteIndex(env);
+					writeIndices.put(env, index);
+				}
+			}
+		}
+		return index;
+	}
+
+	public void rolloverIndices() {
+		for (String env : writeIndices.keySet()) {
+			writeIndices.put(env, resolveWriteIndex(env));
+		}
+	}
+
+	private String resolveWriteIndex(String env) {
+		String alias = createTimbermillAlias(env);
+		if (alias.endsWith(ElasticsearchUtil.getIndexSerial(1))) {
+			return alias;
+		}
+		return rolloverIndex(alias);
+	}
+
+	private String rolloverIndex(String timbermillAlias) {
         RolloverRequest rolloverRequest = getRolloverRequest(timbermillAlias, maxIndexAge, maxIndexSizeInGB, maxIndexDocs);
         return handleRolloverRequest(timbermillAlias, rolloverRequest);
     }
@@ -412,7 +482,7 @@ public class ElasticsearchClient {
 	void rolloverIndexForTest(String env){
 		String index = createTimbermillAlias(env);
 		RolloverRequest rolloverRequest = getRolloverRequest(index, 1000, 100, 1);
-		handleRolloverRequest(index, rolloverRequest);
+		writeIndices.put(env, handleRolloverRequest(index, rolloverRequest));
 	}
 
     private String handleRolloverRequest(String timbermillAlias, RolloverRequest rolloverRequest) {
@@ -428,6 +498,7 @@ public class ElasticsearchClient {
 			}
 		} catch (Exception e) {
 			LOG.error("Could not rollovered alias " + timbermillAlias, e);
+			aliasesExistence.invalidate(timbermillAlias);
 		}
         return timbermillAlias;
     }
@@ -442,6 +513,7 @@ public class ElasticsearchClient {
 
 	private void updateOldAlias(RolloverResponse rolloverResponse, String timbermillAlias) throws RetriesExhaustedException {
 		String oldAlias = getOldAlias(timbermillAlias);
+		aliasesExistence.invalidate(oldAlias);
 		Map<String, Set<AliasMetadata>> oldAliases = getAliases(oldAlias);
 		if (!oldAliases.isEmpty()) {
 			updateTimbermillAlias(oldAlias, IndicesAliasesRequest.AliasActions.Type.REMOVE, "*", "Removing old index from alias", "Removing old index from alias [{}] failed");
@@ -535,18 +607,134 @@ public class ElasticsearchClient {
 		KamonConstants.PARTIAL_TASKS_MIGRATED_HISTOGRAM.withTag("index", index).record(matchedTasks.size());
 	}
 
-	Map<String, Task> getMissingParents(Set<String> parentIds, String env) {
+	// Ids that couldn't be looked up are added to failedIds, the rest of the ids that weren't returned aren't indexed
+	Map<String, Task> getMissingParents(Set<String> parentIds, String env, Set<String> failedIds) {
 		String timbermillAlias = ElasticsearchUtil.getTimbermillIndexAlias(env);
 		String oldAlias = getOldAlias(timbermillAlias);
+		String[] indices = {timbermillAlias};
+		try {
+			if (isAliasExists(oldAlias)){
+				indices = new String[]{timbermillAlias, oldAlias};
+			}
+		} catch (RetriesExhaustedException e) {
+			LOG.error("Failed checking if Timbermill Alias " + oldAlias + " exists", e);
+		}
+		if (parentIds.size() <= multiGetMaxIds) {
+			return getTasksByMultiGet(parentIds, failedIds, "Fetch missing parents tasks", PARENT_FIELDS_TO_FETCH, indices);
+		}
+		Timer.Started start = KamonConstants.FETCH_BY_IDS_TIMER.withTag("type", "scroll").start();
+		refreshIndexedIndices();
+		Map<String, Task> tasks = getTasksByIds(null, null, parentIds, failedIds, "Fetch missing parents tasks", PARENT_FIELDS_TO_FETCH, null, indices);
+		start.stop();
+		return tasks;
+	}
+
+	/**
+	 * Streams the parent fields of the non terminated tasks and of the tasks started in the last lookbackMinutes, from the current and
+	 * old aliases of every env, newest first. Every page of tasks is handed to the consumer, streaming stops when it returns false, after
+	 * maxTasks tasks or once the deadline passed.
+	 * @return the number of streamed tasks
+	 */
+	public int streamRecentTasks(int lookbackMinutes, int maxTasks, long deadlineMillis, Predicate<Map<String, Task>> pageConsumer) {
+		String functionDescription = "Stream recent tasks";
+		int streamedTasks = 0;
+		Set<String> scrollIds = Sets.newHashSet();
 		try {
-			boolean aliasExists = isAliasExists(oldAlias);
-			if (aliasExists){
-				return getTasksByIds(parentIds, "Fetch missing parents tasks", PARENT_FIELDS_TO_FETCH, null, timbermillAlias, oldAlias);
+			// Every Timbermill alias is either the current or the old alias of an env
+			String[] aliases = getAliases(TIMBERMILL_INDEX_WILDCARD).values().stream().flatMap(Set::stream).map(AliasMetadata::alias).distinct().toArray(String[]::new);
+			if (aliases.length == 0) {
+				return 0;
+			}
+			BoolQueryBuilder recentTasksQuery = QueryBuilders.boolQuery()
+					.should(new TermsQueryBuilder("status", TaskStatus.UNTERMINATED, TaskStatus.PARTIAL_ERROR, TaskStatus.PARTIAL_INFO_ONLY, TaskStatus.PARTIAL_SUCCESS))
+					.should(QueryBuilders.rangeQuery(META_TASK_BEGIN).from("now-" + lookbackMinutes + "m"))
+					.minimumShouldMatch(1);
+			// A scroll keeps its place by itself, so tasks that began together need no tiebreak
+			SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+					.query(recentTasksQuery)
+					.fetchSource(PARENT_FIELDS_TO_FETCH, null)
+					.size(Math.min(searchMaxSize, maxTasks))
+					.sort(META_TASK_BEGIN, SortOrder.DESC)
+					.timeout(new TimeValue(30, TimeUnit.SECONDS));
+			SearchRequest searchRequest = new SearchRequest(aliases).scroll(TimeValue.timeValueSeconds(30L)).source(searchSourceBuilder);
+			SearchResponse searchResponse = runWithRetries(() -> client.search(searchRequest, RequestOptions.DEFAULT), functionDescription);
+			while (true) {
+				String scrollId = searchResponse.getScrollId();
+				scrollIds.add(scrollId);
+				SearchHit[] hits = searchResponse.getHits().getHits();
+				int pageSize = Math.min(hits.length, maxTasks - streamedTasks);
+				if (pageSize == 0) {
+					break;
+				}
+				Map<String, Task> tasks = Maps.newHashMap();
+				for (int i = 0; i < pageSize; i++) {
+					SearchHit searchHit = hits[i];
+					Task task = GSON.fromJson(searchHit.getSourceAsString(), Task.class);
+					// Updates of a cached task go to the index it is in
+					task.setIndex(searchHit.getIndex());
+					tasks.putIfAbsent(searchHit.getId(), task);
+				}
+				streamedTasks += pageSize;
+				if (!pageConsumer.test(tasks) || System.currentTimeMillis() >= deadlineMillis) {
+					break;
+				}
+				SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId).scroll(TimeValue.timeValueSeconds(30L));
+				searchResponse = runWithRetries(() -> client.scroll(scrollRequest, RequestOptions.DEFAULT), functionDescription);
 			}
 		} catch (RetriesExhaustedException e) {
-			LOG.error("Failed checking if Timbermill Alias " + timbermillAlias + " exists", e);
+			LOG.error("Failed [" + functionDescription + "] after " + streamedTasks + " tasks", e);
+		} finally {
+			clearScroll(functionDescription, scrollIds);
+		}
+		return streamedTasks;
+	}
+
+	// A real time get of every id from every index, one request and no scroll contexts, and no refresh needed for tasks that were just indexed.
+	// Documents are routed by id, so each get goes straight to the shard holding the task. Ids that failed are searched for instead
+	private Map<String, Task> getTasksByMultiGet(Collection<String> taskIds, Set<String> searchFailedIds, String functionDescription, String[] taskFieldsToInclude,
+												 String... indices) {
+		Timer.Started start = KamonConstants.FETCH_BY_IDS_TIMER.withTag("type", "multi_get").start();
+		Map<String, Task> tasks = Maps.newHashMap();
+		Set<String> idsFoundMoreThanOnce = Sets.newHashSet();
+		Set<String> failedIds = Sets.newHashSet();
+		if (!taskIds.isEmpty()) {
+			MultiGetRequest request = new MultiGetRequest();
+			FetchSourceContext fetchSourceContext = new FetchSourceContext(true, taskFieldsToInclude, null);
+			for (String index : indices) {
+				for (String taskId : taskIds) {
+					request.add(new MultiGetRequest.Item(index, taskId).fetchSourceContext(fetchSourceContext));
+				}
+			}
+			try {
+				MultiGetResponse response = runWithRetries(() -> client.mget(request, RequestOptions.DEFAULT), functionDescription);
+				for (MultiGetItemResponse item : response) {
+					if (item.isFailed()) {
+						failedIds.add(item.getId());
+					}
+					else if (item.getResponse().isExists()) {
+						Task task = GSON.fromJson(item.getResponse().getSourceAsString(), Task.class);
+						fixMetrics(task);
+						if (tasks.put(item.getId(), task) != null) {
+							idsFoundMoreThanOnce.add(item.getId());
+						}
+					}
+				}
+			} catch (RetriesExhaustedException e) {
+				LOG.error("Failed multi get for [" + functionDescription + "], searching instead", e);
+				failedIds.addAll(taskIds);
+			}
 		}
-		return getTasksByIds(parentIds, "Fetch missing parents tasks", PARENT_FIELDS_TO_FETCH, null, timbermillAlias);
+		for (String taskId : idsFoundMoreThanOnce) {
+			LOG.warn("Fetched multiple tasks per id [{}] from Elasticsearch for [{}]", taskId, functionDescription);
+			tasks.remove(taskId);
+		}
+		start.stop();
+		if (!failedIds.isEmpty()) {
+			LOG.warn("Multi get failed for {} ids for [{}], searching instead", failedIds.size(), functionDescription);
+			refreshIndexedIndices();
+			tasks.putAll(getTasksByIds(null, null, failedIds, searchFailedIds, functionDescription, taskFieldsToInclude, null, indices));
+		}
+		return tasks;
 	}
 
 	private Set<String> findPartialsIds(String index) {
@@ -555,9 +743,32 @@ public class ElasticsearchClient {
 		return singleTaskByIds.keySet();
 	}
 
+	// Parents are usually found in the tasks cache, when they aren't they must be searchable in the indices they were just indexed to.
+	// Synchronized so an enrichment shard doesn't search before another shard's refresh is done
+	private synchronized void refreshIndexedIndices() {
+		if (indicesToRefresh.isEmpty()) {
+			return;
+		}
+		Set<String> indices = Sets.newHashSet(indicesToRefresh);
+		indicesToRefresh.removeAll(indices);
+		RefreshRequest refreshRequest = new RefreshRequest(indices.toArray(new String[0]));
+		try {
+			runWithRetries(() -> client.indices().refresh(refreshRequest, RequestOptions.DEFAULT), "Refresh indices " + indices);
+		} catch (RetriesExhaustedException e) {
+			LOG.warn("Failed refreshing indices {}, recently indexed parents may not be found", indices, e);
+		}
+	}
+
+	// Only existing aliases are cached, an alias another server just created or rolled over is looked up again
 	private boolean isAliasExists(String alias) throws RetriesExhaustedException {
-		Map<String, Set<AliasMetadata>> aliases = getAliases(alias);
-		return !aliases.isEmpty();
+		if (aliasesExistence.getIfPresent(alias) != null) {
+			return true;
+		}
+		boolean exists = !getAliases(alias).isEmpty();
+		if (exists) {
+			aliasesExistence.put(alias, true);
+		}
+		return exists;
 	}
 
 	private Map<String, Set<AliasMetadata>> getAliases(String alias) {
@@ -608,26 +819,40 @@ public class ElasticsearchClient {
     }
 
 	private Collection<Future<List<BulkResponse>>> createFuturesIndexRequests(Map<String, Task> tasksMap) {
-		Collection<UpdateRequest> requests = createUpdateRequests(tasksMap);
-		BulkRequest request = new BulkRequest();
         Collection<Future<List<BulkResponse>>> futures = new ArrayList<>();
 		int bulkNum = 1;
+		for (BulkRequest request : createBulkRequests(tasksMap)) {
+			futures.add(createFutureTask(request, bulkNum));
+			bulkNum++;
+		}
+		return futures;
+    }
+
+	Collection<BulkRequest> createBulkRequests(Map<String, Task> tasksMap) {
+		Collection<UpdateRequest> requests = createUpdateRequests(tasksMap);
+		Collection<BulkRequest> bulkRequests = new ArrayList<>();
+		BulkRequest request = new BulkRequest();
         for (UpdateRequest updateRequest : requests) {
             request.add(updateRequest);
 
 			if (request.estimatedSizeInBytes() > indexBulkSize) {
-				Future<List<BulkResponse>> future = createFutureTask(request, bulkNum);
-				futures.add(future);
+				bulkRequests.add(request);
 				request = new BulkRequest();
-                bulkNum++;
             }
         }
         if (!request.requests().isEmpty()) {
-			Future<List<BulkResponse>> future = createFutureTask(request, bulkNum);
-            futures.add(future);
+			bulkRequests.add(request);
         }
-		return futures;
-    }
+		return bulkRequests;
+	}
+
+	boolean isScriptlessUpdates() {
+		return scriptlessUpdates;
+	}
+
+	List<BulkResponse> sendBulkRequest(BulkRequest request, int bulkNum) {
+		return sendDbBulkRequest(new DbBulkRequest(request), MDC.get("id"), bulkNum);
+	}
 
     private Future<List<BulkResponse>> createFutureTask(BulkRequest request, int bulkNum) {
         DbBulkRequest dbBulkRequest = new DbBulkRequest(request);
@@ -635,17 +860,28 @@ public class ElasticsearchClient {
 		return executorService.submit(() -> sendDbBulkRequest(dbBulkRequest, flowId, bulkNum));
     }
 
+    // Tasks in full state are merged by Elasticsearch as is, the rest go through the stored script that needs the indexed task
     private Collection<UpdateRequest> createUpdateRequests(Map<String, Task> tasksMap) {
         Collection<UpdateRequest> requests = new ArrayList<>();
+        int docUpserts = 0;
         for (Map.Entry<String, Task> taskEntry : tasksMap.entrySet()) {
             Task task = taskEntry.getValue();
             try {
-				UpdateRequest updateRequest = task.getUpdateRequest(task.getIndex(), taskEntry.getKey());
+				UpdateRequest updateRequest;
+				if (scriptlessUpdates && task.isFullState()) {
+					updateRequest = task.getDocUpsertRequest(task.getIndex(), taskEntry.getKey());
+					docUpserts++;
+				}
+				else {
+					updateRequest = task.getUpdateRequest(task.getIndex(), taskEntry.getKey());
+				}
 				requests.add(updateRequest);
 			} catch (Throwable t){
 				LOG.error("Failed while creating update request. task:" + task.toString(), t);
 			}
         }
+        KamonConstants.TASK_UPDATES_COUNTER.withTag("type", "doc_upsert").increment(docUpserts);
+        KamonConstants.TASK_UPDATES_COUNTER.withTag("type", "script").increment(requests.size() - docUpserts);
         return requests;
     }
 
@@ -688,9 +924,11 @@ public class ElasticsearchClient {
 				Alias alias = new Alias(timbermillAlias);
 				request.alias(alias);
 				runWithRetries(() -> client.indices().create(request, RequestOptions.DEFAULT), "Create index alias " + timbermillAlias + " for index " + initialIndex);
+				aliasesExistence.put(timbermillAlias, true);
 			}
 		} catch (RetriesExhaustedException e){
 			LOG.error("Failed creating Timbermill Alias " + timbermillAlias + ", going to use index " + initialIndex, e);
+			aliasesExistence.invalidate(timbermillAlias);
 			return initialIndex;
 		}
 		return timbermillAlias;
@@ -701,7 +939,9 @@ public class ElasticsearchClient {
         return timbermillAlias + INDEX_DELIMITER + initialSerial;
     }
 
-	private Map<String, List<Task>> runScrollQuery(QueryBuilder query, String functionDescription, String[] taskFieldsToInclude, String[] taskFieldsToExclude, String flowId, int sliceId, String...indices){
+	// Sets failed, when it isn't null, if not all of the matching tasks may have been found
+	private Map<String, List<Task>> runScrollQuery(QueryBuilder query, String functionDescription, String[] taskFieldsToInclude, String[] taskFieldsToExclude, String flowId, int sliceId,
+												   AtomicBoolean failed, String...indices){
 		MDC.put("id", flowId);
 		SearchRequest searchRequest = createSearchRequest(query, taskFieldsToInclude, taskFieldsToExclude, sliceId, indices);
 		List<SearchResponse> searchResponses = new ArrayList<>();
@@ -710,6 +950,7 @@ public class ElasticsearchClient {
 			SearchResponse searchResponse = runWithRetries(() -> client.search(searchRequest, RequestOptions.DEFAULT), "Initial search for " + functionDescription);
 			if (searchResponse.getFailedShards() > 0){
 				LOG.warn("Scroll search failed some shards for {}. First error was {}", functionDescription, searchResponse.getShardFailures()[0].toString());
+				setFailed(failed);
 			}
 			String scrollId = searchResponse.getScrollId();
 			if (scrollId != null) {
@@ -739,15 +980,18 @@ public class ElasticsearchClient {
                     numOfScrollsReached = ++numOfScrollsPerformed >= scrollLimitation;
                     if (timeoutReached && keepScrolling) {
                         LOG.error("Scroll timeout limit of [{} seconds] reached", scrollTimeoutSeconds);
+                        setFailed(failed);
                     }
                     if (numOfScrollsReached && keepScrolling) {
                         LOG.error("Scrolls amount  limit of [{} scroll operations] reached", scrollLimitation);
+                        setFailed(failed);
                     }
                 }
             }
 		}
 		catch (RetriesExhaustedException e) {
 			// return what managed to be found before failing.
+			setFailed(failed);
 		}
 		finally {
 			clearScroll(functionDescription, scrollIds);
@@ -755,6 +999,12 @@ public class ElasticsearchClient {
 		return addHitsToMap(searchResponses);
     }
 
+	private static void setFailed(AtomicBoolean failed) {
+		if (failed != null) {
+			failed.set(true);
+		}
+	}
+
 	private void clearScroll(String functionDescription, Set<String> scrollIds) {
 		if (!scrollIds.isEmpty()) {
 			ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
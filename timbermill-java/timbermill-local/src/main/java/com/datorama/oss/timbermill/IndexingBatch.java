@@ -0,0 +1,117 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.KamonConstants;
+import com.datorama.oss.timbermill.unit.Event;
+import com.datorama.oss.timbermill.unit.Task;
+import kamon.metric.Timer;
+import org.elasticsearch.action.bulk.BulkRequest;
+
+import java.time.ZonedDateTime;
+import java.util.*;
+
+/**
+ * Events of one env drained together, and what each {@link TaskIndexer} stage made of them so far.
+ */
+class IndexingBatch {
+
+    private final long sequence;
+    private final String env;
+    private final Collection<Event> events;
+    private final String flowId = "Task Indexer - " + UUID.randomUUID().toString();
+    private final ZonedDateTime startTime = ZonedDateTime.now();
+    private final Timer.Started timer = KamonConstants.BATCH_DURATION_TIMER.withoutTags().start();
+
+    private Collection<Event> timbermillEvents = Collections.emptyList();
+    private StartEventsTree startEventsTree;
+    private Map<String, List<Event>> eventsMap;
+    private Map<String, Task> tasksMap = Collections.emptyMap();
+    private int previouslyIndexedParentsSize;
+    private List<Collection<BulkRequest>> bulkRequestsPerLane = Collections.emptyList();
+    private volatile boolean failed;
+
+    IndexingBatch(long sequence, Collection<Event> events, String env) {
+        this.sequence = sequence;
+        this.events = events;
+        this.env = env;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    String getEnv() {
+        return env;
+    }
+
+    Collection<Event> getEvents() {
+        return events;
+    }
+
+    String getFlowId() {
+        return flowId;
+    }
+
+    ZonedDateTime getStartTime() {
+        return startTime;
+    }
+
+    Timer.Started getTimer() {
+        return timer;
+    }
+
+    Collection<Event> getTimbermillEvents() {
+        return timbermillEvents;
+    }
+
+    void setTimbermillEvents(Collection<Event> timbermillEvents) {
+        this.timbermillEvents = timbermillEvents;
+    }
+
+    StartEventsTree getStartEventsTree() {
+        return startEventsTree;
+    }
+
+    void setStartEventsTree(StartEventsTree startEventsTree) {
+        this.startEventsTree = startEventsTree;
+    }
+
+    Map<String, List<Event>> getEventsMap() {
+        return eventsMap;
+    }
+
+    void setEventsMap(Map<String, List<Event>> eventsMap) {
+        this.eventsMap = eventsMap;
+    }
+
+    Map<String, Task> getTasksMap() {
+        return tasksMap;
+    }
+
+    void setTasksMap(Map<String, Task> tasksMap) {
+        this.tasksMap = tasksMap;
+    }
+
+    int getPreviouslyIndexedParentsSize() {
+        return previouslyIndexedParentsSize;
+    }
+
+    void setPreviouslyIndexedParentsSize(int previouslyIndexedParentsSize) {
+        this.previouslyIndexedParentsSize = previouslyIndexedParentsSize;
+    }
+
+    List<Collection<BulkRequest>> getBulkRequestsPerLane() {
+        return bulkRequestsPerLane;
+    }
+
+    void setBulkRequestsPerLane(List<Collection<BulkRequest>> bulkRequestsPerLane) {
+        this.bulkRequestsPerLane = bulkRequestsPerLane;
+    }
+
+    boolean isFailed() {
+        return failed;
+    }
+
+    void fail() {
+        failed = true;
+    }
+}
@@ -0,0 +1,251 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.Constants;
+import com.datorama.oss.timbermill.common.KamonConstants;
+import com.datorama.oss.timbermill.unit.Event;
+import kamon.metric.Timer;
+import org.apache.logging.log4j.ThreadContext;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Indexes drained events in stages, each with its own bounded queue and threads, so a slow Elasticsearch bulk doesn't hold back the batches behind it:
+ * normalize, build tree, enrich and cache, build bulk requests, send bulk requests.
+ * Batches leave every stage in the order they were submitted.
+ * Bulk requests are sent on lanes picked by task id, a lane sends one bulk at a time so updates of the same task are indexed in order.
+ */
+public class IndexingPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexingPipeline.class);
+    private static final long CLOSE_POLL_MILLIS = 100;
+    private static final double LATENCY_SMOOTHING_FACTOR = 0.2;
+
+    private final TaskIndexer taskIndexer;
+    private final Stage normalizeStage;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<ExecutorService> sendLanes = new ArrayList<>();
+    private final Semaphore inFlightBatches;
+    private final AtomicInteger pendingBatches = new AtomicInteger();
+    private long nextSequence = 0;
+    private volatile double bulkLatencyMillis = 0;
+
+    public IndexingPipeline(TaskIndexer taskIndexer, int queueCapacity, int normalizeThreads, int treeThreads, int bulkBuildThreads, int sendLanesAmount, int maxInFlightBatches) {
+        validateProperties(queueCapacity, normalizeThreads, treeThreads, bulkBuildThreads, sendLanesAmount, maxInFlightBatches);
+        this.taskIndexer = taskIndexer;
+        this.inFlightBatches = new Semaphore(maxInFlightBatches);
+        for (int i = 0; i < sendLanesAmount; i++) {
+            sendLanes.add(Executors.newSingleThreadExecutor());
+        }
+
+        Stage sendStage = new Stage("send_bulk", queueCapacity, 1, this::sendBulkRequests, null);
+        Stage bulkBuildStage = new Stage("build_bulk", queueCapacity, bulkBuildThreads, batch -> taskIndexer.buildBulkRequests(batch, sendLanesAmount), sendStage);
+        // Single threaded, batch N+1 looks up parents that batch N just pushed to the cache
+        Stage enrichStage = new Stage("enrich", queueCapacity, 1, taskIndexer::enrichAndCache, bulkBuildStage);
+        Stage treeStage = new Stage("build_tree", queueCapacity, treeThreads, taskIndexer::buildTree, enrichStage);
+        normalizeStage = new Stage("normalize", queueCapacity, normalizeThreads, taskIndexer::normalize, treeStage);
+        stages.addAll(Arrays.asList(normalizeStage, treeStage, enrichStage, bulkBuildStage, sendStage));
+    }
+
+    private static void validateProperties(int queueCapacity, int normalizeThreads, int treeThreads, int bulkBuildThreads, int sendLanesAmount, int maxInFlightBatches) {
+        if (queueCapacity < 1) {
+            throw new RuntimeException("Indexing pipeline queue capacity property should be larger than 0");
+        }
+        if (normalizeThreads < 1 || treeThreads < 1 || bulkBuildThreads < 1) {
+            throw new RuntimeException("Indexing pipeline threads properties should be larger than 0");
+        }
+        if (sendLanesAmount < 1) {
+            throw new RuntimeException("Indexing threads property should be larger than 0");
+        }
+        if (maxInFlightBatches < 1) {
+            throw new RuntimeException("Indexing pipeline max in flight batches property should be larger than 0");
+        }
+    }
+
+    // Blocks while the normalize stage's queue is full
+    public synchronized void submit(Collection<Event> events, String env) {
+        IndexingBatch batch = new IndexingBatch(nextSequence, events, env);
+        pendingBatches.incrementAndGet();
+        try {
+            normalizeStage.put(batch);
+            nextSequence++;
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while submitting {} events to the indexing pipeline", events.size(), e);
+            pendingBatches.decrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Submits an empty batch when tasks are held by the coalescing window, so they are released once their window expires even if no events arrive
+    public void flushCoalescedTasks() {
+        if (taskIndexer.hasCoalescedTasks()) {
+            submit(Collections.emptyList(), Constants.DEFAULT);
+        }
+    }
+
+    public int getPendingBatches() {
+        return pendingBatches.get();
+    }
+
+    // Moving average of the time it took to send all bulk requests of a batch
+    public long getBulkLatencyMillis() {
+        return (long) bulkLatencyMillis;
+    }
+
+    private synchronized void recordBulkLatency(long latencyMillis) {
+        bulkLatencyMillis += LATENCY_SMOOTHING_FACTOR * (latencyMillis - bulkLatencyMillis);
+    }
+
+    public void close(long timeoutMillis) {
+        taskIndexer.stopCoalescing();
+        flushCoalescedTasks();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (pendingBatches.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(CLOSE_POLL_MILLIS);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        if (pendingBatches.get() > 0) {
+            LOG.warn("Indexing pipeline was closed with {} batches not yet indexed", pendingBatches.get());
+        }
+        stages.forEach(Stage::close);
+        sendLanes.forEach(ExecutorService::shutdownNow);
+    }
+
+    private void sendBulkRequests(IndexingBatch batch) {
+        List<Collection<BulkRequest>> bulkRequestsPerLane = batch.getBulkRequestsPerLane();
+        if (bulkRequestsPerLane.isEmpty()) {
+            finishBatch(batch);
+            return;
+        }
+        try {
+            inFlightBatches.acquire();
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while waiting to send bulk requests", e);
+            // Finished when the stage passes the failed batch on
+            batch.fail();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long sendStartTime = System.currentTimeMillis();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        int bulkNum = 1;
+        try {
+            for (int lane = 0; lane < bulkRequestsPerLane.size(); lane++) {
+                for (BulkRequest request : bulkRequestsPerLane.get(lane)) {
+                    int currentBulkNum = bulkNum++;
+                    futures.add(CompletableFuture.runAsync(() -> {
+                        ThreadContext.put("id", batch.getFlowId());
+                        taskIndexer.sendBulkRequest(batch, request, currentBulkNum);
+                    }, sendLanes.get(lane)));
+                }
+            }
+        } catch (RuntimeException e) {
+            inFlightBatches.release();
+            throw e;
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((ignored, t) -> {
+            inFlightBatches.release();
+            recordBulkLatency(System.currentTimeMillis() - sendStartTime);
+            ThreadContext.put("id", batch.getFlowId());
+            if (t != null) {
+                LOG.error("An error was thrown while indexing a batch", t);
+            }
+            else {
+                LOG.info("Tasks were indexed to elasticsearch");
+            }
+            finishBatch(batch);
+        });
+    }
+
+    private void finishBatch(IndexingBatch batch) {
+        try {
+            taskIndexer.finishBatch(batch);
+        } catch (Throwable t) {
+            LOG.error("Error was thrown while finishing batch", t);
+        } finally {
+            pendingBatches.decrementAndGet();
+        }
+    }
+
+    private class Stage {
+
+        private final String name;
+        private final BlockingQueue<IndexingBatch> queue;
+        private final ExecutorService workers;
+        private final Consumer<IndexingBatch> handler;
+        private final Stage nextStage;
+        private final Map<Long, IndexingBatch> handledBatches = new HashMap<>();
+        private long nextSequenceToPass = 0;
+
+        Stage(String name, int queueCapacity, int threads, Consumer<IndexingBatch> handler, Stage nextStage) {
+            this.name = name;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.handler = handler;
+            this.nextStage = nextStage;
+            this.workers = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.submit(this::work);
+            }
+        }
+
+        void put(IndexingBatch batch) throws InterruptedException {
+            queue.put(batch);
+            KamonConstants.BATCHES_IN_PIPELINE_STAGE_RANGE_SAMPLER.withTag("stage", name).increment();
+        }
+
+        void close() {
+            workers.shutdownNow();
+        }
+
+        private void work() {
+            while (!Thread.currentThread().isInterrupted()) {
+                IndexingBatch batch;
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                KamonConstants.BATCHES_IN_PIPELINE_STAGE_RANGE_SAMPLER.withTag("stage", name).decrement();
+                if (!batch.isFailed()) {
+                    Timer.Started start = KamonConstants.PIPELINE_STAGE_DURATION_TIMER.withTag("stage", name).start();
+                    ThreadContext.put("id", batch.getFlowId());
+                    try {
+                        handler.accept(batch);
+                    } catch (Throwable t) {
+                        LOG.error("Error was thrown from indexing pipeline stage " + name, t);
+                        batch.fail();
+                    } finally {
+                        start.stop();
+                    }
+                }
+                try {
+                    pass(batch);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        // Workers may finish batches out of order, they are held here until every batch before them was passed on
+        private synchronized void pass(IndexingBatch batch) throws InterruptedException {
+            handledBatches.put(batch.getSequence(), batch);
+            IndexingBatch next;
+            while ((next = handledBatches.remove(nextSequenceToPass)) != null) {
+                nextSequenceToPass++;
+                if (nextStage != null) {
+                    nextStage.put(next);
+                }
+                else if (next.isFailed()) {
+                    finishBatch(next);
+                }
+            }
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.datorama.oss.timbermill;
 
 import com.datorama.oss.timbermill.common.cache.AbstractCacheHandler;
 import com.datorama.oss.timbermill.unit.Event;
-import com.datorama.oss.timbermill.unit.LocalTask;
+import com.datorama.oss.timbermill.unit.InheritedContext;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.ParentsPath;
 import com.datorama.oss.timbermill.unit.Task;
 import com.datorama.oss.timbermill.unit.TaskStatus;
 import com.google.common.collect.Maps;
@@ -11,6 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.datorama.oss.timbermill.ElasticsearchClient.GSON;
@@ -20,16 +23,40 @@ class ParentResolver {
 
     private Map<String, Task> receivedTasksMap;
     private AbstractCacheHandler cacheHandler;
+    // Received orphans by their parent id, so each level of adoption looks up its orphans instead of going over all received tasks
+    private final Map<String, List<String>> receivedOrphansByParent = Maps.newHashMap();
 
     ParentResolver(Map<String, Task> receivedTasksMap, AbstractCacheHandler cacheHandler) {
         this.receivedTasksMap = receivedTasksMap;
         this.cacheHandler = cacheHandler;
+        for (Map.Entry<String, Task> entry : receivedTasksMap.entrySet()) {
+            Task task = entry.getValue();
+            if (task.isOrphan() != null && task.isOrphan() && task.getParentId() != null) {
+                receivedOrphansByParent.computeIfAbsent(task.getParentId(), parentId -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
     }
 
     Map<String, Task> resolveOrphansReceived() {
         return resolveOrphans(receivedTasksMap);
     }
 
+    // Received orphans were marked as such before the cache lock was taken, their parent may have been cached since
+    Map<String, Task> resolveOrphansOfCachedParents() {
+        Set<String> orphansParentsIds = receivedOrphansByParent.keySet();
+        if (orphansParentsIds.isEmpty()) {
+            return Maps.newHashMap();
+        }
+        Map<String, ParentInfo> cachedParents = Maps.newHashMap();
+        cacheHandler.logGetFromTasksCache(orphansParentsIds, "resolve_orphans").forEach((parentId, parentInfo) -> {
+            if (parentInfo != null && (parentInfo.isOrphan() == null || !parentInfo.isOrphan())) {
+                cachedParents.put(parentId, parentInfo);
+            }
+        });
+        Map<String, Task> orphansMap = findAdoptedOrphansInReceivedTasks(cachedParents.keySet());
+        return getEnrichedAdoptedOrphans(cachedParents::get, orphansMap);
+    }
+
     private Map<String, Task> resolveOrphans(Map<String, Task> potentialAdoptingTasks) {
         Set<String> adoptingCandidates = potentialAdoptingTasks.entrySet().stream().filter(entry -> {
             Task parentIndexedTask = entry.getValue();
@@ -38,39 +65,42 @@ class ParentResolver {
             return isParentStartedTask && isParentNotOrphan;
         }).map(Map.Entry::getKey).collect(Collectors.toSet());
 
-        Map<String, LocalTask> orphansMap = findAdoptedOrphansInCache(adoptingCandidates);
-        return getEnrichedAdoptedOrphans(potentialAdoptingTasks, orphansMap);
-    }
-
-    private Map<String, Task> resolveOrphansWithAdoptedOrphans(Map<String, Task> potentialAdoptingTasks) {
-        Set<String> adoptingCandidates = potentialAdoptingTasks.keySet();
-        Map<String, Task> orphansMap = findAdoptedOrphans(adoptingCandidates);
-        return getEnrichedAdoptedOrphans(potentialAdoptingTasks, orphansMap);
+        Map<String, Task> orphansMap = findAdoptedOrphansInCache(adoptingCandidates);
+        return getEnrichedAdoptedOrphans(parentId -> parentInfo(potentialAdoptingTasks.get(parentId)), orphansMap);
     }
 
-    private Map<String, Task> getEnrichedAdoptedOrphans(Map<String, Task> potentialAdoptingTasks, Map<String, ? extends Task> orphansMap) {
+    // Adopts the orphans level by level, each level's adopted orphans adopt their own orphans in the next one.
+    // A level takes one pull from the orphans cache and one get from the tasks cache however many orphans it has
+    private Map<String, Task> getEnrichedAdoptedOrphans(Function<String, ParentInfo> potentialAdoptingParents, Map<String, Task> orphansMap) {
         Map<String, Task> adoptedTasksMap = Maps.newHashMap();
-        for (Map.Entry<String, ? extends Task> entry : orphansMap.entrySet()) {
-            String adoptedId = entry.getKey();
-            Task adoptedTask = entry.getValue();
-            if (adoptedTask == null) {
-                LOG.warn("Missing adopted task from cache {}", adoptedId);
-            } else {
-                adoptedTask.setOrphan(false);
-                populateParentParamsFromAdoptedTask(adoptedTask, potentialAdoptingTasks.get(adoptedTask.getParentId()));
-                adoptedTasksMap.put(adoptedId, adoptedTask);
+        Function<String, ParentInfo> adoptingParents = potentialAdoptingParents;
+        Map<String, Task> levelOrphansMap = orphansMap;
+        while (!levelOrphansMap.isEmpty()) {
+            Map<String, Task> levelAdoptedTasksMap = Maps.newHashMap();
+            for (Map.Entry<String, Task> entry : levelOrphansMap.entrySet()) {
+                String adoptedId = entry.getKey();
+                Task adoptedTask = entry.getValue();
+                if (adoptedTask == null) {
+                    LOG.warn("Missing adopted task from cache {}", adoptedId);
+                } else if (!adoptedTasksMap.containsKey(adoptedId)) {
+                    adoptedTask.setOrphan(false);
+                    populateParentParamsFromAdoptedTask(adoptedTask, adoptingParents.apply(adoptedTask.getParentId()));
+                    levelAdoptedTasksMap.put(adoptedId, adoptedTask);
+                }
             }
-        }
-        if (!adoptedTasksMap.isEmpty()) {
-            LOG.debug("Resolving orphans using {} adopted orphans", adoptedTasksMap.size());
-            Map<String, Task> adoptedTasksNewlyAdoptedTask = resolveOrphansWithAdoptedOrphans(adoptedTasksMap);
-            adoptedTasksMap.putAll(adoptedTasksNewlyAdoptedTask);
+            if (levelAdoptedTasksMap.isEmpty()) {
+                break;
+            }
+            adoptedTasksMap.putAll(levelAdoptedTasksMap);
+            LOG.debug("Resolving orphans using {} adopted orphans", levelAdoptedTasksMap.size());
+            adoptingParents = parentId -> parentInfo(levelAdoptedTasksMap.get(parentId));
+            levelOrphansMap = findAdoptedOrphans(levelAdoptedTasksMap.keySet());
         }
         return adoptedTasksMap;
     }
 
     private Map<String, Task> findAdoptedOrphans(Set<String> adoptingCandidates) {
-        Map<String, LocalTask> adoptedOrphansTasksFromCache = findAdoptedOrphansInCache(adoptingCandidates);
+        Map<String, Task> adoptedOrphansTasksFromCache = findAdoptedOrphansInCache(adoptingCandidates);
         Map<String, Task> adoptedOrphansReceivedTasks = findAdoptedOrphansInReceivedTasks(adoptingCandidates);
 
         Map<String, Task> orphansMap = Maps.newHashMap();
@@ -82,30 +112,41 @@ class ParentResolver {
 
     private Map<String, Task> findAdoptedOrphansInReceivedTasks(Set<String> adoptingCandidates) {
         Map<String, Task> retMap = Maps.newHashMap();
-        for (Map.Entry<String, Task> entry : receivedTasksMap.entrySet()) {
-            Task task = entry.getValue();
-            if (task.isOrphan() != null && task.isOrphan() && adoptingCandidates.contains(task.getParentId())){
-                retMap.put(entry.getKey(), task);
+        for (String adoptingCandidate : adoptingCandidates) {
+            for (String orphanId : receivedOrphansByParent.getOrDefault(adoptingCandidate, Collections.emptyList())) {
+                Task task = receivedTasksMap.get(orphanId);
+                // Orphans adopted by a previous level or resolution are no longer orphans
+                if (task.isOrphan() != null && task.isOrphan()){
+                    retMap.put(orphanId, task);
+                }
             }
         }
         return retMap;
     }
 
-    private Map<String, LocalTask> findAdoptedOrphansInCache(Set<String> adoptingCandidates) {
+    // Adopted cached orphans are indexed again, so they are turned back into tasks
+    private Map<String, Task> findAdoptedOrphansInCache(Set<String> adoptingCandidates) {
         Map<String, List<String>> adoptedOrphansFromCache = cacheHandler.logPullFromOrphansCache(adoptingCandidates, "resolve_orphans");
         if (adoptedOrphansFromCache.isEmpty()){
             return Maps.newHashMap();
         }
         else {
             List<String> orphansIds = adoptedOrphansFromCache.values().stream().flatMap(List::stream).collect(Collectors.toList());
-            return cacheHandler.logGetFromTasksCache(orphansIds, "resolve_orphans");
+            Map<String, Task> orphansMap = Maps.newHashMap();
+            cacheHandler.logGetFromTasksCache(orphansIds, "resolve_orphans").forEach((orphanId, parentInfo) ->
+                    orphansMap.put(orphanId, parentInfo == null ? null : parentInfo.toTask()));
+            return orphansMap;
         }
     }
 
-    private static void populateParentParamsFromAdoptedTask(Task task, Task parentIndexedTask) {
+    private static ParentInfo parentInfo(Task task) {
+        return task == null ? null : new ParentInfo(task);
+    }
+
+    private static void populateParentParamsFromAdoptedTask(Task task, ParentInfo parentIndexedTask) {
         ParentProperties parentProperties = getParentProperties(parentIndexedTask, null);
 
-        if (StringUtils.isEmpty(parentProperties.getPrimaryId()) && parentProperties.getParentPath() != null && !parentProperties.getParentPath().isEmpty()){
+        if (LOG.isDebugEnabled() && StringUtils.isEmpty(parentProperties.getPrimaryId()) && parentProperties.getParentPath() != null && !parentProperties.getParentPath().isEmpty()){
             LOG.debug("populateParentParamsFromAdoptedTask primary missing. parentIndexedTask {}", GSON.toJson(parentIndexedTask));
         }
 
@@ -115,18 +156,13 @@ class ParentResolver {
         }
 
         task.setPrimaryId(parentProperties.getPrimaryId());
-        if (task.getCtx() == null){
-            task.setCtx(Maps.newHashMap());
-        }
-        for (Map.Entry<String, String> entry : parentProperties.getContext().entrySet()) {
-            task.getCtx().putIfAbsent(entry.getKey(), entry.getValue());
-        }
+        task.setCtx(inheritContext(parentProperties, task.getCtx()));
     }
 
-    static void populateParentParams(Event event, Task parentIndexedTask, Collection<Event> parentCurrentEvent) {
+    static void populateParentParams(Event event, ParentInfo parentIndexedTask, Collection<Event> parentCurrentEvent) {
         ParentProperties parentProperties = getParentProperties(parentIndexedTask, parentCurrentEvent);
 
-        if (StringUtils.isEmpty(parentProperties.getPrimaryId()) && parentProperties.getParentPath() != null && !parentProperties.getParentPath().isEmpty()){
+        if (LOG.isDebugEnabled() && StringUtils.isEmpty(parentProperties.getPrimaryId()) && parentProperties.getParentPath() != null && !parentProperties.getParentPath().isEmpty()){
             LOG.debug("populateParentParams primary missing. parentIndexedTask {} parentCurrentEvent {}", GSON.toJson(parentIndexedTask),  GSON.toJson(parentCurrentEvent));
         }
 
@@ -136,31 +172,24 @@ class ParentResolver {
         }
 
         event.setPrimaryId(parentProperties.getPrimaryId());
-        if (event.getContext() == null){
-            event.setContext(Maps.newHashMap());
-        }
-        for (Map.Entry<String, String> entry : parentProperties.getContext().entrySet()) {
-            event.getContext().putIfAbsent(entry.getKey(), entry.getValue());
-        }
+        event.setContext(inheritContext(parentProperties, event.getContext()));
+    }
+
+    // The child's own entries win over the parent's, which are shared with the parent and its other children rather than copied
+    private static Map<String, String> inheritContext(ParentProperties parentProperties, Map<String, String> context) {
+        Map<String, String> ownContext = context == null ? Maps.newHashMap() : context;
+        return parentProperties.getContext().isEmpty() ? ownContext : new InheritedContext(parentProperties.getContext(), ownContext);
     }
 
+    // Extends the parent's own path, so the paths of a tree share their prefixes
     private static List<String> getParentPath(ParentProperties parentProperties) {
-        List<String> parentsPath = new ArrayList<>();
-        Collection<String> parentParentsPath = parentProperties.getParentPath();
-        if ((parentParentsPath != null) && !parentParentsPath.isEmpty()) {
-            parentsPath.addAll(parentParentsPath);
-        }
-        String parentName = parentProperties.getParentName();
-        if (parentName != null) {
-            parentsPath.add(parentName);
-        }
-        return parentsPath;
+        return ParentsPath.append(parentProperties.getParentPath(), parentProperties.getParentName());
     }
 
-    private static ParentProperties getParentProperties(Task parentIndexedTask, Collection<Event> parentCurrentEvent) {
-        Map<String, String> context = Maps.newHashMap();
+    private static ParentProperties getParentProperties(ParentInfo parentIndexedTask, Collection<Event> parentCurrentEvent) {
+        Map<String, String> context = Collections.emptyMap();
         String primaryId = null;
-        Collection<String> parentPath = null;
+        List<String> parentPath = null;
         String parentName = null;
         if (parentCurrentEvent != null && !parentCurrentEvent.isEmpty()){
             for (Event previousEvent : parentCurrentEvent) {
@@ -168,11 +197,8 @@ class ParentResolver {
                 if (previousPrimaryId != null){
                     primaryId = previousPrimaryId;
                 }
-                Map<String, String> previousContext = previousEvent.getContext();
-                if (previousContext != null){
-                    context.putAll(previousContext);
-                }
-                Collection<String> previousPath = previousEvent.getParentsPath();
+                context = InheritedContext.override(context, previousEvent.getContext());
+                List<String> previousPath = previousEvent.getParentsPath();
                 if (previousPath != null){
                     parentPath = previousPath;
                 }
@@ -190,10 +216,7 @@ class ParentResolver {
                 primaryId = indexedPrimary;
             }
 
-            Map<String, String> indexedContext = parentIndexedTask.getCtx();
-            if (indexedContext != null) {
-                context.putAll(indexedContext);
-            }
+            context = InheritedContext.override(context, parentIndexedTask.getCtx());
 
             List<String> indexedParentsPath = parentIndexedTask.getParentsPath();
             if (indexedParentsPath != null) {
@@ -212,10 +235,10 @@ class ParentResolver {
 
         private final String primaryId;
         private final Map<String, String> context;
-        private final Collection<String> parentPath;
+        private final List<String> parentPath;
         private final String parentName;
 
-        ParentProperties(String primaryId, Map<String, String> context, Collection<String> parentPath, String parentName) {
+        ParentProperties(String primaryId, Map<String, String> context, List<String> parentPath, String parentName) {
             this.primaryId = primaryId;
             this.context = context;
             this.parentPath = parentPath;
@@ -230,7 +253,7 @@ class ParentResolver {
             return context;
         }
 
-        Collection<String> getParentPath() {
+        List<String> getParentPath() {
             return parentPath;
         }
 
@@ -0,0 +1,148 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.unit.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * The start events of a batch, connected by their parent ids.
+ * Nodes are array indices: task ids are looked up in an open addressing table of node indices, each node keeps its root,
+ * and the children of all nodes share one array, so building the tree takes a handful of arrays no matter how many events the batch has.
+ * Start events are kept in topological order, a parent always comes before its children.
+ */
+class StartEventsTree {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StartEventsTree.class);
+    private static final int NO_NODE = -1;
+
+    private final Event[] startEvents;
+    // Node index plus one, zero for an empty slot
+    private final int[] slots;
+    private final int[] roots;
+    private final int[] order;
+
+    StartEventsTree(Collection<Event> events) {
+        int startEventsAmount = 0;
+        for (Event event : events) {
+            if (event.isStartEvent()) {
+                startEventsAmount++;
+            }
+        }
+        slots = new int[Integer.highestOneBit(Math.max(startEventsAmount, 1)) << 2];
+        Event[] nodes = new Event[startEventsAmount];
+        int size = 0;
+        for (Event event : events) {
+            if (event.isStartEvent()) {
+                int slot = findSlot(event.getTaskId(), nodes);
+                if (slots[slot] == 0) {
+                    nodes[size] = event;
+                    slots[slot] = ++size;
+                }
+                else {
+                    // Same as the tree this replaced, the last start event of a task is the one being enriched
+                    nodes[slots[slot] - 1] = event;
+                }
+            }
+        }
+        startEvents = size == nodes.length ? nodes : Arrays.copyOf(nodes, size);
+
+        int[] parents = new int[size];
+        // Holds children amounts, then where each node's children end, then where they start
+        int[] childrenStart = new int[size + 1];
+        for (int node = 0; node < size; node++) {
+            String parentId = startEvents[node].getParentId();
+            parents[node] = parentId == null ? NO_NODE : getNode(parentId);
+            if (parents[node] != NO_NODE) {
+                childrenStart[parents[node]]++;
+            }
+        }
+        for (int node = 1; node < size; node++) {
+            childrenStart[node] += childrenStart[node - 1];
+        }
+        childrenStart[size] = size == 0 ? 0 : childrenStart[size - 1];
+        int[] children = new int[childrenStart[size]];
+        for (int node = size - 1; node >= 0; node--) {
+            if (parents[node] != NO_NODE) {
+                children[--childrenStart[parents[node]]] = node;
+            }
+        }
+
+        roots = new int[size];
+        order = new int[size];
+        Arrays.fill(roots, NO_NODE);
+        int ordered = 0;
+        for (int node = 0; node < size; node++) {
+            if (parents[node] == NO_NODE) {
+                roots[node] = node;
+                order[ordered++] = node;
+            }
+        }
+        ordered = addDescendants(0, ordered, childrenStart, children);
+        if (ordered < size) {
+            // Parent ids that go in circles, each circle is treated as a tree rooted at one of its events
+            LOG.warn("Found {} start events with circular parent ids", size - ordered);
+            for (int node = 0; node < size; node++) {
+                if (roots[node] == NO_NODE) {
+                    roots[node] = node;
+                    order[ordered] = node;
+                    ordered = addDescendants(ordered, ordered + 1, childrenStart, children);
+                }
+            }
+        }
+    }
+
+    // Breadth first over all trees at once, order doubles as the queue
+    private int addDescendants(int next, int ordered, int[] childrenStart, int[] children) {
+        for (; next < ordered; next++) {
+            int node = order[next];
+            for (int i = childrenStart[node]; i < childrenStart[node + 1]; i++) {
+                int child = children[i];
+                if (roots[child] == NO_NODE) {
+                    roots[child] = roots[node];
+                    order[ordered++] = child;
+                }
+            }
+        }
+        return ordered;
+    }
+
+    private int findSlot(String taskId, Event[] nodes) {
+        int mask = slots.length - 1;
+        int hash = taskId.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0 && !nodes[slots[slot] - 1].getTaskId().equals(taskId)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int getNode(String taskId) {
+        return slots[findSlot(taskId, startEvents)] - 1;
+    }
+
+    boolean contains(String taskId) {
+        return getNode(taskId) != NO_NODE;
+    }
+
+    // The start event at the top of the task's tree within the batch, null if the task has no start event in the batch
+    Event getRoot(String taskId) {
+        int node = getNode(taskId);
+        return node == NO_NODE ? null : startEvents[roots[node]];
+    }
+
+    List<Event> getStartEventsByOrder() {
+        return new AbstractList<Event>() {
+            @Override
+            public Event get(int index) {
+                return startEvents[order[index]];
+            }
+
+            @Override
+            public int size() {
+                return order.length;
+            }
+        };
+    }
+}
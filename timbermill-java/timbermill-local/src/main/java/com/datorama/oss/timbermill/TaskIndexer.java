@@ -7,19 +7,27 @@ import com.datorama.oss.timbermill.common.cache.AbstractCacheHandler;
 import com.datorama.oss.timbermill.plugins.PluginsConfig;
 import com.datorama.oss.timbermill.plugins.TaskLogPlugin;
 import com.datorama.oss.timbermill.unit.*;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import kamon.metric.Timer;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.logging.log4j.ThreadContext;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.swing.tree.DefaultMutableTreeNode;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static com.datorama.oss.timbermill.ElasticsearchClient.GSON;
 import static com.datorama.oss.timbermill.ParentResolver.populateParentParams;
@@ -27,36 +35,79 @@ import static com.datorama.oss.timbermill.ParentResolver.populateParentParams;
 public class TaskIndexer {
 
     private static final Logger LOG = LoggerFactory.getLogger(TaskIndexer.class);
+    private static final int CREATED_TASKS_CACHE_MAX_SIZE = 100000;
+    private static final int CREATED_TASKS_CACHE_TTL_MINUTES = 10;
 
     private final ElasticsearchClient es;
     private final Collection<TaskLogPlugin> logPlugins;
     private AbstractCacheHandler cacheHandler;
     private long daysRotation;
     private String timbermillVersion;
-
-    public TaskIndexer(String pluginsJson, Integer daysRotation, ElasticsearchClient es, String timbermillVersion, AbstractCacheHandler cacheHandler) {
+    private final int enrichmentShards;
+    private final ExecutorService enrichmentExecutor;
+    private final TasksCoalescer tasksCoalescer;
+    // Parents that were neither cached nor indexed when last looked up, so other children of a missing parent don't search for it again
+    private final Cache<String, Boolean> missingParentsCache;
+    // Start times of started tasks whose script update created their document, so later updates can be resolved against the cached task
+    private final Cache<String, ZonedDateTime> createdTasks = CacheBuilder.newBuilder().maximumSize(CREATED_TASKS_CACHE_MAX_SIZE)
+            .expireAfterWrite(CREATED_TASKS_CACHE_TTL_MINUTES, TimeUnit.MINUTES).build();
+
+    public TaskIndexer(String pluginsJson, Integer daysRotation, ElasticsearchClient es, String timbermillVersion, AbstractCacheHandler cacheHandler, int enrichmentShards,
+            long coalescingWindowMillis, int coalescingMaxTasks, int missingParentsCacheMaxSize, int missingParentsCacheTtlSeconds) {
+        if (enrichmentShards < 1) {
+            throw new RuntimeException("Enrichment shards property should be larger than 0");
+        }
+        if (missingParentsCacheMaxSize < 0 || missingParentsCacheTtlSeconds < 0) {
+            throw new RuntimeException("Missing parents cache properties should not be negative");
+        }
         this.daysRotation = calculateDaysRotation(daysRotation);
         this.logPlugins = PluginsConfig.initPluginsFromJson(pluginsJson);
         this.es = es;
         this.timbermillVersion = timbermillVersion;
         this.cacheHandler = cacheHandler;
+        this.enrichmentShards = enrichmentShards;
+        this.enrichmentExecutor = Executors.newFixedThreadPool(enrichmentShards);
+        this.tasksCoalescer = new TasksCoalescer(coalescingWindowMillis, coalescingMaxTasks);
+        this.missingParentsCache = CacheBuilder.newBuilder().maximumSize(missingParentsCacheMaxSize)
+                .expireAfterWrite(missingParentsCacheTtlSeconds, TimeUnit.SECONDS).build();
     }
 
     private static int calculateDaysRotation(int daysRotationParam) {
         return Math.max(daysRotationParam, 1);
     }
 
+    boolean hasCoalescedTasks() {
+        return tasksCoalescer.hasHeldTasks();
+    }
+
+    // Held tasks are released by the next batch, even an empty one
+    void stopCoalescing() {
+        tasksCoalescer.close();
+    }
+
     public void close() {
+        enrichmentExecutor.shutdownNow();
         es.close();
         cacheHandler.close();
     }
 
     public void retrieveAndIndex(Collection<Event> events, String env) {
-        String flowId = "Task Indexer - " + UUID.randomUUID().toString();
-        ThreadContext.put("id", flowId);
+        IndexingBatch batch = new IndexingBatch(0, events, env);
+        normalize(batch);
+        buildTree(batch);
+        enrichAndCache(batch);
+        if (!batch.getTasksMap().isEmpty()) {
+            LOG.info("{} tasks to be indexed to elasticsearch", batch.getTasksMap().size());
+            es.index(batch.getTasksMap());
+            LOG.info("Tasks were indexed to elasticsearch");
+        }
+        finishBatch(batch);
+    }
+
+    void normalize(IndexingBatch batch) {
+        ThreadContext.put("id", batch.getFlowId());
         LOG.info("#### Batch Start ####");
-        Timer.Started start = KamonConstants.BATCH_DURATION_TIMER.withoutTags().start();
-        ZonedDateTime taskIndexerStartTime = ZonedDateTime.now();
+        Collection<Event> events = batch.getEvents();
         LOG.info("{} events to be handled in current batch", events.size());
 
         Collection<String> heartbeatEvents = new HashSet<>();
@@ -72,83 +123,195 @@ public class TaskIndexer {
                     LOG.warn("Task ID is null for event {}", GSON.toJson(e));
                 }
                 else {
-                    e.fixErrors();
-                    e.replaceAllFieldsWithDots();
-                    e.trimAllStrings();
+                    // Clients normalize events before sending them
+                    if (!e.isNormalized()) {
+                        e.normalize();
+                    }
                     timbermillEvents.add(e);
                 }
             }
         });
 
         if (!heartbeatEvents.isEmpty()) {
-            this.es.indexMetaDataTasks(env, heartbeatEvents);
-        }
-
-        if (!timbermillEvents.isEmpty()) {
-            int previouslyIndexedParentSize = handleTimbermillEvents(env, timbermillEvents);
-            reportBatchMetrics(env, previouslyIndexedParentSize, taskIndexerStartTime, timbermillEvents.size());
+            this.es.indexMetaDataTasks(batch.getEnv(), heartbeatEvents);
         }
-        start.stop();
-        LOG.info("#### Batch End ####");
+        batch.setTimbermillEvents(timbermillEvents);
     }
 
-    private int handleTimbermillEvents(String env, Collection<Event> timbermillEvents) {
-        applyPlugins(timbermillEvents, env);
-
-        Map<String, DefaultMutableTreeNode> nodesMap = Maps.newHashMap();
-        Set<String> startEventsIds = Sets.newHashSet();
-        Set<String> parentIds = Sets.newHashSet();
-        Map<String, List<Event>> eventsMap = Maps.newHashMap();
-        populateCollections(timbermillEvents, nodesMap, startEventsIds, parentIds, eventsMap);
-        connectNodesByParentId(nodesMap);
-
-        Set<String> missingParentsIds = parentIds.stream().filter(id -> !startEventsIds.contains(id)).collect(Collectors.toSet());
-
-        Map<String, Task> tasksMap;
-        Map<String, Task> previouslyIndexedParentTasks;
+    void buildTree(IndexingBatch batch) {
+        Collection<Event> timbermillEvents = batch.getTimbermillEvents();
+        if (timbermillEvents.isEmpty()) {
+            return;
+        }
+        applyPlugins(timbermillEvents, batch.getEnv());
 
-        String alias = es.createTimbermillAlias(env);
+        batch.setStartEventsTree(new StartEventsTree(timbermillEvents));
+        batch.setEventsMap(getEventsMap(timbermillEvents));
+    }
 
-        String index;
-        if (!alias.endsWith(ElasticsearchUtil.getIndexSerial(1))){
-            index = es.rolloverIndex(alias);
+    // Reads parents pushed to the cache by the previous batch, so batches have to go through here one at a time and in order
+    void enrichAndCache(IndexingBatch batch) {
+        if (batch.getTimbermillEvents().isEmpty()) {
+            batch.setTasksMap(tasksCoalescer.coalesce(Collections.emptyMap()));
+            return;
         }
-        else{
-            index = alias;
+        String env = batch.getEnv();
+        String index = es.getWriteIndex(env);
+
+        List<EnrichmentShard> shards = partition(batch.getStartEventsTree(), batch.getEventsMap());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (EnrichmentShard shard : shards) {
+            if (!shard.eventsMap.isEmpty()) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    ThreadContext.put("id", batch.getFlowId());
+                    enrichShard(shard, batch.getEventsMap(), env, index);
+                }, enrichmentExecutor));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        Map<String, Task> tasksMap = Maps.newHashMap();
+        int previouslyIndexedParentsSize = 0;
+        for (EnrichmentShard shard : shards) {
+            tasksMap.putAll(shard.tasksMap);
+            previouslyIndexedParentsSize += shard.previouslyIndexedParentsSize;
         }
 
+        Timer.Started lockWait = KamonConstants.CACHE_LOCK_WAIT_TIMER.withoutTags().start();
         cacheHandler.lock();
+        lockWait.stop();
         try {
-            LOG.info("Fetching {} missing parents", missingParentsIds.size());
-            previouslyIndexedParentTasks = getMissingParents(missingParentsIds, env);
-            LOG.info("Fetched {} missing parents", previouslyIndexedParentTasks.size());
-            tasksMap = createEnrichedTasks(nodesMap, eventsMap, previouslyIndexedParentTasks, index);
             resolveOrphansFromCache(tasksMap);
 
             LOG.info("Caching {} tasks", tasksMap.size());
             cacheTasks(tasksMap);
+            // Under the lock that found their parents uncached, otherwise a server caching a parent meanwhile would miss its orphans
             LOG.info("Caching {} orphans", tasksMap.size());
             cacheOrphans(tasksMap);
         } finally {
             cacheHandler.release();
         }
+        // Tasks are cached before being coalesced, so children in the next batches find held parents
+        batch.setTasksMap(tasksCoalescer.coalesce(tasksMap));
+        batch.setPreviouslyIndexedParentsSize(previouslyIndexedParentsSize);
+    }
+
+    // A whole in-batch tree goes to the same shard, so the only parents a shard doesn't hold are the ones indexed by previous batches
+    private List<EnrichmentShard> partition(StartEventsTree startEventsTree, Map<String, List<Event>> eventsMap) {
+        List<EnrichmentShard> shards = new ArrayList<>(enrichmentShards);
+        for (int i = 0; i < enrichmentShards; i++) {
+            shards.add(new EnrichmentShard());
+        }
+        for (Map.Entry<String, List<Event>> entry : eventsMap.entrySet()) {
+            String taskId = entry.getKey();
+            getShard(shards, startEventsTree, taskId).eventsMap.put(taskId, entry.getValue());
+        }
+        // Going over the whole batch in order keeps every shard's start events in order too
+        for (Event startEvent : startEventsTree.getStartEventsByOrder()) {
+            EnrichmentShard shard = getShard(shards, startEventsTree, startEvent.getTaskId());
+            shard.startEventsByOrder.add(startEvent);
+            String parentId = startEvent.getParentId();
+            if (parentId != null && !startEventsTree.contains(parentId)) {
+                shard.missingParentsIds.add(parentId);
+            }
+        }
+        return shards;
+    }
+
+    private EnrichmentShard getShard(List<EnrichmentShard> shards, StartEventsTree startEventsTree, String taskId) {
+        return shards.get(Math.floorMod(getPartitionKey(taskId, startEventsTree.getRoot(taskId)).hashCode(), enrichmentShards));
+    }
+
+    // Clients don't send the primary id, so a tree is keyed by its in-batch root: the root's primary or parent id if it has one, its own id otherwise
+    private static String getPartitionKey(String taskId, Event root) {
+        if (root == null) {
+            return taskId;
+        }
+        if (root.getPrimaryId() != null) {
+            return root.getPrimaryId();
+        }
+        if (root.getParentId() != null) {
+            return root.getParentId();
+        }
+        return root.getTaskId();
+    }
+
+    // Doesn't hold the cache lock, orphans whose parent was cached meanwhile by another server are adopted once the lock is taken
+    private void enrichShard(EnrichmentShard shard, Map<String, List<Event>> batchEventsMap, String env, String index) {
+        LOG.info("Fetching {} missing parents", shard.missingParentsIds.size());
+        Map<String, ParentInfo> previouslyIndexedParentTasks = getMissingParents(shard.missingParentsIds, env);
+        LOG.info("Fetched {} missing parents", previouslyIndexedParentTasks.size());
+        enrichStartEventsByOrder(shard.startEventsByOrder, batchEventsMap, previouslyIndexedParentTasks);
+        shard.tasksMap = getTasksFromEvents(shard.eventsMap, index);
+        shard.previouslyIndexedParentsSize = previouslyIndexedParentTasks.size();
+    }
+
+    // Updates of a task always land on the same lane, so sending each lane's bulks in order keeps them in order in Elasticsearch
+    void buildBulkRequests(IndexingBatch batch, int lanes) {
+        Map<String, Task> tasksMap = batch.getTasksMap();
+        if (tasksMap.isEmpty()) {
+            return;
+        }
+        List<Map<String, Task>> tasksPerLane = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            tasksPerLane.add(Maps.newHashMap());
+        }
+        tasksMap.forEach((id, task) -> tasksPerLane.get(Math.floorMod(id.hashCode(), lanes)).put(id, task));
+
+        List<Collection<BulkRequest>> bulkRequestsPerLane = new ArrayList<>(lanes);
+        for (Map<String, Task> laneTasks : tasksPerLane) {
+            bulkRequestsPerLane.add(es.createBulkRequests(laneTasks));
+        }
         LOG.info("{} tasks to be indexed to elasticsearch", tasksMap.size());
-        es.index(tasksMap);
-        LOG.info("Tasks were indexed to elasticsearch");
-        return previouslyIndexedParentTasks.size();
+        batch.setBulkRequestsPerLane(bulkRequestsPerLane);
+    }
+
+    void sendBulkRequest(IndexingBatch batch, BulkRequest request, int bulkNum) {
+        List<BulkResponse> bulkResponses = es.sendBulkRequest(request, bulkNum);
+        if (es.isScriptlessUpdates()) {
+            rememberCreatedTasks(batch.getTasksMap(), bulkResponses);
+        }
+    }
+
+    // A start that went through the script and created its document left it in the state of the task itself
+    private void rememberCreatedTasks(Map<String, Task> tasksMap, List<BulkResponse> bulkResponses) {
+        for (BulkResponse bulkResponse : bulkResponses) {
+            for (BulkItemResponse itemResponse : bulkResponse) {
+                if (itemResponse.isFailed() || itemResponse.getResponse().getResult() != DocWriteResponse.Result.CREATED) {
+                    continue;
+                }
+                Task task = tasksMap.get(itemResponse.getId());
+                if (task != null && !task.isFullState() && task.getStatus() == TaskStatus.UNTERMINATED) {
+                    createdTasks.put(itemResponse.getId(), task.getStartTime());
+                }
+            }
+        }
+    }
+
+    void finishBatch(IndexingBatch batch) {
+        if (!batch.isFailed() && !batch.getTimbermillEvents().isEmpty()) {
+            reportBatchMetrics(batch.getEnv(), batch.getPreviouslyIndexedParentsSize(), batch.getStartTime(), batch.getTimbermillEvents().size());
+        }
+        batch.getTimer().stop();
+        LOG.info("#### Batch End ####");
     }
 
     private void resolveOrphansFromCache(Map<String, Task> tasksMap) {
         Timer.Started start = KamonConstants.ORPHANS_JOB_LATENCY.withoutTags().start();
 
         ParentResolver resolver = new ParentResolver(tasksMap, cacheHandler);
-        Map<String, Task> adoptedTasksMap = resolver.resolveOrphansReceived();
+        Map<String, Task> adoptedTasksMap = resolver.resolveOrphansOfCachedParents();
+        adoptedTasksMap.putAll(resolver.resolveOrphansReceived());
 
         for (Map.Entry<String, Task> adoptedEntry : adoptedTasksMap.entrySet()) {
             String adoptedId = adoptedEntry.getKey();
             Task adoptedTask = adoptedEntry.getValue();
-            if (tasksMap.containsKey(adoptedId)){
-                tasksMap.get(adoptedId).mergeTask(adoptedTask, adoptedId);
+            Task task = tasksMap.get(adoptedId);
+            if (task == adoptedTask) {
+                continue;
+            }
+            if (task != null){
+                task.mergeTask(adoptedTask, adoptedId);
             }
             else{
                 tasksMap.put(adoptedId, adoptedTask);
@@ -183,51 +346,57 @@ public class TaskIndexer {
         }
 
         if (!parentToOrphansMap.isEmpty()) {
-            Map<String, List<String>> fromOrphansCache = cacheHandler.logPullFromOrphansCache(parentToOrphansMap.keySet(), "cache_orphans");
-            for (Map.Entry<String, List<String>> entry : fromOrphansCache.entrySet()) {
-                String parentId = entry.getKey();
-                List<String> orphansList = parentToOrphansMap.get(parentId);
-                List<String> orphanListFromCache = entry.getValue();
-                orphansList.addAll(orphanListFromCache);
-            }
-
+            // Appended to the orphans already cached for each parent by the cache itself
             cacheHandler.logPushToOrphanCache(parentToOrphansMap, "cache_orphans");
         }
     }
 
     private void cacheTasks(Map<String, Task> tasksMap) {
-        HashMap<String, LocalTask> updatedTasks = Maps.newHashMap();
-        Map<String, LocalTask> idToTaskMap = cacheHandler.logGetFromTasksCache(tasksMap.keySet(), "cache_tasks");
+        // Cached tasks are found in the tasks cache from now on
+        missingParentsCache.invalidateAll(tasksMap.keySet());
+        HashMap<String, ParentInfo> updatedTasks = Maps.newHashMap();
+        Map<String, ParentInfo> idToInfoMap = cacheHandler.logGetFromTasksCache(tasksMap.keySet(), "cache_tasks");
         for (Map.Entry<String, Task> entry : tasksMap.entrySet()) {
             Task task = entry.getValue();
-            LocalTask localTask = new LocalTask(task);
             String id = entry.getKey();
-            Task cachedTask = idToTaskMap.get(id);
-            if (cachedTask != null) {
-                localTask.mergeTask(cachedTask, id);
-                localTask.setIndex(cachedTask.getIndex());
-                task.setIndex(cachedTask.getIndex());
+            ParentInfo cachedInfo = idToInfoMap.get(id);
+            if (cachedInfo != null && !cachedInfo.isKnownState() && isCreatedTask(id, cachedInfo)) {
+                cachedInfo.setKnownState(true);
             }
-            updatedTasks.put(id, localTask);
+            // Before caching, so the cache holds the resolved status
+            task.resolveFullState(cachedInfo);
+            ParentInfo parentInfo = new ParentInfo(task);
+            if (cachedInfo != null) {
+                parentInfo.mergeCached(cachedInfo, id);
+                parentInfo.setIndex(cachedInfo.getIndex());
+                task.setIndex(cachedInfo.getIndex());
+            }
+            updatedTasks.put(id, parentInfo);
         }
         cacheHandler.logPushToTasksCache(updatedTasks, "cache_tasks");
     }
 
-    private Map<String, Task> getMissingParents(Set<String> parentIds, String env) {
+    // Any other update of the task since it was created was cached with a different status or start time
+    private boolean isCreatedTask(String id, ParentInfo cachedInfo) {
+        ZonedDateTime createdStartTime = createdTasks.getIfPresent(id);
+        return createdStartTime != null && cachedInfo.getStatus() == TaskStatus.UNTERMINATED && createdStartTime.equals(cachedInfo.getStartTime());
+    }
+
+    private Map<String, ParentInfo> getMissingParents(Set<String> parentIds, String env) {
         
         int missingParentAmount = parentIds.size();
         KamonConstants.MISSING_PARENTS_HISTOGRAM.withoutTags().record(missingParentAmount);
 
-        Map<String, Task> previouslyIndexedParentTasks = Maps.newHashMap();
+        Map<String, ParentInfo> previouslyIndexedParentTasks = Maps.newHashMap();
         try {
             if (!parentIds.isEmpty()) {
-                Map<String, LocalTask> parentMap = cacheHandler.logGetFromTasksCache(parentIds, "missing_parents");
+                Map<String, ParentInfo> parentMap = cacheHandler.logGetFromTasksCache(parentIds, "missing_parents");
                 parentMap.forEach((parentId, parentTask) -> {
                     if (parentTask != null) {
                         previouslyIndexedParentTasks.put(parentId, parentTask);
                     }
                     if (parentTask != null && parentTask.getPrimaryId() == null && parentTask.getParentsPath() != null && !parentTask.getParentsPath().isEmpty()){
-                        LOG.debug("getMissingParents CACHE missing primary localtask: {}", GSON.toJson(parentTask));
+                        LOG.debug("getMissingParents CACHE missing primary parent info: {}", GSON.toJson(parentTask));
                     }
                 });
             }
@@ -236,14 +405,29 @@ public class TaskIndexer {
         }
 
         parentIds.removeAll(previouslyIndexedParentTasks.keySet());
+        int knownMissingParents = 0;
+        for (Iterator<String> iterator = parentIds.iterator(); iterator.hasNext();) {
+            if (missingParentsCache.getIfPresent(iterator.next()) != null) {
+                iterator.remove();
+                knownMissingParents++;
+            }
+        }
+        KamonConstants.MISSING_PARENTS_CACHE_COUNTER.withTag("result", "hit").increment(knownMissingParents);
+        KamonConstants.MISSING_PARENTS_CACHE_COUNTER.withTag("result", "miss").increment(parentIds.size());
         if (!parentIds.isEmpty()) {
-            Map<String, Task> fromEs = es.getMissingParents(parentIds, env);
+            Set<String> failedIds = Sets.newHashSet();
+            Map<String, Task> fromEs = es.getMissingParents(parentIds, env, failedIds);
+            for (String parentId : parentIds) {
+                if (!fromEs.containsKey(parentId) && !failedIds.contains(parentId)) {
+                    missingParentsCache.put(parentId, true);
+                }
+            }
             for (Task value : fromEs.values()) {
                 if (value.getPrimaryId() == null && value.getParentsPath() != null && !value.getParentsPath().isEmpty()){
                     LOG.info("getMissingParents ES missing primary task: {}", GSON.toJson(value));
                 }
             }
-            previouslyIndexedParentTasks.putAll(fromEs);
+            fromEs.forEach((parentId, parentTask) -> previouslyIndexedParentTasks.put(parentId, new ParentInfo(parentTask)));
 
             if (!fromEs.isEmpty()) {
                 LOG.info("Fetched {} missing parents from Elasticsearch", fromEs.size());
@@ -271,18 +455,9 @@ public class TaskIndexer {
         es.indexMetaDataTasks(env, Lists.newArrayList(GSON.toJson(indexEvent)));
     }
 
-    private void populateCollections(Collection<Event> timbermillEvents, Map<String, DefaultMutableTreeNode> nodesMap, Set<String> startEventsIds, Set<String> parentIds,
-            Map<String, List<Event>> eventsMap) {
+    private static Map<String, List<Event>> getEventsMap(Collection<Event> timbermillEvents) {
+        Map<String, List<Event>> eventsMap = Maps.newHashMap();
         timbermillEvents.forEach(event -> {
-            if (event.isStartEvent()){
-                startEventsIds.add(event.getTaskId());
-
-                nodesMap.put(event.getTaskId(), new DefaultMutableTreeNode(event));
-            }
-            if (event.getParentId() != null){
-                parentIds.add(event.getParentId());
-            }
-
             if (!eventsMap.containsKey(event.getTaskId())){
                 eventsMap.put(event.getTaskId(), Lists.newArrayList(event));
             }
@@ -291,26 +466,7 @@ public class TaskIndexer {
                 events.add(event);
             }
         });
-    }
-
-    private void connectNodesByParentId(Map<String, DefaultMutableTreeNode> nodesMap) {
-        for (DefaultMutableTreeNode treeNode : nodesMap.values()) {
-
-            Event startEvent = (Event) treeNode.getUserObject();
-            String parentId = startEvent.getParentId();
-            if (parentId != null) {
-                DefaultMutableTreeNode parentNode = nodesMap.get(parentId);
-                if (parentNode != null) {
-                    parentNode.add(treeNode);
-                }
-            }
-        }
-    }
-
-    private Map<String, Task> createEnrichedTasks(Map<String, DefaultMutableTreeNode> nodesMap, Map<String, List<Event>> eventsMap,
-                                                  Map<String, Task> previouslyIndexedParentTasks, String index) {
-        enrichStartEventsByOrder(nodesMap.values(), eventsMap, previouslyIndexedParentTasks);
-        return getTasksFromEvents(eventsMap, index);
+        return eventsMap;
     }
 
     private Map<String, Task> getTasksFromEvents(Map<String, List<Event>> eventsMap, String index) {
@@ -322,19 +478,13 @@ public class TaskIndexer {
         return tasksMap;
     }
 
-    private void enrichStartEventsByOrder(Collection<DefaultMutableTreeNode> nodes, Map<String, List<Event>> eventsMap, Map<String, Task> previouslyIndexedTasks) {
+    private void enrichStartEventsByOrder(List<Event> startEventsByOrder, Map<String, List<Event>> eventsMap, Map<String, ParentInfo> previouslyIndexedTasks) {
         /*
          * Compute origins and down merge parameters from parent
          */
-        for (DefaultMutableTreeNode node : nodes) {
-            if (node.isRoot()) {
-                Enumeration enumeration = node.breadthFirstEnumeration();
-                while (enumeration.hasMoreElements()) {
-                    DefaultMutableTreeNode curr = (DefaultMutableTreeNode) enumeration.nextElement();
-                    Event startEvent = (Event) curr.getUserObject();
-                    enrichStartEvent(eventsMap, previouslyIndexedTasks, startEvent);
-                }
-            }
+        Map<String, Boolean> orphanParentsInBatch = Maps.newHashMap();
+        for (Event startEvent : startEventsByOrder) {
+            enrichStartEvent(eventsMap, previouslyIndexedTasks, orphanParentsInBatch, startEvent);
         }
     }
 
@@ -347,10 +497,10 @@ public class TaskIndexer {
         }
     }
 
-    private void enrichStartEvent(Map<String, List<Event>> eventsMap, Map<String, Task> previouslyIndexedTasks, Event startEvent) {
+    private void enrichStartEvent(Map<String, List<Event>> eventsMap, Map<String, ParentInfo> previouslyIndexedTasks, Map<String, Boolean> orphanParentsInBatch, Event startEvent) {
         String parentId = startEvent.getParentId();
         if (parentId != null) {
-            if (isOrphan(startEvent, previouslyIndexedTasks, eventsMap)){
+            if (isOrphan(startEvent, previouslyIndexedTasks, eventsMap, orphanParentsInBatch)){
                 startEvent.setOrphan(true);
                 startEvent.setPrimaryId(null);
             }
@@ -363,34 +513,45 @@ public class TaskIndexer {
         }
     }
 
-    private boolean isOrphan(Event event, Map<String, Task> previouslyIndexedTasks, Map<String, List<Event>> eventsMap) {
+    private boolean isOrphan(Event event, Map<String, ParentInfo> previouslyIndexedTasks, Map<String, List<Event>> eventsMap, Map<String, Boolean> orphanParentsInBatch) {
         String parentId = event.getParentId();
         if (parentId == null) {
             return false;
         } else {
             if (previouslyIndexedTasks.containsKey(parentId)){
-                Task parentTask = previouslyIndexedTasks.get(parentId);
+                ParentInfo parentTask = previouslyIndexedTasks.get(parentId);
                 return parentTask.isOrphan() != null && parentTask.isOrphan();
             }
-            if (eventsMap.containsKey(parentId)){
-                if (eventsMap.get(parentId).stream().anyMatch(Event::isAdoptedEvent)) {
-                    return false;
-                }
-                if (eventsMap.get(parentId).stream().anyMatch(Event::isStartEvent)){
-                    List<Event> parentEvents = eventsMap.get(parentId).stream().filter(Event::isStartEvent).collect(Collectors.toList());
-                    if (parentEvents.size() != 1){
-                        LOG.warn("Too many parents found for parent ID [{}] child task ID [{}] Events: {}", parentId, event.getTaskId(), GSON.toJson(parentEvents));
-                    }
-                    for (Event e : parentEvents) {
-                        if (e.isOrphan() != null && e.isOrphan()){
-                            return true;
-                        }
-                    }
-                    return false;
+            return orphanParentsInBatch.computeIfAbsent(parentId, id -> isOrphanParentInBatch(id, eventsMap));
+        }
+    }
+
+    // Parents are enriched before their children, so the parent's orphan flag doesn't change anymore once its first child asks for it
+    private static boolean isOrphanParentInBatch(String parentId, Map<String, List<Event>> eventsMap) {
+        List<Event> parentEvents = eventsMap.get(parentId);
+        if (parentEvents == null) {
+            return true;
+        }
+        int parentStartEvents = 0;
+        boolean orphan = false;
+        for (Event e : parentEvents) {
+            if (e.isAdoptedEvent()) {
+                return false;
+            }
+            if (e.isStartEvent()) {
+                parentStartEvents++;
+                if (e.isOrphan() != null && e.isOrphan()){
+                    orphan = true;
                 }
             }
+        }
+        if (parentStartEvents == 0) {
             return true;
         }
+        if (parentStartEvents != 1){
+            LOG.warn("Too many parents found for parent ID [{}] Events: {}", parentId, GSON.toJson(parentEvents));
+        }
+        return orphan;
     }
 
     private void applyPlugins(Collection<Event> events, String env) {
@@ -416,4 +577,12 @@ public class TaskIndexer {
             LOG.error("Error running plugins", t);
         }
     }
+
+    private static class EnrichmentShard {
+        private final List<Event> startEventsByOrder = new ArrayList<>();
+        private final Map<String, List<Event>> eventsMap = Maps.newHashMap();
+        private final Set<String> missingParentsIds = Sets.newHashSet();
+        private Map<String, Task> tasksMap = Collections.emptyMap();
+        private int previouslyIndexedParentsSize;
+    }
 }
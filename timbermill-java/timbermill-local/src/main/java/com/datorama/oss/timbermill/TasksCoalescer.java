@@ -0,0 +1,135 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.ElasticsearchUtil;
+import com.datorama.oss.timbermill.common.KamonConstants;
+import com.datorama.oss.timbermill.unit.Task;
+import com.datorama.oss.timbermill.unit.TaskStatus;
+import com.google.common.collect.Maps;
+
+import java.util.*;
+
+/**
+ * Holds started tasks that weren't closed yet for a short window, so a task whose start and end arrive in different batches is indexed as one
+ * document instead of two scripted updates that may leave a partial task behind.
+ * Held tasks are already cached, only their indexing is delayed. A task is released once its end arrives, when its window expires, or when
+ * more than the max amount of tasks are held, oldest first.
+ */
+class TasksCoalescer {
+
+    private final long windowMillis;
+    private final int maxTasks;
+    // Insertion ordered, so the oldest held tasks are released first
+    private final LinkedHashMap<String, HeldTask> heldTasks = new LinkedHashMap<>();
+    private boolean closing;
+
+    TasksCoalescer(long windowMillis, int maxTasks) {
+        if (windowMillis > 0 && maxTasks < 1) {
+            throw new RuntimeException("Coalescing max tasks property should be larger than 0");
+        }
+        this.windowMillis = windowMillis;
+        this.maxTasks = maxTasks;
+    }
+
+    // Returns the tasks to index now, batch tasks that are held are replaced by held tasks that are released
+    synchronized Map<String, Task> coalesce(Map<String, Task> tasksMap) {
+        if (windowMillis <= 0 || (heldTasks.isEmpty() && tasksMap.isEmpty())) {
+            return tasksMap;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Task> tasksToIndex = Maps.newHashMap();
+        int coalesced = 0;
+        for (Map.Entry<String, Task> entry : tasksMap.entrySet()) {
+            String id = entry.getKey();
+            Task task = entry.getValue();
+            long expiryTime = now + windowMillis;
+            HeldTask held = heldTasks.remove(id);
+            if (held != null) {
+                if (merge(held.task, task)) {
+                    task = held.task;
+                    expiryTime = held.expiryTime;
+                    coalesced++;
+                }
+                else {
+                    // Both can't be indexed in the same batch, the new one waits for the next batch so ES gets them in order
+                    tasksToIndex.put(id, held.task);
+                    heldTasks.put(id, new HeldTask(task, now));
+                    continue;
+                }
+            }
+            if (!closing && task.getStatus() == TaskStatus.UNTERMINATED) {
+                heldTasks.put(id, new HeldTask(task, expiryTime));
+            }
+            else {
+                tasksToIndex.put(id, task);
+            }
+        }
+
+        Iterator<Map.Entry<String, HeldTask>> iterator = heldTasks.entrySet().iterator();
+        int tasksOverMax = heldTasks.size() - maxTasks;
+        while (iterator.hasNext()) {
+            Map.Entry<String, HeldTask> entry = iterator.next();
+            String id = entry.getKey();
+            boolean release = closing || tasksOverMax > 0 || entry.getValue().expiryTime <= now;
+            if (release && !tasksToIndex.containsKey(id)) {
+                tasksToIndex.put(id, entry.getValue().task);
+                iterator.remove();
+                tasksOverMax--;
+            }
+        }
+
+        KamonConstants.COALESCED_TASKS_COUNTER.withoutTags().increment(coalesced);
+        KamonConstants.COALESCING_HELD_TASKS_GAUGE.withoutTags().update(heldTasks.size());
+        return tasksToIndex;
+    }
+
+    synchronized boolean hasHeldTasks() {
+        return !heldTasks.isEmpty();
+    }
+
+    // Tasks are no longer held, the ones already held are released by the next coalesce
+    synchronized void close() {
+        closing = true;
+    }
+
+    // Applies a later update of a started task the way it would have been applied had both arrived in the same batch.
+    // Updates already resolved against the cached task carry the held task's start time.
+    // Anything other than info, success or error of the same task is left for Elasticsearch to merge
+    private static boolean merge(Task heldTask, Task task) {
+        TaskStatus status = task.getStatus();
+        if (heldTask.getStatus() != TaskStatus.UNTERMINATED || !isSameOrNull(heldTask.getParentId(), task.getParentId())
+                || !isSameOrNull(heldTask.getPrimaryId(), task.getPrimaryId()) || !isSameOrNull(heldTask.getParentsPath(), task.getParentsPath())
+                || !isSameOrNull(heldTask.isOrphan(), task.isOrphan())) {
+            return false;
+        }
+        boolean resolved = task.isFullState() && heldTask.getStartTime().equals(task.getStartTime());
+        if (status == TaskStatus.PARTIAL_SUCCESS || status == TaskStatus.PARTIAL_ERROR
+                || (resolved && (status == TaskStatus.SUCCESS || status == TaskStatus.ERROR))) {
+            heldTask.setStatus(status == TaskStatus.PARTIAL_SUCCESS || status == TaskStatus.SUCCESS ? TaskStatus.SUCCESS : TaskStatus.ERROR);
+            heldTask.setEndTime(task.getEndTime());
+            heldTask.setDuration(ElasticsearchUtil.getTimesDuration(heldTask.getStartTime(), task.getEndTime()));
+        }
+        else if (status != TaskStatus.PARTIAL_INFO_ONLY && !(resolved && status == TaskStatus.UNTERMINATED)) {
+            return false;
+        }
+        heldTask.getCtx().putAll(task.getCtx());
+        heldTask.getString().putAll(task.getString());
+        heldTask.getText().putAll(task.getText());
+        heldTask.getMetric().putAll(task.getMetric());
+        heldTask.setFullState(heldTask.isFullState() || task.isFullState());
+        return true;
+    }
+
+    private static boolean isSameOrNull(Object heldValue, Object value) {
+        return value == null || value.equals(heldValue);
+    }
+
+    private static class HeldTask {
+        private final Task task;
+        private final long expiryTime;
+
+        HeldTask(Task task, long expiryTime) {
+            this.task = task;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
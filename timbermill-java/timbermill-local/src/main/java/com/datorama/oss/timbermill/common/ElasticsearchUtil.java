@@ -1,6 +1,7 @@
 package com.datorama.oss.timbermill.common;
 
-import com.datorama.oss.timbermill.TaskIndexer;
+import com.datorama.oss.timbermill.AdaptiveBatcher;
+import com.datorama.oss.timbermill.IndexingPipeline;
 import com.datorama.oss.timbermill.unit.Event;
 import com.google.common.collect.Sets;
 import org.slf4j.Logger;
@@ -309,12 +310,15 @@ public class ElasticsearchUtil {
 		return envsSet;
 	}
 
-	public static void drainAndIndex(BlockingQueue<Event> eventsQueue, TaskIndexer taskIndexer, int maxElement) {
-		while (!eventsQueue.isEmpty()) {
+	public static void drainAndIndex(BlockingQueue<Event> eventsQueue, IndexingPipeline indexingPipeline, AdaptiveBatcher adaptiveBatcher) {
+		do {
 			try {
-				Collection<Event> events = new ArrayList<>();
-				eventsQueue.drainTo(events, maxElement);
+				Collection<Event> events = adaptiveBatcher.drain(eventsQueue);
 				KamonConstants.MESSAGES_IN_INPUT_QUEUE_RANGE_SAMPLER.withoutTags().decrement(events.size());
+				if (events.isEmpty()) {
+					indexingPipeline.flushCoalescedTasks();
+					continue;
+				}
 				logErrorInEventsMap(events.stream().filter(event -> event.getTaskId() != null).collect(Collectors.groupingBy(Event::getTaskId)), "drainAndIndex");
 
 				events.forEach(e -> {
@@ -330,20 +334,16 @@ public class ElasticsearchUtil {
 					envsSet.add(env);
 
 					Collection<Event> currentEvents = eventsPerEnv.getValue();
-					taskIndexer.retrieveAndIndex(currentEvents, env);
-				}
-				//For refresh
-				try {
-					Thread.sleep(THREAD_SLEEP);
-				} catch (InterruptedException e) {
-					LOG.error("InterruptedException was thrown from TaskIndexer:", e);
+					indexingPipeline.submit(currentEvents, env);
 				}
+			} catch (InterruptedException e) {
+				LOG.error("InterruptedException was thrown from TaskIndexer:", e);
 			} catch (NullPointerException e) {
 				LOG.error("NullPointerException was thrown from TaskIndexer:{}\n {}", e.getMessage(), e.getStackTrace());
 			} catch (RuntimeException e) {
 				LOG.error("Error was thrown from TaskIndexer:", e);
 			}
-		}
+		} while (!eventsQueue.isEmpty());
 	}
 
 	public static long getTimesDuration(ZonedDateTime taskIndexerStartTime, ZonedDateTime taskIndexerEndTime) {
@@ -14,10 +14,12 @@ public class KamonConstants {
 	public static final Metric.Histogram TASKS_INDEXED_HISTOGRAM = Kamon.histogram("timbermill2.tasks.indexed.histogram");
 	public static final Metric.Histogram MISSING_PARENTS_TASKS_FETCHED_HISTOGRAM = Kamon.histogram("timbermill2.missing.parents.tasks.fetched.histogram");
 	public static final Metric.Histogram MISSING_PARENTS_HISTOGRAM = Kamon.histogram("timbermill2.missing.parents.histogram");
+	public static final Metric.Counter MISSING_PARENTS_CACHE_COUNTER = Kamon.counter("timbermill2.missing.parents.cache.counter");
 	public static final Metric.Timer GZIP_DECOMPRESS_REQUEST_DURATION = Kamon.timer("timbermill2.decompress.request.duration.timer");
 	public static final Metric.Timer RETRIEVE_FROM_TASKS_CACHE_TIMER = Kamon.timer("timbermill2.retrieve.from.tasks.cache.duration.timer");
 	public static final Metric.Histogram TASKS_QUERIED_FROM_CACHE_HISTOGRAM = Kamon.histogram("timbermill2.tasks.queried.from.cache.histogram");
 	public static final Metric.Histogram TASKS_RETRIEVED_FROM_CACHE_HISTOGRAM = Kamon.histogram("timbermill2.tasks.retrieved.from.cache.histogram");
+	public static final Metric.Counter NEAR_CACHE_COUNTER = Kamon.counter("timbermill2.near.cache.counter");
 	public static final Metric.Timer PUSH_TO_CACHE_TIMER = Kamon.timer("timbermill2.push.to.cache.duration.timer");
 	public static final Metric.Histogram TASKS_PUSHED_TO_CACHE_HISTOGRAM = Kamon.histogram("timbermill2.tasks.pushed.to.cache.histogram");
 	public static final Metric.Timer PULL_FROM_ORPHAN_CACHE_TIMER = Kamon.timer("timbermill2.pull.from.orphan.cache.duration.timer");
@@ -34,6 +36,21 @@ public class KamonConstants {
 	public static final Metric.Histogram TASKS_FETCHED_FROM_DISK_HISTOGRAM = Kamon.histogram("timbermill2.failed.tasks.fetched.from.disk.histogram");
 	public static final Metric.Timer EVENTS_FETCH_JOB_LATENCY = Kamon.timer("timbermill2.overflowed.events.fetch.job.latency.timer");
 	public static final Metric.Gauge CURRENT_DATA_IN_DB_GAUGE = Kamon.gauge("timbermill2.data.in.db.gauge");
+	public static final Metric.Counter REJECTED_REQUESTS_COUNTER = Kamon.counter("timbermill2.rejected.requests.counter");
+	public static final Metric.Counter BATCHES_CHECKED_COUNTER = Kamon.counter("timbermill2.batches.checked.counter");
+	public static final Metric.Counter DUPLICATE_BATCHES_COUNTER = Kamon.counter("timbermill2.duplicate.batches.counter");
+	public static final Metric.Gauge BATCHES_FILTER_FALSE_POSITIVE_RATE_GAUGE = Kamon.gauge("timbermill2.batches.filter.false.positive.rate.gauge");
+	public static final Metric.RangeSampler BATCHES_IN_PIPELINE_STAGE_RANGE_SAMPLER = Kamon.rangeSampler("timbermill2.batches.in.pipeline.stage.range.sampler");
+	public static final Metric.Timer PIPELINE_STAGE_DURATION_TIMER = Kamon.timer("timbermill2.pipeline.stage.duration.timer");
+	public static final Metric.Histogram BATCH_SIZE_HISTOGRAM = Kamon.histogram("timbermill2.batch.size.histogram");
+	public static final Metric.Histogram BATCH_LINGER_MILLIS_HISTOGRAM = Kamon.histogram("timbermill2.batch.linger.millis.histogram");
+	public static final Metric.Timer CACHE_LOCK_WAIT_TIMER = Kamon.timer("timbermill2.cache.lock.wait.timer");
+	public static final Metric.Counter COALESCED_TASKS_COUNTER = Kamon.counter("timbermill2.coalesced.tasks.counter");
+	public static final Metric.Timer FETCH_BY_IDS_TIMER = Kamon.timer("timbermill2.fetch.by.ids.duration.timer");
+	public static final Metric.Timer ROLLOVER_JOB_LATENCY = Kamon.timer("timbermill2.rollover.job.latency.timer");
+	public static final Metric.Counter TASK_UPDATES_COUNTER = Kamon.counter("timbermill2.task.updates.counter");
+	public static final Metric.Gauge COALESCING_HELD_TASKS_GAUGE = Kamon.gauge("timbermill2.coalescing.held.tasks.gauge");
+	public static final Metric.Counter CACHE_WARM_UP_TASKS_COUNTER = Kamon.counter("timbermill2.cache.warm.up.tasks.counter");
 
 
 }
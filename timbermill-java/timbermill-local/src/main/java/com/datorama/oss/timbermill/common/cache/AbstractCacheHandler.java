@@ -1,7 +1,7 @@
 package com.datorama.oss.timbermill.common.cache;
 
 import com.datorama.oss.timbermill.common.KamonConstants;
-import com.datorama.oss.timbermill.unit.LocalTask;
+import com.datorama.oss.timbermill.unit.ParentInfo;
 import kamon.metric.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,9 +14,9 @@ import java.util.Set;
 public abstract class AbstractCacheHandler {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractCacheHandler.class);
 
-    public Map<String, LocalTask> logGetFromTasksCache(Collection<String> idsList, String type){
+    public Map<String, ParentInfo> logGetFromTasksCache(Collection<String> idsList, String type){
         Timer.Started start = KamonConstants.RETRIEVE_FROM_TASKS_CACHE_TIMER.withTag("type", type).start();
-        Map<String, LocalTask> retMap = getFromTasksCache(idsList);
+        Map<String, ParentInfo> retMap = getFromTasksCache(idsList, type);
         start.stop();
         KamonConstants.TASKS_QUERIED_FROM_CACHE_HISTOGRAM.withTag("type", type).record(idsList.size());
         KamonConstants.TASKS_RETRIEVED_FROM_CACHE_HISTOGRAM.withTag("type", type).record(retMap.size());
@@ -24,7 +24,7 @@ public abstract class AbstractCacheHandler {
         return retMap;
     }
 
-    public void logPushToTasksCache(Map<String, LocalTask> idsToMap, String type){
+    public void logPushToTasksCache(Map<String, ParentInfo> idsToMap, String type){
         LOG.debug("Pushing {} tasks to cache, flow: [{}]", idsToMap.size(), type);
         Timer.Started start = KamonConstants.PUSH_TO_CACHE_TIMER.withTag("type", type).start();
         pushToTasksCache(idsToMap);
@@ -50,13 +50,19 @@ public abstract class AbstractCacheHandler {
         KamonConstants.PARENTS_PUSHED_TO_ORPHAN_CACHE_HISTOGRAM.withTag("type", type).record(orphansMap.size());
     }
 
+    // Removes the cached orphans of the given parents and returns them, atomically for every parent
     abstract Map<String, List<String>> pullFromOrphansCache(Collection<String> parentsIds);
 
+    // Adds the given orphans to the ones already cached for their parents, atomically for every parent
     abstract void pushToOrphanCache(Map<String, List<String>> orphansMap);
 
-    abstract Map<String, LocalTask> getFromTasksCache(Collection<String> idsList);
+    abstract Map<String, ParentInfo> getFromTasksCache(Collection<String> idsList);
 
-    abstract void pushToTasksCache(Map<String, LocalTask> idsToMap);
+    Map<String, ParentInfo> getFromTasksCache(Collection<String> idsList, String type) {
+        return getFromTasksCache(idsList);
+    }
+
+    abstract void pushToTasksCache(Map<String, ParentInfo> idsToMap);
 
     public abstract void close();
 
@@ -7,12 +7,34 @@ public class CacheConfig {
     private int cacheRedisTtlInSeconds;
     private long maximumTasksCacheWeight;
     private long maximumOrphansCacheWeight;
+    private boolean localCacheCompression;
+    private String locationInDisk;
+    private long maximumNearCacheWeight;
+    private int nearCacheTtlSeconds;
 
     public CacheConfig(RedisService redisService, int cacheRedisTtlInSeconds, long maximumTasksCacheWeight, long maximumOrphansCacheWeight) {
+        this(redisService, cacheRedisTtlInSeconds, maximumTasksCacheWeight, maximumOrphansCacheWeight, false, null);
+    }
+
+    public CacheConfig(RedisService redisService, int cacheRedisTtlInSeconds, long maximumTasksCacheWeight, long maximumOrphansCacheWeight, boolean localCacheCompression) {
+        this(redisService, cacheRedisTtlInSeconds, maximumTasksCacheWeight, maximumOrphansCacheWeight, localCacheCompression, null);
+    }
+
+    public CacheConfig(RedisService redisService, int cacheRedisTtlInSeconds, long maximumTasksCacheWeight, long maximumOrphansCacheWeight, boolean localCacheCompression,
+            String locationInDisk) {
+        this(redisService, cacheRedisTtlInSeconds, maximumTasksCacheWeight, maximumOrphansCacheWeight, localCacheCompression, locationInDisk, 0, 0);
+    }
+
+    public CacheConfig(RedisService redisService, int cacheRedisTtlInSeconds, long maximumTasksCacheWeight, long maximumOrphansCacheWeight, boolean localCacheCompression,
+            String locationInDisk, long maximumNearCacheWeight, int nearCacheTtlSeconds) {
         this.redisService = redisService;
         this.cacheRedisTtlInSeconds = cacheRedisTtlInSeconds;
         this.maximumTasksCacheWeight = maximumTasksCacheWeight;
         this.maximumOrphansCacheWeight = maximumOrphansCacheWeight;
+        this.localCacheCompression = localCacheCompression;
+        this.locationInDisk = locationInDisk;
+        this.maximumNearCacheWeight = maximumNearCacheWeight;
+        this.nearCacheTtlSeconds = nearCacheTtlSeconds;
     }
 
     RedisService getRedisService() {
@@ -31,4 +53,20 @@ public class CacheConfig {
         return maximumOrphansCacheWeight;
     }
 
+    boolean isLocalCacheCompression() {
+        return localCacheCompression;
+    }
+
+    String getLocationInDisk() {
+        return locationInDisk;
+    }
+
+    long getMaximumNearCacheWeight() {
+        return maximumNearCacheWeight;
+    }
+
+    int getNearCacheTtlSeconds() {
+        return nearCacheTtlSeconds;
+    }
+
 }
@@ -3,10 +3,17 @@ package com.datorama.oss.timbermill.common.cache;
 public class CacheHandlerUtil {
     public static AbstractCacheHandler getCacheHandler(String strategy, CacheConfig cacheParams) {
         if (strategy.compareToIgnoreCase("redis") == 0){
+            if (cacheParams.getMaximumNearCacheWeight() > 0) {
+                return new NearCacheHandler(cacheParams.getRedisService(), cacheParams.getCacheRedisTtlInSeconds(), cacheParams.getMaximumNearCacheWeight(),
+                        cacheParams.getNearCacheTtlSeconds());
+            }
             return new RedisCacheHandler(cacheParams.getRedisService(), cacheParams.getCacheRedisTtlInSeconds());
         }
+        else if (strategy.compareToIgnoreCase("offheap") == 0){
+            return new OffHeapCacheHandler(cacheParams.getLocationInDisk(), cacheParams.getMaximumTasksCacheWeight(), cacheParams.getMaximumOrphansCacheWeight());
+        }
         else {
-            return new LocalCacheHandler(cacheParams.getMaximumTasksCacheWeight(), cacheParams.getMaximumOrphansCacheWeight());
+            return new LocalCacheHandler(cacheParams.getMaximumTasksCacheWeight(), cacheParams.getMaximumOrphansCacheWeight(), cacheParams.isLocalCacheCompression());
         }
     }
 }
@@ -1,30 +1,58 @@
 package com.datorama.oss.timbermill.common.cache;
 
 import com.datorama.oss.timbermill.common.KamonConstants;
-import com.datorama.oss.timbermill.unit.LocalTask;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.ParentInfoCodec;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.Weigher;
 import com.google.common.collect.Maps;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-
-import static com.datorama.oss.timbermill.ElasticsearchClient.GSON;
+import java.util.concurrent.TimeUnit;
 
 public class LocalCacheHandler extends AbstractCacheHandler {
-    private Cache<String, String> tasksCache;
+    // Smaller tasks rarely shrink, compressing them only costs time
+    private static final int MIN_BYTES_TO_COMPRESS = 256;
+    private static final byte RAW = 0;
+    private static final byte LZ4 = 1;
+    private static final int LZ4_HEADER_LENGTH = 5;
+
+    private Cache<String, byte[]> tasksCache;
     private Cache<String, List<String>> orphansCache;
+    private final boolean compress;
+    private LZ4Compressor compressor;
+    private LZ4FastDecompressor decompressor;
 
     LocalCacheHandler(long maximumTasksCacheWeight, long maximumOrphansCacheWeight) {
-        tasksCache = CacheBuilder.newBuilder()
+        this(maximumTasksCacheWeight, maximumOrphansCacheWeight, false);
+    }
+
+    LocalCacheHandler(long maximumTasksCacheWeight, long maximumOrphansCacheWeight, boolean compress) {
+        this(maximumTasksCacheWeight, maximumOrphansCacheWeight, compress, 0);
+    }
+
+    LocalCacheHandler(long maximumTasksCacheWeight, long maximumOrphansCacheWeight, boolean compress, int tasksTtlSeconds) {
+        this.compress = compress;
+        LZ4Factory lz4Factory = LZ4Factory.fastestInstance();
+        compressor = lz4Factory.fastCompressor();
+        decompressor = lz4Factory.fastDecompressor();
+        CacheBuilder<Object, Object> tasksCacheBuilder = CacheBuilder.newBuilder();
+        if (tasksTtlSeconds > 0) {
+            tasksCacheBuilder.expireAfterWrite(tasksTtlSeconds, TimeUnit.SECONDS);
+        }
+        tasksCache = tasksCacheBuilder
                 .maximumWeight(maximumTasksCacheWeight)
-                .weigher((Weigher<String, String>) (key, value) -> 2 * (key.length() + value.length()))
+                .weigher((Weigher<String, byte[]>) LocalCacheHandler::getTaskEntryLength)
                 .removalListener(notification -> {
-                    String key = notification.getKey();
-                    String value = notification.getValue();
-                    KamonConstants.TASK_CACHE_SIZE_RANGE_SAMPLER.withoutTags().decrement(2 * (key.length() + value.length()));
+                    KamonConstants.TASK_CACHE_SIZE_RANGE_SAMPLER.withoutTags().decrement(getTaskEntryLength(notification.getKey(), notification.getValue()));
                     KamonConstants.TASK_CACHE_ENTRIES_RANGE_SAMPLER.withoutTags().decrement();
                 })
                 .build();
@@ -40,6 +68,17 @@ public class LocalCacheHandler extends AbstractCacheHandler {
                 .build();
     }
 
+    private static List<String> concat(List<String> cachedOrphans, List<String> newOrphans) {
+        List<String> orphans = new ArrayList<>(cachedOrphans.size() + newOrphans.size());
+        orphans.addAll(cachedOrphans);
+        orphans.addAll(newOrphans);
+        return orphans;
+    }
+
+    private static int getTaskEntryLength(String key, byte[] value) {
+        return 2 * key.length() + value.length;
+    }
+
     private int getEntryLength(String key, List<String> value) {
         int valuesLengths = value.stream().mapToInt(String::length).sum();
         int keyLength = key.length();
@@ -48,45 +87,94 @@ public class LocalCacheHandler extends AbstractCacheHandler {
 
     @Override
     public Map<String, List<String>> pullFromOrphansCache(Collection<String> parentsIds) {
-        Map<String, List<String>> orphans = orphansCache.getAllPresent(parentsIds);
-        if (orphans != null){
-            orphansCache.invalidateAll(parentsIds);
+        Map<String, List<String>> orphans = Maps.newHashMap();
+        for (String parentId : parentsIds) {
+            List<String> parentOrphans = orphansCache.asMap().remove(parentId);
+            if (parentOrphans != null) {
+                orphans.put(parentId, parentOrphans);
+            }
         }
         return orphans;
     }
 
     @Override
     public void pushToOrphanCache(Map<String, List<String>> orphansMap) {
-        orphansCache.putAll(orphansMap);
-        int entryLength = orphansMap.entrySet().stream().mapToInt(value -> getEntryLength(value.getKey(), value.getValue())).sum();
-        KamonConstants.ORPHANS_CACHE_SIZE_RANGE_SAMPLER.withoutTags().increment(entryLength);
-        KamonConstants.ORPHANS_CACHE_ENTRIES_RANGE_SAMPLER.withoutTags().increment(orphansMap.size());
+        for (Map.Entry<String, List<String>> entry : orphansMap.entrySet()) {
+            String parentId = entry.getKey();
+            List<String> parentOrphans = orphansCache.asMap().merge(parentId, entry.getValue(), LocalCacheHandler::concat);
+            KamonConstants.ORPHANS_CACHE_SIZE_RANGE_SAMPLER.withoutTags().increment(getEntryLength(parentId, parentOrphans));
+            KamonConstants.ORPHANS_CACHE_ENTRIES_RANGE_SAMPLER.withoutTags().increment();
+        }
     }
 
     @Override
-    public Map<String, LocalTask> getFromTasksCache(Collection<String> idsList) {
-        Map<String, LocalTask> retMap = Maps.newHashMap();
+    public Map<String, ParentInfo> getFromTasksCache(Collection<String> idsList) {
+        Map<String, ParentInfo> retMap = Maps.newHashMap();
         for (String id : idsList) {
-            String taskString = tasksCache.getIfPresent(id);
-            LocalTask localTask = GSON.fromJson(taskString, LocalTask.class);
-            retMap.put(id, localTask);
+            byte[] taskBytes = tasksCache.getIfPresent(id);
+            ParentInfo parentInfo = taskBytes == null ? null : decode(taskBytes);
+            retMap.put(id, parentInfo);
         }
         return retMap;
 
     }
 
     @Override
-    public void pushToTasksCache(Map<String, LocalTask> idsToMap) {
-        for (Map.Entry<String, LocalTask> entry : idsToMap.entrySet()) {
+    public void pushToTasksCache(Map<String, ParentInfo> idsToMap) {
+        for (Map.Entry<String, ParentInfo> entry : idsToMap.entrySet()) {
             String id = entry.getKey();
-            LocalTask localTask = entry.getValue();
-            String taskString = GSON.toJson(localTask);
-            tasksCache.put(id, taskString);
-            KamonConstants.TASK_CACHE_SIZE_RANGE_SAMPLER.withoutTags().increment(2 * (id.length() + taskString.length()));
+            ParentInfo parentInfo = entry.getValue();
+            byte[] taskBytes = pack(ParentInfoCodec.encode(parentInfo));
+            tasksCache.put(id, taskBytes);
+            KamonConstants.TASK_CACHE_SIZE_RANGE_SAMPLER.withoutTags().increment(getTaskEntryLength(id, taskBytes));
             KamonConstants.TASK_CACHE_ENTRIES_RANGE_SAMPLER.withoutTags().increment();
         }
     }
 
+    void invalidateTasks(Collection<String> ids) {
+        tasksCache.invalidateAll(ids);
+    }
+
+    void invalidateAllTasks() {
+        tasksCache.invalidateAll();
+    }
+
+    private byte[] pack(byte[] taskBytes) {
+        if (compress && taskBytes.length >= MIN_BYTES_TO_COMPRESS) {
+            byte[] packed = new byte[LZ4_HEADER_LENGTH + compressor.maxCompressedLength(taskBytes.length)];
+            int compressedLength = compressor.compress(taskBytes, 0, taskBytes.length, packed, LZ4_HEADER_LENGTH);
+            if (LZ4_HEADER_LENGTH + compressedLength < taskBytes.length) {
+                packed[0] = LZ4;
+                writeInt(packed, 1, taskBytes.length);
+                return Arrays.copyOf(packed, LZ4_HEADER_LENGTH + compressedLength);
+            }
+        }
+        byte[] packed = new byte[taskBytes.length + 1];
+        packed[0] = RAW;
+        System.arraycopy(taskBytes, 0, packed, 1, taskBytes.length);
+        return packed;
+    }
+
+    private ParentInfo decode(byte[] packed) {
+        if (packed[0] == LZ4) {
+            byte[] taskBytes = new byte[readInt(packed, 1)];
+            decompressor.decompress(packed, LZ4_HEADER_LENGTH, taskBytes, 0, taskBytes.length);
+            return ParentInfoCodec.decode(taskBytes, 0, taskBytes.length);
+        }
+        return ParentInfoCodec.decode(packed, 1, packed.length - 1);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
     @Override
     public void close() {
         tasksCache.cleanUp();
@@ -0,0 +1,84 @@
+package com.datorama.oss.timbermill.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file mapped to memory in segments, since a single mapping can't pass 2GB.
+ * Every access has to fall inside a single segment.
+ */
+class MappedFile {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] segments;
+    private final long segmentSize;
+
+    MappedFile(File file, long size, long segmentSize) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.segmentSize = segmentSize;
+        if (this.file.length() != size) {
+            this.file.setLength(size);
+        }
+        FileChannel channel = this.file.getChannel();
+        segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+        for (int i = 0; i < segments.length; i++) {
+            long position = i * segmentSize;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(segmentSize, size - position));
+        }
+    }
+
+    long getSegmentSize() {
+        return segmentSize;
+    }
+
+    long getLong(long position) {
+        return segment(position).getLong(offset(position));
+    }
+
+    void putLong(long position, long value) {
+        segment(position).putLong(offset(position), value);
+    }
+
+    int getInt(long position) {
+        return segment(position).getInt(offset(position));
+    }
+
+    void putInt(long position, int value) {
+        segment(position).putInt(offset(position), value);
+    }
+
+    void get(long position, byte[] bytes) {
+        ByteBuffer buffer = segment(position).duplicate();
+        buffer.position(offset(position));
+        buffer.get(bytes);
+    }
+
+    void put(long position, byte[] bytes) {
+        ByteBuffer buffer = segment(position).duplicate();
+        buffer.position(offset(position));
+        buffer.put(bytes);
+    }
+
+    void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    void close() throws IOException {
+        force();
+        file.close();
+    }
+
+    private MappedByteBuffer segment(long position) {
+        return segments[(int) (position / segmentSize)];
+    }
+
+    private int offset(long position) {
+        return (int) (position % segmentSize);
+    }
+}
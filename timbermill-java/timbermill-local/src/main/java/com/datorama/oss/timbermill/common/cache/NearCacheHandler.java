@@ -0,0 +1,215 @@
+package com.datorama.oss.timbermill.common.cache;
+
+import com.datorama.oss.timbermill.common.KamonConstants;
+import com.datorama.oss.timbermill.common.redis.RedisService;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPubSub;
+
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.datorama.oss.timbermill.ElasticsearchClient.GSON;
+
+/**
+ * Keeps recently pushed and retrieved tasks in a local cache in front of Redis, writing through to both.
+ * Every push is published to the other nodes, which drop the pushed tasks from their local cache. A task read from Redis while an
+ * invalidation of it arrived is not kept locally, since it may be older than the invalidated one, so recent invalidations are
+ * remembered for a while. Invalidations published while this node wasn't subscribed are lost, so the local cache is cleared on every
+ * subscription and its entries expire after a ttl anyway.
+ * Orphans are pulled by a single node, so they are always kept in Redis only.
+ */
+public class NearCacheHandler extends AbstractCacheHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NearCacheHandler.class);
+    private static final String INVALIDATION_CHANNEL = "timbermill_near_cache_invalidation";
+    private static final int IDS_PER_INVALIDATION = 1000;
+    private static final Type INVALIDATION_TYPE = new TypeToken<List<String>>(){}.getType();
+    private static final int MAXIMUM_RECENT_INVALIDATIONS = 1000000;
+    private static final int RECENT_INVALIDATIONS_SECONDS = 60;
+
+    private final RedisService redisService;
+    private final RedisCacheHandler redisCacheHandler;
+    private final LocalCacheHandler nearCache;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Object invalidationLock = new Object();
+    private final AtomicLong invalidations = new AtomicLong();
+    // Invalidations up to this one were forgotten, tasks read before it can't be kept
+    private final AtomicLong forgottenInvalidation = new AtomicLong();
+    private final Cache<String, Long> recentInvalidations = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_RECENT_INVALIDATIONS)
+            .expireAfterWrite(RECENT_INVALIDATIONS_SECONDS, TimeUnit.SECONDS)
+            .removalListener((RemovalListener<String, Long>) notification -> {
+                if (notification.getCause() == RemovalCause.SIZE) {
+                    forgottenInvalidation.accumulateAndGet(notification.getValue(), Math::max);
+                }
+            })
+            .build();
+    private final JedisPubSub invalidationListener = new JedisPubSub() {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            synchronized (invalidationLock) {
+                forgottenInvalidation.set(invalidations.incrementAndGet());
+                nearCache.invalidateAllTasks();
+            }
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            invalidate(message);
+        }
+    };
+    private volatile boolean closed;
+
+    NearCacheHandler(RedisService redisService, int cacheRedisTtlInSeconds, long maximumNearCacheWeight, int nearCacheTtlSeconds) {
+        this.redisService = redisService;
+        redisCacheHandler = new RedisCacheHandler(redisService, cacheRedisTtlInSeconds);
+        nearCache = new LocalCacheHandler(maximumNearCacheWeight, 0, false, nearCacheTtlSeconds);
+        Thread invalidationThread = new Thread(this::listenToInvalidations, "timbermill-near-cache-invalidation");
+        invalidationThread.setDaemon(true);
+        invalidationThread.start();
+    }
+
+    @Override
+    public Map<String, List<String>> pullFromOrphansCache(Collection<String> parentsIds) {
+        return redisCacheHandler.pullFromOrphansCache(parentsIds);
+    }
+
+    @Override
+    public void pushToOrphanCache(Map<String, List<String>> orphansMap) {
+        redisCacheHandler.pushToOrphanCache(orphansMap);
+    }
+
+    @Override
+    public Map<String, ParentInfo> getFromTasksCache(Collection<String> idsList) {
+        return getFromTasksCache(idsList, "unknown");
+    }
+
+    @Override
+    Map<String, ParentInfo> getFromTasksCache(Collection<String> idsList, String type) {
+        long invalidationsBeforeRead = invalidations.get();
+        long readStart = System.currentTimeMillis();
+        Map<String, ParentInfo> retMap = Maps.newHashMap();
+        List<String> missingIds = Lists.newArrayList();
+        nearCache.getFromTasksCache(idsList).forEach((id, parentInfo) -> {
+            if (parentInfo == null) {
+                missingIds.add(id);
+            } else {
+                retMap.put(id, parentInfo);
+            }
+        });
+        KamonConstants.NEAR_CACHE_COUNTER.withTag("type", type).withTag("result", "hit").increment(retMap.size());
+        KamonConstants.NEAR_CACHE_COUNTER.withTag("type", type).withTag("result", "miss").increment(missingIds.size());
+
+        if (!missingIds.isEmpty()) {
+            Map<String, ParentInfo> redisTasks = redisCacheHandler.getFromTasksCache(missingIds);
+            retMap.putAll(redisTasks);
+            if (System.currentTimeMillis() - readStart < TimeUnit.SECONDS.toMillis(RECENT_INVALIDATIONS_SECONDS) / 2) {
+                keepInNearCache(redisTasks, invalidationsBeforeRead);
+            }
+        }
+        return retMap;
+    }
+
+    @Override
+    public void pushToTasksCache(Map<String, ParentInfo> idsToMap) {
+        redisCacheHandler.pushToTasksCache(idsToMap);
+        nearCache.pushToTasksCache(idsToMap);
+        for (List<String> ids : Iterables.partition(idsToMap.keySet(), IDS_PER_INVALIDATION)) {
+            List<String> message = Lists.newArrayListWithCapacity(ids.size() + 1);
+            message.add(nodeId);
+            message.addAll(ids);
+            redisService.publish(INVALIDATION_CHANNEL, GSON.toJson(message));
+        }
+    }
+
+    @Override
+    public void lock() {
+        redisCacheHandler.lock();
+    }
+
+    @Override
+    public void release() {
+        redisCacheHandler.release();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (invalidationListener.isSubscribed()) {
+            invalidationListener.unsubscribe();
+        }
+        nearCache.close();
+        redisCacheHandler.close();
+    }
+
+    boolean isSubscribed() {
+        return invalidationListener.isSubscribed();
+    }
+
+    private void invalidate(String message) {
+        List<String> ids;
+        try {
+            ids = GSON.fromJson(message, INVALIDATION_TYPE);
+        } catch (Exception e) {
+            LOG.warn("Ignoring malformed near cache invalidation {}", message, e);
+            return;
+        }
+        if (ids.isEmpty() || nodeId.equals(ids.get(0))) {
+            return;
+        }
+        List<String> invalidatedIds = ids.subList(1, ids.size());
+        synchronized (invalidationLock) {
+            long invalidation = invalidations.incrementAndGet();
+            for (String id : invalidatedIds) {
+                recentInvalidations.put(id, invalidation);
+            }
+            nearCache.invalidateTasks(invalidatedIds);
+        }
+    }
+
+    private void keepInNearCache(Map<String, ParentInfo> redisTasks, long invalidationsBeforeRead) {
+        synchronized (invalidationLock) {
+            if (forgottenInvalidation.get() > invalidationsBeforeRead) {
+                return;
+            }
+            Map<String, ParentInfo> tasksToKeep = Maps.newHashMap();
+            redisTasks.forEach((id, parentInfo) -> {
+                Long invalidation = recentInvalidations.getIfPresent(id);
+                if (invalidation == null || invalidation <= invalidationsBeforeRead) {
+                    tasksToKeep.put(id, parentInfo);
+                }
+            });
+            nearCache.pushToTasksCache(tasksToKeep);
+        }
+    }
+
+    private void listenToInvalidations() {
+        while (!closed) {
+            try {
+                redisService.subscribe(invalidationListener, INVALIDATION_CHANNEL);
+            } catch (Exception e) {
+                if (!closed) {
+                    LOG.warn("Near cache invalidations subscription failed, subscribing again", e);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
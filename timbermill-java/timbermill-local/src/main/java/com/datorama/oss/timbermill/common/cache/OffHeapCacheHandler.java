@@ -0,0 +1,106 @@
+package com.datorama.oss.timbermill.common.cache;
+
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.ParentInfoCodec;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public class OffHeapCacheHandler extends AbstractCacheHandler {
+    // Has to change whenever ParentInfoCodec or the orphans encoding change, so files written by older versions are dropped
+    private static final int FORMAT_VERSION = 2;
+    private static final String TASKS_CACHE_NAME = "timbermill_tasks_cache";
+    private static final String ORPHANS_CACHE_NAME = "timbermill_orphans_cache";
+
+    private final OffHeapStore tasksCache;
+    private final OffHeapStore orphansCache;
+
+    OffHeapCacheHandler(String locationInDisk, long maximumTasksCacheWeight, long maximumOrphansCacheWeight) {
+        if (StringUtils.isEmpty(locationInDisk)) {
+            throw new RuntimeException("Off heap cache used but no location in disk defined");
+        }
+        File directory = new File(locationInDisk);
+        tasksCache = new OffHeapStore(directory, TASKS_CACHE_NAME, maximumTasksCacheWeight, FORMAT_VERSION);
+        orphansCache = new OffHeapStore(directory, ORPHANS_CACHE_NAME, maximumOrphansCacheWeight, FORMAT_VERSION);
+    }
+
+    @Override
+    public Map<String, List<String>> pullFromOrphansCache(Collection<String> parentsIds) {
+        Map<String, List<String>> orphans = Maps.newHashMap();
+        synchronized (orphansCache) {
+            for (String parentId : parentsIds) {
+                byte[] orphansBytes = orphansCache.get(parentId);
+                if (orphansBytes != null) {
+                    orphans.put(parentId, decodeOrphans(orphansBytes));
+                    orphansCache.remove(parentId);
+                }
+            }
+        }
+        return orphans;
+    }
+
+    @Override
+    public void pushToOrphanCache(Map<String, List<String>> orphansMap) {
+        synchronized (orphansCache) {
+            for (Map.Entry<String, List<String>> entry : orphansMap.entrySet()) {
+                String parentId = entry.getKey();
+                byte[] cachedOrphansBytes = orphansCache.get(parentId);
+                List<String> orphans = entry.getValue();
+                if (cachedOrphansBytes != null) {
+                    orphans = decodeOrphans(cachedOrphansBytes);
+                    orphans.addAll(entry.getValue());
+                }
+                orphansCache.put(parentId, encodeOrphans(orphans));
+            }
+        }
+    }
+
+    @Override
+    public Map<String, ParentInfo> getFromTasksCache(Collection<String> idsList) {
+        Map<String, ParentInfo> retMap = Maps.newHashMap();
+        for (String id : idsList) {
+            byte[] taskBytes = tasksCache.get(id);
+            retMap.put(id, taskBytes == null ? null : ParentInfoCodec.decode(taskBytes));
+        }
+        return retMap;
+    }
+
+    @Override
+    public void pushToTasksCache(Map<String, ParentInfo> idsToMap) {
+        for (Map.Entry<String, ParentInfo> entry : idsToMap.entrySet()) {
+            tasksCache.put(entry.getKey(), ParentInfoCodec.encode(entry.getValue()));
+        }
+    }
+
+    @Override
+    public void close() {
+        tasksCache.close();
+        orphansCache.close();
+    }
+
+    private static byte[] encodeOrphans(List<String> orphans) {
+        Output output = new Output(64, -1);
+        output.writeVarInt(orphans.size(), true);
+        for (String orphan : orphans) {
+            output.writeString(orphan);
+        }
+        return output.toBytes();
+    }
+
+    private static List<String> decodeOrphans(byte[] orphansBytes) {
+        Input input = new Input(orphansBytes);
+        int size = input.readVarInt(true);
+        List<String> orphans = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            orphans.add(input.readString());
+        }
+        return orphans;
+    }
+}
@@ -0,0 +1,229 @@
+package com.datorama.oss.timbermill.common.cache;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Byte values by string keys, kept in memory mapped files outside of the heap.
+ * Records are appended to a data file used as a ring, so the oldest records are the first to be overwritten once it is full.
+ * An index file maps a hash of each key to the offset of its latest record, in buckets of a few slots. A full bucket gives up its
+ * oldest slot, so a record can also be evicted while the data file still holds it.
+ * Offsets only grow, a record is valid as long as the ring didn't come back around to it since it was written.
+ * Both files are reopened as they are on startup, unless they were written with different sizes or format.
+ */
+class OffHeapStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapStore.class);
+
+    private static final long MAGIC = 0x54494d4245524d4cL;
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    private static final int BUCKET_SLOTS = 8;
+    private static final int SLOT_SIZE = 16;
+    private static final int AVERAGE_RECORD_SIZE = 128;
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private static final int MAGIC_POSITION = 0;
+    private static final int FORMAT_VERSION_POSITION = 8;
+    private static final int CAPACITY_POSITION = 16;
+    private static final int BUCKETS_POSITION = 24;
+    private static final int HEAD_POSITION = 32;
+    private static final int INDEX_HEADER_SIZE = 4096;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final MappedFile index;
+    private final MappedFile data;
+    private final long capacity;
+    private final long buckets;
+    private long head;
+
+    OffHeapStore(File directory, String name, long maximumWeight, int formatVersion) {
+        long segmentSize = Math.min(Math.max(maximumWeight, AVERAGE_RECORD_SIZE), MAX_SEGMENT_SIZE);
+        capacity = (Math.max(maximumWeight, AVERAGE_RECORD_SIZE) + segmentSize - 1) / segmentSize * segmentSize;
+        buckets = Math.max(1, capacity / (AVERAGE_RECORD_SIZE * BUCKET_SLOTS));
+        File indexFile = new File(directory, name + ".index");
+        File dataFile = new File(directory, name + ".data");
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Failed to create directory " + directory);
+            }
+            long indexSize = INDEX_HEADER_SIZE + buckets * BUCKET_SLOTS * SLOT_SIZE;
+            if (indexFile.exists() && !matchesHeader(indexFile, indexSize, formatVersion)) {
+                LOG.info("Off heap cache [{}] was written with a different configuration, starting it empty", name);
+                deleteFile(indexFile);
+                deleteFile(dataFile);
+            }
+            index = new MappedFile(indexFile, indexSize, MAX_SEGMENT_SIZE);
+            data = new MappedFile(dataFile, capacity, segmentSize);
+            if (index.getLong(MAGIC_POSITION) == MAGIC) {
+                head = index.getLong(HEAD_POSITION);
+                LOG.info("Off heap cache [{}] reopened with {} bytes written", name, Math.min(head, capacity));
+            } else {
+                index.putInt(FORMAT_VERSION_POSITION, formatVersion);
+                index.putLong(CAPACITY_POSITION, capacity);
+                index.putLong(BUCKETS_POSITION, buckets);
+                index.putLong(HEAD_POSITION, 0);
+                index.putLong(MAGIC_POSITION, MAGIC);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open off heap cache " + name + " in " + directory, e);
+        }
+    }
+
+    synchronized byte[] get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long slot = findSlot(hash(keyBytes));
+        if (slot < 0) {
+            return null;
+        }
+        return readValue(index.getLong(slot + 8), keyBytes);
+    }
+
+    synchronized void put(String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordSize = RECORD_HEADER_SIZE + keyBytes.length + value.length;
+        if (recordSize > data.getSegmentSize()) {
+            LOG.debug("Value of {} is too large for the off heap cache", key);
+            remove(key);
+            return;
+        }
+        long remainingInSegment = data.getSegmentSize() - head % data.getSegmentSize();
+        if (recordSize > remainingInSegment) {
+            head += remainingInSegment;
+        }
+        long offset = head;
+        data.put(offset % capacity, record(keyBytes, value));
+        head += recordSize;
+        index.putLong(HEAD_POSITION, head);
+
+        long hash = hash(keyBytes);
+        long slot = findSlotToWrite(hash);
+        index.putLong(slot + 8, offset);
+        index.putLong(slot, hash);
+    }
+
+    synchronized void remove(String key) {
+        long slot = findSlot(hash(key.getBytes(StandardCharsets.UTF_8)));
+        if (slot >= 0) {
+            index.putLong(slot, 0);
+        }
+    }
+
+    synchronized void close() {
+        try {
+            index.close();
+            data.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close off heap cache", e);
+        }
+    }
+
+    private long findSlot(long hash) {
+        long bucket = bucketPosition(hash);
+        for (int i = 0; i < BUCKET_SLOTS; i++) {
+            long slot = bucket + (long) i * SLOT_SIZE;
+            if (index.getLong(slot) == hash && isValid(index.getLong(slot + 8))) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private long findSlotToWrite(long hash) {
+        long bucket = bucketPosition(hash);
+        long oldestSlot = bucket;
+        long oldestOffset = Long.MAX_VALUE;
+        long freeSlot = -1;
+        for (int i = 0; i < BUCKET_SLOTS; i++) {
+            long slot = bucket + (long) i * SLOT_SIZE;
+            long slotHash = index.getLong(slot);
+            long offset = index.getLong(slot + 8);
+            if (slotHash == hash) {
+                return slot;
+            }
+            if (freeSlot < 0 && (slotHash == 0 || !isValid(offset))) {
+                freeSlot = slot;
+            }
+            if (offset < oldestOffset) {
+                oldestOffset = offset;
+                oldestSlot = slot;
+            }
+        }
+        return freeSlot >= 0 ? freeSlot : oldestSlot;
+    }
+
+    private long bucketPosition(long hash) {
+        return INDEX_HEADER_SIZE + Math.floorMod(hash, buckets) * BUCKET_SLOTS * SLOT_SIZE;
+    }
+
+    private boolean isValid(long offset) {
+        return offset < head && offset >= head - capacity;
+    }
+
+    private byte[] readValue(long offset, byte[] keyBytes) {
+        long position = offset % capacity;
+        int keyLength = data.getInt(position);
+        int valueLength = data.getInt(position + 4);
+        if (keyLength != keyBytes.length || valueLength < 0
+                || RECORD_HEADER_SIZE + keyLength + (long) valueLength > data.getSegmentSize() - position % data.getSegmentSize()) {
+            return null;
+        }
+        byte[] content = new byte[keyLength + valueLength];
+        data.get(position + RECORD_HEADER_SIZE, content);
+        if (data.getInt(position + 8) != checksum(content) || !Arrays.equals(keyBytes, Arrays.copyOf(content, keyLength))) {
+            return null;
+        }
+        return Arrays.copyOfRange(content, keyLength, content.length);
+    }
+
+    private static byte[] record(byte[] keyBytes, byte[] value) {
+        ByteBuffer content = ByteBuffer.allocate(keyBytes.length + value.length).put(keyBytes).put(value);
+        return ByteBuffer.allocate(RECORD_HEADER_SIZE + content.capacity())
+                .putInt(keyBytes.length)
+                .putInt(value.length)
+                .putInt(checksum(content.array()))
+                .put(content.array())
+                .array();
+    }
+
+    private static int checksum(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+
+    private static long hash(byte[] keyBytes) {
+        long hash = HASH_FUNCTION.hashBytes(keyBytes).asLong();
+        // 0 marks an empty slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    private boolean matchesHeader(File indexFile, long indexSize, int formatVersion) throws IOException {
+        if (indexFile.length() != indexSize) {
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            byte[] header = new byte[HEAD_POSITION];
+            file.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            return buffer.getLong(MAGIC_POSITION) == MAGIC && buffer.getInt(FORMAT_VERSION_POSITION) == formatVersion
+                    && buffer.getLong(CAPACITY_POSITION) == capacity && buffer.getLong(BUCKETS_POSITION) == buckets;
+        }
+    }
+
+    private static void deleteFile(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+}
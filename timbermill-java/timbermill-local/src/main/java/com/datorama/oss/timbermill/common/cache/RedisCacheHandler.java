@@ -1,22 +1,58 @@
 package com.datorama.oss.timbermill.common.cache;
 
 import com.datorama.oss.timbermill.common.redis.RedisService;
-import com.datorama.oss.timbermill.unit.LocalTask;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.ParentInfoCodec;
 import com.github.jedis.lock.JedisLock;
 import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 public class RedisCacheHandler extends AbstractCacheHandler {
 
     private static final String LOCK_NAME = "cache_lock";
-    private static final String ORPHAN_PREFIX = "orphan###";
+    // Tasks are kept as ParentInfoCodec blobs, apart from the Kryo serialized tasks older versions kept under their bare ids.
+    // Has to change whenever ParentInfoCodec changes, since servers of different versions share the cache
+    private static final String PARENT_INFO_PREFIX = "parent_info_1###";
+    // Orphans are kept in Redis sets, apart from the Kryo serialized lists older versions kept under LEGACY_ORPHAN_PREFIX
+    private static final String ORPHAN_PREFIX = "orphans_set###";
+    // Still pulled, so orphans cached by older versions are adopted. Can be dropped once those have expired
+    private static final String LEGACY_ORPHAN_PREFIX = "orphan###";
+    private static final int ORPHANS_SCRIPT_KEYS = 100;
+    private static final int ORPHANS_PER_COMMAND = 1000;
+    // ARGV holds the ttl followed by the number of orphans of every key and its orphans, the number of orphans added to every key is returned
+    private static final String PUSH_ORPHANS_SCRIPT =
+            "local arg = 2\n" +
+            "local added = {}\n" +
+            "for i, key in ipairs(KEYS) do\n" +
+            "  local last = arg + tonumber(ARGV[arg])\n" +
+            "  local first = arg + 1\n" +
+            "  while first <= last do\n" +
+            "    local chunkLast = math.min(first + " + (ORPHANS_PER_COMMAND - 1) + ", last)\n" +
+            "    redis.call('sadd', key, unpack(ARGV, first, chunkLast))\n" +
+            "    first = chunkLast + 1\n" +
+            "  end\n" +
+            "  redis.call('expire', key, ARGV[1])\n" +
+            "  added[i] = last - arg\n" +
+            "  arg = last + 1\n" +
+            "end\n" +
+            "return added";
+    private static final String POP_ORPHANS_SCRIPT =
+            "local orphans = {}\n" +
+            "for i, key in ipairs(KEYS) do\n" +
+            "  orphans[i] = redis.call('smembers', key)\n" +
+            "  if #orphans[i] > 0 then\n" +
+            "    redis.call('del', key)\n" +
+            "  end\n" +
+            "end\n" +
+            "return orphans";
     private static final Logger LOG = LoggerFactory.getLogger(RedisCacheHandler.class);
 
     private JedisLock lock;
@@ -33,43 +69,77 @@ public class RedisCacheHandler extends AbstractCacheHandler {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public Map<String, List<String>> pullFromOrphansCache(Collection<String> parentsIds) {
-        Set<String> orphanParentsIds = parentsIds.stream().map(s -> ORPHAN_PREFIX + s).collect(Collectors.toSet());
-        Map<String, List<String>> orphans = redisService.getFromRedis(orphanParentsIds);
+        Map<String, List<String>> retMap = Maps.newHashMap();
+        Map<String, List<String>> keysArgs = Maps.newHashMap();
+        for (String parentId : parentsIds) {
+            keysArgs.put(ORPHAN_PREFIX + parentId, Collections.emptyList());
+        }
+        try {
+            redisService.evalScript(POP_ORPHANS_SCRIPT, keysArgs, Collections.emptyList(), ORPHANS_SCRIPT_KEYS).forEach((key, orphans) -> {
+                if (!((List<String>) orphans).isEmpty()) {
+                    retMap.put(key.substring(ORPHAN_PREFIX.length()), (List<String>) orphans);
+                }
+            });
+        } catch (Exception e) {
+            LOG.error("Failed to pull orphans of parents {} from Redis orphans cache.", parentsIds, e);
+        }
+        pullFromLegacyOrphansCache(parentsIds).forEach((parentId, orphans) -> retMap.merge(parentId, orphans, RedisCacheHandler::concat));
+        return retMap;
+    }
 
+    // Older versions only changed their orphan lists under the cache lock, which is held here as well
+    private Map<String, List<String>> pullFromLegacyOrphansCache(Collection<String> parentsIds) {
         Map<String, List<String>> retMap = Maps.newHashMap();
-        for (Map.Entry<String, List<String>> entry : orphans.entrySet()) {
-            String newKey = entry.getKey().substring(ORPHAN_PREFIX.length());
-            retMap.put(newKey, entry.getValue());
+        Map<String, List<String>> orphans = redisService.getFromRedis(parentsIds.stream().map(parentId -> LEGACY_ORPHAN_PREFIX + parentId).collect(Collectors.toList()));
+        if (!orphans.isEmpty()) {
+            redisService.deleteFromRedis(orphans.keySet());
+            orphans.forEach((key, parentOrphans) -> retMap.put(key.substring(LEGACY_ORPHAN_PREFIX.length()), parentOrphans));
         }
         return retMap;
     }
 
+    private static List<String> concat(List<String> orphans, List<String> legacyOrphans) {
+        List<String> allOrphans = new ArrayList<>(orphans.size() + legacyOrphans.size());
+        allOrphans.addAll(orphans);
+        allOrphans.addAll(legacyOrphans);
+        return allOrphans;
+    }
+
     @Override
     public void pushToOrphanCache(Map<String, List<String>> orphansMap) {
-        Map<String, List<String>> newOrphansMap = Maps.newHashMap();
-        for (Map.Entry<String, List<String>> entry : orphansMap.entrySet()) {
-            String orphanCacheKey = ORPHAN_PREFIX + entry.getKey();
-            newOrphansMap.put(orphanCacheKey, entry.getValue());
-        }
-        if (!redisService.pushToRedis(newOrphansMap, redisTtlInSeconds)){
-            LOG.error("Failed to push some ids to Redis orphans cache.");
+        Map<String, List<String>> keysArgs = Maps.newHashMap();
+        orphansMap.forEach((parentId, orphans) -> keysArgs.put(ORPHAN_PREFIX + parentId, orphans));
+        try {
+            redisService.evalScript(PUSH_ORPHANS_SCRIPT, keysArgs, Collections.singletonList(String.valueOf(redisTtlInSeconds)), ORPHANS_SCRIPT_KEYS);
+        } catch (Exception e) {
+            LOG.error("Failed to push some ids to Redis orphans cache.", e);
         }
     }
 
     @Override
-    public Map<String, LocalTask> getFromTasksCache(Collection<String> idsList) {
-        return redisService.getFromRedis(idsList);
+    public Map<String, ParentInfo> getFromTasksCache(Collection<String> idsList) {
+        Map<String, ParentInfo> retMap = Maps.newHashMap();
+        Map<String, byte[]> blobs = redisService.getFromRedis(idsList.stream().map(RedisCacheHandler::taskKey).collect(Collectors.toList()));
+        blobs.forEach((key, blob) -> retMap.put(key.substring(PARENT_INFO_PREFIX.length()), ParentInfoCodec.decode(blob)));
+        return retMap;
     }
 
     @Override
-    public void pushToTasksCache(Map<String, LocalTask> idsToMap) {
-        boolean allPushed = redisService.pushToRedis(idsToMap, redisTtlInSeconds);
+    public void pushToTasksCache(Map<String, ParentInfo> idsToMap) {
+        Map<String, byte[]> blobs = Maps.newHashMapWithExpectedSize(idsToMap.size());
+        idsToMap.forEach((id, parentInfo) -> blobs.put(taskKey(id), ParentInfoCodec.encode(parentInfo)));
+        boolean allPushed = redisService.pushToRedis(blobs, redisTtlInSeconds);
         if (!allPushed){
             LOG.error("Failed to push some ids to Redis tasks cache.");
         }
     }
 
+    static String taskKey(String id) {
+        return PARENT_INFO_PREFIX + id;
+    }
+
     @Override
     public void lock() {
         lock = redisService.lock(LOCK_NAME);
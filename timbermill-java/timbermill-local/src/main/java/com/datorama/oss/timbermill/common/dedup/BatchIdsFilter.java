@@ -0,0 +1,81 @@
+package com.datorama.oss.timbermill.common.dedup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.datorama.oss.timbermill.common.KamonConstants;
+import com.google.common.hash.Hashing;
+
+/**
+ * Time windowed Bloom filter over batch ids, used to drop batches that clients resent after a timeout.
+ * Time is split into generations of one window each, an id is looked up in the current and previous generations and added to the current one,
+ * so an id is remembered for at least one window and at most two. Memory is two bit arrays sized for the expected batches per window.
+ */
+public abstract class BatchIdsFilter {
+
+    private static final long FALSE_POSITIVE_RATE_SAMPLE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final long windowMillis;
+    protected final long numOfBits;
+    private final int numOfHashFunctions;
+    private volatile long nextFalsePositiveRateSample;
+
+    BatchIdsFilter(long windowMillis, long expectedBatchesPerWindow, double falsePositiveRate) {
+        this.windowMillis = windowMillis;
+        numOfBits = Math.max(64, (long) (-expectedBatchesPerWindow * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        numOfHashFunctions = Math.max(1, (int) Math.round((double) numOfBits / expectedBatchesPerWindow * Math.log(2)));
+    }
+
+    /**
+     * Records the batch id and checks whether it was already seen in the current window.
+     * A new batch is reported as a duplicate with roughly the configured false positive rate, a seen batch is always reported.
+     */
+    public boolean isDuplicate(String batchId) {
+        long now = System.currentTimeMillis();
+        long generation = now / windowMillis;
+        long[] bitIndexes = getBitIndexes(batchId);
+        boolean duplicate = setBits(generation, bitIndexes) || allBitsSet(generation - 1, bitIndexes);
+
+        KamonConstants.BATCHES_CHECKED_COUNTER.withoutTags().increment();
+        if (duplicate) {
+            KamonConstants.DUPLICATE_BATCHES_COUNTER.withoutTags().increment();
+        }
+        if (now >= nextFalsePositiveRateSample) {
+            nextFalsePositiveRateSample = now + FALSE_POSITIVE_RATE_SAMPLE_INTERVAL;
+            KamonConstants.BATCHES_FILTER_FALSE_POSITIVE_RATE_GAUGE.withoutTags().update(getExpectedFalsePositiveRate(generation));
+        }
+        return duplicate;
+    }
+
+    // Probability that all the bits of a new id are already set, given how full the current generation is
+    double getExpectedFalsePositiveRate(long generation) {
+        double fillRatio = (double) countSetBits(generation) / numOfBits;
+        return Math.pow(fillRatio, numOfHashFunctions);
+    }
+
+    long getCurrentGeneration() {
+        return System.currentTimeMillis() / windowMillis;
+    }
+
+    /**
+     * Sets the bits in the given generation.
+     * @return true if all of them were already set
+     */
+    abstract boolean setBits(long generation, long[] bitIndexes);
+
+    abstract boolean allBitsSet(long generation, long[] bitIndexes);
+
+    abstract long countSetBits(long generation);
+
+    private long[] getBitIndexes(String batchId) {
+        long hash = Hashing.murmur3_128().hashString(batchId, StandardCharsets.UTF_8).asLong();
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        long[] bitIndexes = new long[numOfHashFunctions];
+        for (int i = 0; i < numOfHashFunctions; i++) {
+            long combinedHash = hash1 + (long) (i + 1) * hash2;
+            bitIndexes[i] = Math.floorMod(combinedHash, numOfBits);
+        }
+        return bitIndexes;
+    }
+}
@@ -0,0 +1,20 @@
+package com.datorama.oss.timbermill.common.dedup;
+
+import java.util.concurrent.TimeUnit;
+
+import com.datorama.oss.timbermill.common.redis.RedisService;
+
+public class BatchIdsFilterUtil {
+    public static BatchIdsFilter getBatchIdsFilter(String strategy, RedisService redisService, int windowMinutes, long expectedBatchesPerWindow, double falsePositiveRate) {
+        long windowMillis = TimeUnit.MINUTES.toMillis(windowMinutes);
+        if (strategy.compareToIgnoreCase("redis") == 0){
+            if (redisService == null) {
+                throw new RuntimeException("Redis batch ids filter requires REDIS_HOST to be configured");
+            }
+            return new RedisBatchIdsFilter(redisService, windowMillis, expectedBatchesPerWindow, falsePositiveRate);
+        }
+        else {
+            return new LocalBatchIdsFilter(windowMillis, expectedBatchesPerWindow, falsePositiveRate);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.datorama.oss.timbermill.common.dedup;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LocalBatchIdsFilter extends BatchIdsFilter {
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    LocalBatchIdsFilter(long windowMillis, long expectedBatchesPerWindow, double falsePositiveRate) {
+        super(windowMillis, expectedBatchesPerWindow, falsePositiveRate);
+        current = new Generation(getCurrentGeneration(), numOfBits);
+        previous = new Generation(current.number - 1, numOfBits);
+    }
+
+    @Override
+    boolean setBits(long generation, long[] bitIndexes) {
+        AtomicLongArray bits = getBits(generation);
+        if (bits == null) {
+            return false;
+        }
+        boolean allSet = true;
+        for (long bitIndex : bitIndexes) {
+            int wordIndex = (int) (bitIndex >>> 6);
+            long mask = 1L << bitIndex;
+            long word;
+            do {
+                word = bits.get(wordIndex);
+                if ((word & mask) != 0) {
+                    break;
+                }
+                allSet = false;
+            } while (!bits.compareAndSet(wordIndex, word, word | mask));
+        }
+        return allSet;
+    }
+
+    @Override
+    boolean allBitsSet(long generation, long[] bitIndexes) {
+        AtomicLongArray bits = getBits(generation);
+        if (bits == null) {
+            return false;
+        }
+        for (long bitIndex : bitIndexes) {
+            if ((bits.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    long countSetBits(long generation) {
+        AtomicLongArray bits = getBits(generation);
+        if (bits == null) {
+            return 0;
+        }
+        long count = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            count += Long.bitCount(bits.get(i));
+        }
+        return count;
+    }
+
+    // null for generations that are not kept anymore
+    private AtomicLongArray getBits(long generation) {
+        if (generation > current.number) {
+            rotate(generation);
+        }
+        Generation currentGeneration = current;
+        if (generation == currentGeneration.number) {
+            return currentGeneration.bits;
+        }
+        Generation previousGeneration = previous;
+        if (generation == previousGeneration.number) {
+            return previousGeneration.bits;
+        }
+        return null;
+    }
+
+    private synchronized void rotate(long generation) {
+        if (generation <= current.number) {
+            return;
+        }
+        previous = generation == current.number + 1 ? current : new Generation(generation - 1, numOfBits);
+        current = new Generation(generation, numOfBits);
+    }
+
+    private static class Generation {
+        private final long number;
+        private final AtomicLongArray bits;
+
+        private Generation(long number, long numOfBits) {
+            this.number = number;
+            this.bits = new AtomicLongArray((int) ((numOfBits + 63) >>> 6));
+        }
+    }
+}
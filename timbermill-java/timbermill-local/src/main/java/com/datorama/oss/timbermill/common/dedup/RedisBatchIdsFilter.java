@@ -0,0 +1,55 @@
+package com.datorama.oss.timbermill.common.dedup;
+
+import com.datorama.oss.timbermill.common.redis.RedisService;
+
+/**
+ * Keeps every generation as a Redis bitmap, so all the servers share the same filter.
+ * Generations are derived from the clock, servers need no coordination other than reasonably synced clocks.
+ * When Redis fails batches are treated as new, indexing a duplicate is better than dropping a batch.
+ */
+public class RedisBatchIdsFilter extends BatchIdsFilter {
+
+    private static final String KEY_PREFIX = "timbermill_batch_ids_filter_";
+
+    private final RedisService redisService;
+    private final long windowMillis;
+    private final int ttlSeconds;
+
+    RedisBatchIdsFilter(RedisService redisService, long windowMillis, long expectedBatchesPerWindow, double falsePositiveRate) {
+        super(windowMillis, expectedBatchesPerWindow, falsePositiveRate);
+        this.redisService = redisService;
+        this.windowMillis = windowMillis;
+        // A generation is still read during the window after it
+        this.ttlSeconds = (int) Math.max(1, windowMillis * 2 / 1000);
+    }
+
+    @Override
+    boolean setBits(long generation, long[] bitIndexes) {
+        boolean[] previousBits = redisService.setBits(getKey(generation), bitIndexes, ttlSeconds);
+        return previousBits != null && allTrue(previousBits);
+    }
+
+    @Override
+    boolean allBitsSet(long generation, long[] bitIndexes) {
+        boolean[] bits = redisService.getBits(getKey(generation), bitIndexes);
+        return bits != null && allTrue(bits);
+    }
+
+    @Override
+    long countSetBits(long generation) {
+        return Math.max(0, redisService.countBits(getKey(generation)));
+    }
+
+    private static boolean allTrue(boolean[] bits) {
+        for (boolean bit : bits) {
+            if (!bit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getKey(long generation) {
+        return KEY_PREFIX + windowMillis + "_" + generation;
+    }
+}
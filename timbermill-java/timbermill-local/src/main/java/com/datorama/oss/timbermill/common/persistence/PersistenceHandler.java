@@ -10,12 +10,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public abstract class PersistenceHandler {
 
 	static final String MAX_FETCHED_BULKS_IN_ONE_TIME = "MAX_FETCHED_BULKS_IN_ONE_TIME";
 	static final String MAX_FETCHED_EVENTS_IN_ONE_TIME = "MAX_FETCHED_EVENTS_IN_ONE_TIME";
 	static final String MAX_INSERT_TRIES = "MAX_INSERT_TRIES";
+	private static final int MAX_EVENTS_TO_SPILL = 100000;
 
 	protected int maxFetchedBulksInOneTime;
 	protected int maxFetchedEventsListsInOneTime;
@@ -66,10 +68,22 @@ public abstract class PersistenceHandler {
 		return persistenceHandlerParams;
 	}
 
+	// Waits up to maxWaitMillis for an event to overflow instead of polling the queue on a fixed interval
+	public void spillOverflownEvents(BlockingQueue<Event> overflowedQueue, long maxWaitMillis) throws InterruptedException {
+		Event event = overflowedQueue.poll(maxWaitMillis, TimeUnit.MILLISECONDS);
+		if (event != null) {
+			ArrayList<Event> events = Lists.newArrayList(event);
+			overflowedQueue.drainTo(events, MAX_EVENTS_TO_SPILL - 1);
+			KamonConstants.MESSAGES_IN_OVERFLOWED_QUEUE_RANGE_SAMPLER.withoutTags().decrement(events.size());
+			persistEvents(events);
+			spillOverflownEvents(overflowedQueue);
+		}
+	}
+
 	public void spillOverflownEvents(BlockingQueue<Event> overflowedQueue) {
 		while (!overflowedQueue.isEmpty()) {
 			ArrayList<Event> events = Lists.newArrayList();
-			overflowedQueue.drainTo(events, 100000);
+			overflowedQueue.drainTo(events, MAX_EVENTS_TO_SPILL);
 			KamonConstants.MESSAGES_IN_OVERFLOWED_QUEUE_RANGE_SAMPLER.withoutTags().decrement(events.size());
 			persistEvents(events);
 		}
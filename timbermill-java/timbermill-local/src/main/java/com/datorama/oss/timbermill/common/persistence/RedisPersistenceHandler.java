@@ -14,8 +14,9 @@ public class RedisPersistenceHandler extends PersistenceHandler {
     private static final Logger LOG = LoggerFactory.getLogger(RedisPersistenceHandler.class);
     private static final String FAILED_BULKS_QUEUE_NAME = "failed_bulks_queue";
     private static final String OVERFLOWED_EVENTS_QUEUE_NAME = "overflowed_events_queue";
-    private static final String FAILED_BULK_PREFIX = "failed_bulk#";
-    private static final String OVERFLOW_EVENTS_PREFIX = "overflow_events#";
+    // Hash tagged with their queue, so a Redis cluster keeps the queued keys on the queue's node and fetches every batch of them at once
+    private static final String FAILED_BULK_PREFIX = "{" + FAILED_BULKS_QUEUE_NAME + "}failed_bulk#";
+    private static final String OVERFLOW_EVENTS_PREFIX = "{" + OVERFLOWED_EVENTS_QUEUE_NAME + "}overflow_events#";
     private static final String FAILED_BULKS_LOCK = "failed_bulks_lock";
     private static final String OVERFLOWED_EVENTS_LOCK = "overflowed_events_lock";
 
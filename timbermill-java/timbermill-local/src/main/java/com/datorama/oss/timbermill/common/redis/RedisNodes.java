@@ -0,0 +1,156 @@
+package com.datorama.oss.timbermill.common.redis;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The Redis nodes that serve every key. A single Redis serves all of them. A cluster is asked which master serves every slot, and is
+ * asked again whenever a key turns out to have moved.
+ */
+class RedisNodes {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisNodes.class);
+    private static final int SLOTS = 16384;
+
+    private final boolean cluster;
+    private final Set<HostAndPort> seeds;
+    private final Function<HostAndPort, JedisPool> poolFactory;
+    private final Function<Jedis, List<Object>> slotsFetcher;
+    private final Map<HostAndPort, JedisPool> pools = new ConcurrentHashMap<>();
+    private volatile JedisPool[] slotsPools;
+
+    RedisNodes(JedisPool pool) {
+        cluster = false;
+        seeds = Collections.emptySet();
+        poolFactory = null;
+        slotsFetcher = null;
+        slotsPools = new JedisPool[]{pool};
+    }
+
+    RedisNodes(Set<HostAndPort> seeds, Function<HostAndPort, JedisPool> poolFactory, Function<Jedis, List<Object>> slotsFetcher) {
+        cluster = true;
+        this.seeds = seeds;
+        this.poolFactory = poolFactory;
+        this.slotsFetcher = slotsFetcher;
+        refreshSlots();
+    }
+
+    static Set<HostAndPort> parseNodes(String nodes) {
+        Set<HostAndPort> hostsAndPorts = new LinkedHashSet<>();
+        for (String node : nodes.split(",")) {
+            if (!node.trim().isEmpty()) {
+                hostsAndPorts.add(HostAndPort.from(node.trim()));
+            }
+        }
+        return hostsAndPorts;
+    }
+
+    boolean isCluster() {
+        return cluster;
+    }
+
+    JedisPool poolOfKey(String key) {
+        return poolOfSlot(slot(key));
+    }
+
+    /**
+     * Groups the keys by the node that serves them, and the keys of every node by their slot in groups of up to maxGroupSize keys.
+     * Keys of a single Redis all share the same slot.
+     */
+    Map<JedisPool, List<List<String>>> groupBySlot(Collection<String> keys, int maxGroupSize) {
+        Map<Integer, List<String>> slotsKeys = Maps.newHashMap();
+        for (String key : keys) {
+            slotsKeys.computeIfAbsent(slot(key), slot -> new ArrayList<>()).add(key);
+        }
+        Map<JedisPool, List<List<String>>> nodesGroups = Maps.newHashMap();
+        for (Map.Entry<Integer, List<String>> entry : slotsKeys.entrySet()) {
+            List<List<String>> nodeGroups = nodesGroups.computeIfAbsent(poolOfSlot(entry.getKey()), pool -> new ArrayList<>());
+            Iterables.addAll(nodeGroups, Iterables.partition(entry.getValue(), maxGroupSize));
+        }
+        return nodesGroups;
+    }
+
+    JedisPool poolOfNode(HostAndPort node) {
+        return pool(node);
+    }
+
+    Collection<JedisPool> masters() {
+        return new LinkedHashSet<>(Arrays.asList(slotsPools));
+    }
+
+    synchronized void refreshSlots() {
+        if (!cluster) {
+            return;
+        }
+        Set<HostAndPort> nodes = new LinkedHashSet<>(seeds);
+        nodes.addAll(pools.keySet());
+        for (HostAndPort node : nodes) {
+            try (Jedis jedis = pool(node).getResource()) {
+                slotsPools = readSlots(slotsFetcher.apply(jedis), node.getHost());
+                LOG.info("Got the slots of the Redis cluster from {}", node);
+                return;
+            } catch (Exception e) {
+                LOG.warn("Failed getting the slots of the Redis cluster from {}", node, e);
+            }
+        }
+        throw new JedisConnectionException("Failed getting the slots of the Redis cluster from any of " + nodes);
+    }
+
+    boolean isClosed() {
+        return masters().stream().allMatch(pool -> pool == null || pool.isClosed());
+    }
+
+    void close() {
+        if (cluster) {
+            pools.values().forEach(JedisPool::close);
+        } else {
+            slotsPools[0].close();
+        }
+    }
+
+    private int slot(String key) {
+        return cluster ? JedisClusterCRC16.getSlot(key) : 0;
+    }
+
+    private JedisPool poolOfSlot(int slot) {
+        JedisPool pool = slotsPools[slot];
+        if (pool == null) {
+            throw new JedisConnectionException("No Redis node serves slot " + slot);
+        }
+        return pool;
+    }
+
+    private JedisPool pool(HostAndPort node) {
+        return pools.computeIfAbsent(node, poolFactory);
+    }
+
+    // Every range is its first slot, its last slot and its master's host and port, followed by its replicas
+    @SuppressWarnings("unchecked")
+    private JedisPool[] readSlots(List<Object> slotsRanges, String askedHost) {
+        JedisPool[] newSlotsPools = new JedisPool[SLOTS];
+        for (Object slotsRange : slotsRanges) {
+            List<Object> range = (List<Object>) slotsRange;
+            List<Object> master = (List<Object>) range.get(2);
+            String host = SafeEncoder.encode((byte[]) master.get(0));
+            // An empty host is the host that was asked
+            HostAndPort masterNode = new HostAndPort(host.isEmpty() ? askedHost : host, ((Long) master.get(1)).intValue());
+            JedisPool pool = pool(masterNode);
+            for (int slot = ((Long) range.get(0)).intValue(); slot <= ((Long) range.get(1)).intValue(); slot++) {
+                newSlotsPools[slot] = pool;
+            }
+        }
+        return newSlotsPools;
+    }
+}
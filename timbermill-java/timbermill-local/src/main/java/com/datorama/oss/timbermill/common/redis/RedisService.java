@@ -11,24 +11,28 @@ import com.evanlennick.retry4j.config.RetryConfig;
 import com.evanlennick.retry4j.config.RetryConfigBuilder;
 import com.evanlennick.retry4j.exception.RetriesExhaustedException;
 import com.github.jedis.lock.JedisLock;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
 
 import java.io.ByteArrayOutputStream;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class RedisService {
 
     private static final Logger LOG = LoggerFactory.getLogger(RedisService.class);
     public static final int REDIS_SERIALIZATIONPART_SIZE = 100;
 
-    private final JedisPool jedisPool;
+    private final RedisNodes nodes;
     private final Pool<Kryo> kryoPool;
     private final RetryConfig retryConfig;
     private int redisGetSize;
@@ -36,28 +40,32 @@ public class RedisService {
 
     public RedisService(String redisHost, int redisPort, String redisPass, String redisMaxMemory, String redisMaxMemoryPolicy,
                         Boolean redisUseSsl, int redisGetSize, int redisPoolMinIdle, int redisPoolMaxIdle, int redisPoolMaxTotal, int redisMaxTries) {
-        this.redisGetSize = redisGetSize;
-        this.redisMaxTries = redisMaxTries;
-        int timeoutInMilliseconds = 180000;
+        this(redisHost, redisPort, null, redisPass, redisMaxMemory, redisMaxMemoryPolicy, redisUseSsl, redisGetSize, redisPoolMinIdle, redisPoolMaxIdle,
+                redisPoolMaxTotal, redisMaxTries);
+    }
 
-        JedisPoolConfig poolConfig = new JedisPoolConfig();
-        poolConfig.setMaxTotal(redisPoolMaxTotal);
-        poolConfig.setMinIdle(redisPoolMinIdle);
-        poolConfig.setMaxIdle(redisPoolMaxIdle);
-        poolConfig.setTestOnBorrow(true);
+    /**
+     * @param redisClusterNodes comma separated host:port of some of the nodes of a Redis cluster, used instead of the host and port when not empty
+     */
+    public RedisService(String redisHost, int redisPort, String redisClusterNodes, String redisPass, String redisMaxMemory, String redisMaxMemoryPolicy,
+                        Boolean redisUseSsl, int redisGetSize, int redisPoolMinIdle, int redisPoolMaxIdle, int redisPoolMaxTotal, int redisMaxTries) {
+        this(createNodes(redisHost, redisPort, redisClusterNodes, redisPass, redisUseSsl, redisPoolMinIdle, redisPoolMaxIdle, redisPoolMaxTotal),
+                redisMaxMemory, redisMaxMemoryPolicy, redisGetSize, redisMaxTries);
+    }
 
-        if (StringUtils.isEmpty(redisPass)) {
-            jedisPool = new JedisPool(poolConfig, redisHost, redisPort, timeoutInMilliseconds, redisUseSsl);
-        } else {
-            jedisPool = new JedisPool(poolConfig, redisHost, redisPort, timeoutInMilliseconds, redisPass, redisUseSsl);
-        }
+    RedisService(RedisNodes nodes, String redisMaxMemory, String redisMaxMemoryPolicy, int redisGetSize, int redisMaxTries) {
+        this.nodes = nodes;
+        this.redisGetSize = redisGetSize;
+        this.redisMaxTries = redisMaxTries;
 
-        try (Jedis jedis = jedisPool.getResource()) {
-            if (!StringUtils.isEmpty(redisMaxMemory)) {
-                jedis.configSet("maxmemory", redisMaxMemory);
-            }
-            if (!StringUtils.isEmpty(redisMaxMemoryPolicy)) {
-                jedis.configSet("maxmemory-policy", "allkeys-lru");
+        for (JedisPool pool : nodes.masters()) {
+            try (Jedis jedis = pool.getResource()) {
+                if (!StringUtils.isEmpty(redisMaxMemory)) {
+                    jedis.configSet("maxmemory", redisMaxMemory);
+                }
+                if (!StringUtils.isEmpty(redisMaxMemoryPolicy)) {
+                    jedis.configSet("maxmemory-policy", "allkeys-lru");
+                }
             }
         }
 
@@ -65,7 +73,8 @@ public class RedisService {
             protected Kryo create() {
                 Kryo kryo = new Kryo();
                 kryo.setDefaultSerializer(CompatibleFieldSerializer.class);
-                kryo.register(com.datorama.oss.timbermill.unit.LocalTask.class);
+                // Tasks are cached as ParentInfoCodec blobs, this keeps the classes after it at the ids older versions persisted them with
+                kryo.register(com.datorama.oss.timbermill.unit.ParentInfo.class);
                 kryo.register(java.util.HashMap.class);
                 kryo.register(java.util.LinkedHashMap.class);
                 kryo.register(java.util.ArrayList.class);
@@ -90,50 +99,42 @@ public class RedisService {
                 .withExponentialBackoff()
                 .build();
 
-        LOG.info("Connected to Redis");
+        LOG.info(nodes.isCluster() ? "Connected to Redis cluster" : "Connected to Redis");
     }
 
     // region HASH
 
     public <T> Map<String, T> getFromRedis(Collection<String> keys, boolean warnMissingKeys) {
         Map<String, T> retMap = Maps.newHashMap();
-        for (List<String> keysPartition : Iterables.partition(keys, redisGetSize)) {
-            byte[][] keysPartitionArray = new byte[keysPartition.size()][];
-            for (int i = 0; i < keysPartition.size(); i++) {
-                keysPartitionArray[i] = keysPartition.get(i).getBytes();
-            }
-            try (Jedis jedis = jedisPool.getResource()) {
-                List<byte[]> serializedObjects = runWithRetries(() -> jedis.mget(keysPartitionArray), "MGET Keys");
-
-                if  (serializedObjects == null) {
-                    // skip in case failed to getting keys from redis
+        List<Map.Entry<List<String>, List<byte[]>>> keysPartitions;
+        try {
+            keysPartitions = runOnSlots(keys, redisGetSize, (pipeline, keysPartition) -> pipeline.mget(toBytes(keysPartition)), "MGET Keys");
+        } catch (Exception e) {
+            LOG.error("Error getting keys from Redis. Keys: " + keys, e);
+            return retMap;
+        }
+        for (Map.Entry<List<String>, List<byte[]>> keysPartition : keysPartitions) {
+            List<String> partitionKeys = keysPartition.getKey();
+            List<byte[]> serializedObjects = keysPartition.getValue();
+            for (int i = 0; i < partitionKeys.size(); i++) {
+                byte[] serializedObject = serializedObjects.get(i);
+
+                if (serializedObject == null || serializedObject.length == 0) {
+                    if (warnMissingKeys) {
+                        LOG.warn("Key {} doesn't exist (could have been expired).", partitionKeys.get(i));
+                    }
                     continue;
                 }
 
-                for (int i = 0; i < keysPartitionArray.length; i++) {
-                    byte[] serializedObject = serializedObjects.get(i);
-
-                    if (serializedObject == null || serializedObject.length == 0) {
-                        if (warnMissingKeys) {
-                            LOG.warn("Key {} doesn't exist (could have been expired).", keysPartition.get(i));
-                        }
-                        continue;
-                    }
-
-                    Kryo kryo = kryoPool.obtain();
-                    try {
-                        T object = (T) kryo.readClassAndObject(new Input(serializedObject));
-                        String id = new String(keysPartitionArray[i]);
-                        retMap.put(id, object);
-                    } catch (Exception e) {
-                        LOG.error("Error getting key {} from Redis.", keysPartition.get(i), e);
-                    } finally {
-                        kryoPool.free(kryo);
-                    }
-
+                Kryo kryo = kryoPool.obtain();
+                try {
+                    T object = (T) kryo.readClassAndObject(new Input(serializedObject));
+                    retMap.put(partitionKeys.get(i), object);
+                } catch (Exception e) {
+                    LOG.error("Error getting key {} from Redis.", partitionKeys.get(i), e);
+                } finally {
+                    kryoPool.free(kryo);
                 }
-            } catch (Exception e) {
-                LOG.error("Error getting keys from Redis. Keys: " + keysPartition, e);
             }
         }
         return retMap;
@@ -144,35 +145,30 @@ public class RedisService {
     }
 
     public void deleteFromRedis(Collection<String> keys) {
-        for (List<String> keysPartition : Iterables.partition(keys, redisGetSize)) {
-            try (Jedis jedis = jedisPool.getResource()) {
-                String[] keysPartitionArray = new String[keysPartition.size()];
-                keysPartition.toArray(keysPartitionArray);
-                runWithRetries(() -> jedis.del(keysPartitionArray), "DEL");
-            } catch (Exception e) {
-                LOG.error("Error deleting ids from Redis. Ids: " + keysPartition, e);
-            }
+        try {
+            runOnSlots(keys, redisGetSize, (pipeline, keysPartition) -> pipeline.del(keysPartition.toArray(new String[0])), "DEL");
+        } catch (Exception e) {
+            LOG.error("Error deleting ids from Redis. Ids: " + keys, e);
         }
     }
 
     public <T> boolean pushToRedis(Map<String, T> keysToValuesMap, int ttl) {
         boolean allPushed = true;
-        try (Jedis jedis = jedisPool.getResource(); Pipeline pipelined = jedis.pipelined()) {
-            for (List<Map.Entry<String, T>> batch : Iterables.partition(keysToValuesMap.entrySet(), REDIS_SERIALIZATIONPART_SIZE)) {
-                for (Map.Entry<String, T> entry : batch) {
-                    String key = entry.getKey();
-                    T object = entry.getValue();
-
-                    try {
-                        byte[] taskByteArr = getBytes(object);
-                        runWithRetries(() -> pipelined.setex(key.getBytes(), ttl, taskByteArr), "SETEX");
-                    } catch (Exception e) {
-                        allPushed = false;
-                        LOG.error("Error pushing key " + key + " to Redis.", e);
-                    }
-                }
+        Map<String, byte[]> serializedObjects = Maps.newHashMapWithExpectedSize(keysToValuesMap.size());
+        for (Map.Entry<String, T> entry : keysToValuesMap.entrySet()) {
+            try {
+                serializedObjects.put(entry.getKey(), getBytes(entry.getValue()));
+            } catch (Exception e) {
+                allPushed = false;
+                LOG.error("Error pushing key " + entry.getKey() + " to Redis.", e);
             }
         }
+        try {
+            runOnSlots(serializedObjects.keySet(), 1, (pipeline, keys) -> pipeline.setex(keys.get(0).getBytes(), ttl, serializedObjects.get(keys.get(0))), "SETEX");
+        } catch (Exception e) {
+            allPushed = false;
+            LOG.error("Error pushing keys to Redis.", e);
+        }
         return allPushed;
     }
 
@@ -182,17 +178,18 @@ public class RedisService {
 
     public List<String> popFromRedisList(String listName, int amount) {
         List<String> values = new ArrayList<>();
-        try (Jedis jedis = jedisPool.getResource()) {
-            // values.addAll(runWithRetries(() -> jedis.lpop(listName, amount), "LPOP")); TODO upgrade Redis version to 6.2 in order to use this API
-            while (amount > 0) {
-                String element = runWithRetries(() -> jedis.lpop(listName), "LPOP");
-                if (element != null) {
+        try {
+            // values.addAll(runOnKey(listName, jedis -> jedis.lpop(listName, amount), "LPOP")); TODO upgrade Redis version to 6.2 in order to use this API
+            runOnKey(listName, jedis -> {
+                while (values.size() < amount) {
+                    String element = jedis.lpop(listName);
+                    if (element == null) {
+                        break;
+                    }
                     values.add(element);
-                    amount -= 1;
-                } else {
-                    break;
                 }
-            }
+                return values;
+            }, "LPOP");
         } catch (Exception e) {
             LOG.error("Error popping item from Redis " + listName + " list", e);
         }
@@ -200,26 +197,21 @@ public class RedisService {
     }
 
     public boolean pushToRedisList(String listName, String value) {
-        boolean pushed = false;
-        try (Jedis jedis = jedisPool.getResource()) {
-            try {
-                runWithRetries(() -> jedis.rpush(listName, value), "RPUSH");
-                pushed = true;
-            } catch (Exception e) {
-                LOG.error("Error pushing item to Redis " + listName + " list", e);
-            }
+        try {
+            runOnKey(listName, jedis -> jedis.rpush(listName, value), "RPUSH");
+            return true;
+        } catch (Exception e) {
+            LOG.error("Error pushing item to Redis " + listName + " list", e);
+            return false;
         }
-        return pushed;
     }
 
     public long getListLength(String listName) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            try {
-                return runWithRetries(() -> jedis.llen(listName), "LLEN");
-            } catch (Exception e) {
-                LOG.error("Error returning Redis " + listName + " list length", e);
-                return -1;
-            }
+        try {
+            return runOnKey(listName, jedis -> jedis.llen(listName), "LLEN");
+        } catch (Exception e) {
+            LOG.error("Error returning Redis " + listName + " list length", e);
+            return -1;
         }
     }
 
@@ -229,9 +221,117 @@ public class RedisService {
 
     // endregion
 
+    // region SCRIPTING
+
+    /**
+     * Runs a Lua script on every group of up to maxKeysPerRun keys that share a slot. The ARGV of every run holds the common args,
+     * followed by the number of args of every key of the run and its args. The script has to return one result per key.
+     * @return the result of every key
+     */
+    public Map<String, Object> evalScript(String script, Map<String, List<String>> keysArgs, List<String> commonArgs, int maxKeysPerRun) throws RetriesExhaustedException {
+        List<Map.Entry<List<String>, Object>> runs = runOnSlots(keysArgs.keySet(), maxKeysPerRun, (pipeline, keys) -> {
+            List<String> args = new ArrayList<>(commonArgs);
+            for (String key : keys) {
+                List<String> keyArgs = keysArgs.get(key);
+                args.add(String.valueOf(keyArgs.size()));
+                args.addAll(keyArgs);
+            }
+            return pipeline.eval(script, keys, args);
+        }, "EVAL");
+        Map<String, Object> results = Maps.newHashMapWithExpectedSize(keysArgs.size());
+        for (Map.Entry<List<String>, Object> run : runs) {
+            List<?> runResults = (List<?>) run.getValue();
+            for (int i = 0; i < run.getKey().size(); i++) {
+                results.put(run.getKey().get(i), runResults.get(i));
+            }
+        }
+        return results;
+    }
+
+    // endregion
+
+    // region PUB/SUB
+
+    // A cluster delivers messages published on any of its nodes to the subscribers of all of them
+    public boolean publish(String channel, String message) {
+        try {
+            runOnKey(channel, jedis -> jedis.publish(channel, message), "PUBLISH");
+            return true;
+        } catch (Exception e) {
+            LOG.error("Error publishing to Redis channel " + channel, e);
+            return false;
+        }
+    }
+
+    /**
+     * Blocks until the subscription is unsubscribed or the connection fails, holding a connection of the pool meanwhile.
+     */
+    public void subscribe(JedisPubSub pubSub, String channel) {
+        try (Jedis jedis = nodes.poolOfKey(channel).getResource()) {
+            jedis.subscribe(pubSub, channel);
+        }
+    }
+
+    // endregion
+
+    // region BITMAP
+
+    /**
+     * Sets all the given bits in one round trip and refreshes the key's ttl.
+     * @return previous values of the bits, null if Redis failed
+     */
+    public boolean[] setBits(String key, long[] offsets, int ttl) {
+        try {
+            return runOnKey(key, jedis -> {
+                Pipeline pipelined = jedis.pipelined();
+                List<Response<Boolean>> responses = new ArrayList<>(offsets.length);
+                for (long offset : offsets) {
+                    responses.add(pipelined.setbit(key, offset, true));
+                }
+                pipelined.expire(key, ttl);
+                pipelined.sync();
+                return toBooleanArray(responses);
+            }, "SETBIT");
+        } catch (Exception e) {
+            LOG.error("Error setting bits of " + key + " in Redis", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return values of the given bits, null if Redis failed
+     */
+    public boolean[] getBits(String key, long[] offsets) {
+        try {
+            return runOnKey(key, jedis -> {
+                Pipeline pipelined = jedis.pipelined();
+                List<Response<Boolean>> responses = new ArrayList<>(offsets.length);
+                for (long offset : offsets) {
+                    responses.add(pipelined.getbit(key, offset));
+                }
+                pipelined.sync();
+                return toBooleanArray(responses);
+            }, "GETBIT");
+        } catch (Exception e) {
+            LOG.error("Error getting bits of " + key + " from Redis", e);
+            return null;
+        }
+    }
+
+    public long countBits(String key) {
+        try {
+            return runOnKey(key, jedis -> jedis.bitcount(key), "BITCOUNT");
+        } catch (Exception e) {
+            LOG.error("Error counting bits of " + key + " in Redis", e);
+            return -1;
+        }
+    }
+
+    // endregion
+
     public JedisLock lockIfUnlocked(String lockName) {
         JedisLock lock = new JedisLock(lockName, 0, 20000);
-        try (Jedis jedis = jedisPool.getResource()) {
+        try (Jedis jedis = nodes.poolOfKey(lock.getLockKey()).getResource()) {
             boolean acquired = lock.acquire(jedis);
             if (!acquired) {
                 lock = null;
@@ -244,7 +344,7 @@ public class RedisService {
 
     public JedisLock lock(String lockName) {
         JedisLock lock = new JedisLock(lockName, 20000, 20000);
-        try (Jedis jedis = jedisPool.getResource()) {
+        try (Jedis jedis = nodes.poolOfKey(lock.getLockKey()).getResource()) {
             lock.acquire(jedis);
         } catch (Exception e) {
             LOG.error("Error while locking lock {} in Redis", lockName, e);
@@ -253,7 +353,7 @@ public class RedisService {
     }
 
     public void release(JedisLock lock) {
-        try (Jedis jedis = jedisPool.getResource()) {
+        try (Jedis jedis = nodes.poolOfKey(lock.getLockKey()).getResource()) {
             lock.release(jedis);
         } catch (Exception e) {
             LOG.error("Error while releasing lock {} in Redis", lock.getLockKey(), e);
@@ -261,11 +361,11 @@ public class RedisService {
     }
 
     public void close() {
-        jedisPool.close();
+        nodes.close();
     }
 
     public boolean isConnected() {
-        return !jedisPool.isClosed();
+        return !nodes.isClosed();
     }
 
     // endregion
@@ -287,6 +387,41 @@ public class RedisService {
         }
     }
 
+    private static RedisNodes createNodes(String redisHost, int redisPort, String redisClusterNodes, String redisPass, Boolean redisUseSsl,
+                                          int redisPoolMinIdle, int redisPoolMaxIdle, int redisPoolMaxTotal) {
+        int timeoutInMilliseconds = 180000;
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(redisPoolMaxTotal);
+        poolConfig.setMinIdle(redisPoolMinIdle);
+        poolConfig.setMaxIdle(redisPoolMaxIdle);
+        poolConfig.setTestOnBorrow(true);
+
+        Function<HostAndPort, JedisPool> poolFactory = node -> StringUtils.isEmpty(redisPass) ?
+                new JedisPool(poolConfig, node.getHost(), node.getPort(), timeoutInMilliseconds, redisUseSsl) :
+                new JedisPool(poolConfig, node.getHost(), node.getPort(), timeoutInMilliseconds, redisPass, redisUseSsl);
+        if (StringUtils.isEmpty(redisClusterNodes)) {
+            return new RedisNodes(poolFactory.apply(new HostAndPort(redisHost, redisPort)));
+        }
+        return new RedisNodes(RedisNodes.parseNodes(redisClusterNodes), poolFactory, Jedis::clusterSlots);
+    }
+
+    private static byte[][] toBytes(List<String> keys) {
+        byte[][] keysBytes = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysBytes[i] = keys.get(i).getBytes();
+        }
+        return keysBytes;
+    }
+
+    private static boolean[] toBooleanArray(List<Response<Boolean>> responses) {
+        boolean[] values = new boolean[responses.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = responses.get(i).get();
+        }
+        return values;
+    }
+
     private <T> T runWithRetries(Callable<T> callable, String functionDescription) throws RetriesExhaustedException {
         Status<T> status = new CallExecutorBuilder<T>()
                 .config(retryConfig)
@@ -297,6 +432,95 @@ public class RedisService {
         return status.getResult();
     }
 
+    /**
+     * Runs a function on the node that serves the key. A key that is being migrated is asked for once on the node it is migrating to, and
+     * ASKING only lets the next command in, so a function that runs several commands may be asked again and is retried.
+     */
+    private <T> T runOnKey(String key, Function<Jedis, T> function, String functionDescription) throws RetriesExhaustedException {
+        return runWithRetries(() -> {
+            try (Jedis jedis = nodes.poolOfKey(key).getResource()) {
+                return function.apply(jedis);
+            } catch (JedisAskDataException e) {
+                try (Jedis jedis = nodes.poolOfNode(e.getTargetNode()).getResource()) {
+                    jedis.asking();
+                    return function.apply(jedis);
+                }
+            } catch (JedisMovedDataException e) {
+                nodes.refreshSlots();
+                throw e;
+            }
+        }, functionDescription);
+    }
+
+    /**
+     * Runs a command on every group of up to maxKeysPerCommand keys that share a slot, pipelining the commands of every node.
+     * Keys that are being migrated are asked for on the node they are migrating to. Keys that moved to another node, or whose node failed,
+     * are run again on a retry.
+     * @return every group of keys with its command's result
+     */
+    private <R> List<Map.Entry<List<String>, R>> runOnSlots(Collection<String> keys, int maxKeysPerCommand, BiFunction<Pipeline, List<String>, Response<R>> command,
+                                                            String functionDescription) throws RetriesExhaustedException {
+        List<Map.Entry<List<String>, R>> results = new ArrayList<>();
+        Set<String> remainingKeys = new LinkedHashSet<>(keys);
+        runWithRetries(() -> {
+            boolean moved = false;
+            Map<HostAndPort, List<List<String>>> askedGroups = Maps.newHashMap();
+            for (Map.Entry<JedisPool, List<List<String>>> nodeKeys : nodes.groupBySlot(remainingKeys, maxKeysPerCommand).entrySet()) {
+                List<List<String>> keysGroups = nodeKeys.getValue();
+                List<Response<R>> responses = runPipelined(nodeKeys.getKey(), keysGroups, false, command);
+                for (int i = 0; i < keysGroups.size(); i++) {
+                    try {
+                        results.add(Maps.immutableEntry(keysGroups.get(i), responses.get(i).get()));
+                        remainingKeys.removeAll(keysGroups.get(i));
+                    } catch (JedisAskDataException e) {
+                        askedGroups.computeIfAbsent(e.getTargetNode(), node -> new ArrayList<>()).add(keysGroups.get(i));
+                    } catch (JedisMovedDataException e) {
+                        moved = true;
+                    }
+                }
+            }
+            for (Map.Entry<HostAndPort, List<List<String>>> nodeKeys : askedGroups.entrySet()) {
+                List<List<String>> keysGroups = nodeKeys.getValue();
+                List<Response<R>> responses = runPipelined(nodes.poolOfNode(nodeKeys.getKey()), keysGroups, true, command);
+                for (int i = 0; i < keysGroups.size(); i++) {
+                    try {
+                        results.add(Maps.immutableEntry(keysGroups.get(i), responses.get(i).get()));
+                        remainingKeys.removeAll(keysGroups.get(i));
+                    } catch (JedisAskDataException e) {
+                        // Asked again, the next try asks for it on the node it is migrating to again
+                    } catch (JedisMovedDataException e) {
+                        moved = true;
+                    }
+                }
+            }
+            if (moved) {
+                nodes.refreshSlots();
+            }
+            if (!remainingKeys.isEmpty()) {
+                throw new JedisDataException("Some keys moved to other nodes of the Redis cluster");
+            }
+            return results;
+        }, functionDescription);
+        return results;
+    }
+
+    // ASKING only lets the command right after it in, so every asked command is preceded by one
+    private static <R> List<Response<R>> runPipelined(JedisPool pool, List<List<String>> keysGroups, boolean asking,
+                                                      BiFunction<Pipeline, List<String>, Response<R>> command) {
+        List<Response<R>> responses = new ArrayList<>(keysGroups.size());
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipelined = jedis.pipelined();
+            for (List<String> keysGroup : keysGroups) {
+                if (asking) {
+                    pipelined.sendCommand(Protocol.Command.ASKING, new String[0]);
+                }
+                responses.add(command.apply(pipelined, keysGroup));
+            }
+            pipelined.sync();
+        }
+        return responses;
+    }
+
     private void printFailError(Status status) {
         LOG.error("All tries failed for [Redis - " + status.getCallName() + "] ", status.getLastExceptionThatCausedRetry());
     }
@@ -26,7 +26,8 @@ public class CronsRunner {
 	private Scheduler scheduler;
 
 	public void runCrons(String bulkPersistentFetchCronExp, String eventsPersistentFetchCronExp, PersistenceHandler persistenceHandler, ElasticsearchClient es, String deletionCronExp, BlockingQueue<Event> buffer,
-						 BlockingQueue<Event> overFlowedEvents, String mergingCronExp, RedisService redisService, LoadingCache<String, RateLimiter> rateLimiterMap) {
+						 BlockingQueue<Event> overFlowedEvents, String mergingCronExp, RedisService redisService, LoadingCache<String, RateLimiter> rateLimiterMap,
+						 String rolloverCronExp) {
 		final StdSchedulerFactory sf = new StdSchedulerFactory();
 		try {
 			 scheduler = sf.getScheduler();
@@ -45,6 +46,9 @@ public class CronsRunner {
 			if (!Strings.isEmpty(mergingCronExp)) {
 				runPartialMergingTasksCron(es, mergingCronExp, redisService);
 			}
+			if (!Strings.isEmpty(rolloverCronExp)) {
+				runIndexRolloverCron(es, rolloverCronExp);
+			}
 			scheduler.start();
 		} catch (SchedulerException e) {
 			LOG.error("Could not start crons", e);
@@ -122,4 +126,17 @@ public class CronsRunner {
 		scheduler.scheduleJob(job, trigger);
 	}
 
+	private void runIndexRolloverCron(ElasticsearchClient es, String rolloverCronExp) throws SchedulerException {
+		JobDataMap jobDataMap = new JobDataMap();
+		jobDataMap.put(CLIENT, es);
+		JobDetail job = newJob(IndexRolloverJob.class)
+				.withIdentity("job6", "group6").usingJobData(jobDataMap)
+				.build();
+		CronTrigger trigger = newTrigger()
+				.withIdentity("trigger6", "group6")
+				.withSchedule(cronSchedule(rolloverCronExp))
+				.build();
+		scheduler.scheduleJob(job, trigger);
+	}
+
 }
@@ -0,0 +1,35 @@
+package com.datorama.oss.timbermill.cron;
+
+import com.datorama.oss.timbermill.ElasticsearchClient;
+import com.datorama.oss.timbermill.common.ElasticsearchUtil;
+import com.datorama.oss.timbermill.common.KamonConstants;
+import kamon.metric.Timer;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.UUID;
+
+// Not locked, every server publishes its own write indices. Rolling over an alias that was just rolled over by another server is a no-op
+@DisallowConcurrentExecution
+public class IndexRolloverJob implements Job {
+
+	private static final Logger LOG = LoggerFactory.getLogger(IndexRolloverJob.class);
+
+	@Override
+	public void execute(JobExecutionContext context) {
+		ElasticsearchClient client = (ElasticsearchClient) context.getJobDetail().getJobDataMap().get(ElasticsearchUtil.CLIENT);
+		String flowId = "Index Rollover Job - " + UUID.randomUUID().toString();
+		MDC.put("id", flowId);
+		Timer.Started started = KamonConstants.ROLLOVER_JOB_LATENCY.withoutTags().start();
+		try {
+			client.rolloverIndices();
+		} catch (RuntimeException e) {
+			LOG.error("Index rollover job failed", e);
+		}
+		started.stop();
+	}
+}
@@ -30,12 +30,18 @@ import java.util.concurrent.BlockingQueue;
 public class LocalOutputPipe implements EventOutputPipe {
 
     private static final int EVENT_QUEUE_CAPACITY = 1000000;
+    private static final long PIPELINE_TERMINATION_TIMEOUT_MILLIS = 60000;
+    private static final int MIN_BATCH_SIZE = 100;
+    private static final int MAX_BATCH_SIZE = 10000;
 
     private final BlockingQueue<Event> buffer = new ArrayBlockingQueue<>(EVENT_QUEUE_CAPACITY);
     private BlockingQueue<Event> overflowedQueue = new ArrayBlockingQueue<>(EVENT_QUEUE_CAPACITY);
     private PersistenceHandler persistenceHandler;
     private ElasticsearchClient esClient;
     private TaskIndexer taskIndexer;
+    private CacheWarmer cacheWarmer;
+    private IndexingPipeline indexingPipeline;
+    private AdaptiveBatcher adaptiveBatcher;
     private final CronsRunner cronsRunner;
     private boolean keepRunning = true;
     private boolean stoppedRunning = false;
@@ -48,35 +54,42 @@ public class LocalOutputPipe implements EventOutputPipe {
         }
 
         RedisService redisService = null;
-        if (!StringUtils.isEmpty(builder.redisHost)) {
-            redisService = new RedisService(builder.redisHost, builder.redisPort, builder.redisPass, builder.redisMaxMemory, builder.redisMaxMemoryPolicy, builder.redisUseSsl, builder.redisGetSize, builder.redisPoolMinIdle, builder.redisPoolMaxIdle, builder.redisPoolMaxTotal, builder.redisMaxTries);
+        if (!StringUtils.isEmpty(builder.redisHost) || !StringUtils.isEmpty(builder.redisClusterNodes)) {
+            redisService = new RedisService(builder.redisHost, builder.redisPort, builder.redisClusterNodes, builder.redisPass, builder.redisMaxMemory, builder.redisMaxMemoryPolicy, builder.redisUseSsl, builder.redisGetSize, builder.redisPoolMinIdle, builder.redisPoolMaxIdle, builder.redisPoolMaxTotal, builder.redisMaxTries);
         }
         Map<String, Object> params = PersistenceHandler.buildPersistenceHandlerParams(builder.maxFetchedBulksInOneTime, builder.maxFetchedEventsInOneTime, builder.maxInsertTries, builder.locationInDisk, builder.redisTtlInSeconds, redisService);
         persistenceHandler = PersistenceHandlerUtil.getPersistenceHandler(builder.persistenceHandlerStrategy, params);
         esClient = new ElasticsearchClient(builder.elasticUrl, builder.indexBulkSize, builder.indexingThreads, builder.awsRegion, builder.elasticUser, builder.elasticPassword,
                 builder.maxIndexAge, builder.maxIndexSizeInGB, builder.maxIndexDocs, builder.numOfElasticSearchActionsTries, builder.maxBulkIndexFetched, builder.searchMaxSize, persistenceHandler,
                 builder.numberOfShards, builder.numberOfReplicas, builder.maxTotalFields, builder.bulker, builder.scrollLimitation, builder.scrollTimeoutSeconds, builder.fetchByIdsPartitions,
-                builder.expiredMaxIndicesToDeleteInParallel);
+                builder.expiredMaxIndicesToDeleteInParallel, builder.scriptlessUpdates, builder.indexStateCacheTtlSeconds,
+                builder.multiGetMaxIds);
         rateLimiterMap = RateLimiterUtil.initRateLimiter(builder.limitForPeriod, builder.limitRefreshPeriodMinutes, builder.rateLimiterCapacity);
 
-        CacheConfig cacheParams = new CacheConfig(redisService, builder.redisTtlInSeconds, builder.maximumTasksCacheWeight, builder.maximumOrphansCacheWeight);
+        CacheConfig cacheParams = new CacheConfig(redisService, builder.redisTtlInSeconds, builder.maximumTasksCacheWeight, builder.maximumOrphansCacheWeight,
+                builder.localCacheCompression, builder.locationInDisk, builder.maximumNearCacheWeight, builder.nearCacheTtlSeconds);
         AbstractCacheHandler cacheHandler = CacheHandlerUtil.getCacheHandler(builder.cacheStrategy, cacheParams);
-        taskIndexer = new TaskIndexer(builder.pluginsJson, builder.daysRotation, esClient, builder.timbermillVersion,cacheHandler);
+        taskIndexer = new TaskIndexer(builder.pluginsJson, builder.daysRotation, esClient, builder.timbermillVersion,cacheHandler, builder.enrichmentShards,
+                builder.coalescingWindowMillis, builder.coalescingMaxTasks, builder.missingParentsCacheMaxSize, builder.missingParentsCacheTtlSeconds);
+        cacheWarmer = new CacheWarmer(esClient, cacheHandler, builder.cacheWarmUpSeconds, builder.cacheWarmUpLookbackMinutes, builder.cacheWarmUpMaxTasks);
+        indexingPipeline = new IndexingPipeline(taskIndexer, builder.pipelineQueueCapacity, builder.pipelineNormalizeThreads, builder.pipelineTreeThreads, builder.pipelineBulkBuildThreads,
+                builder.indexingThreads, builder.pipelineMaxInFlightBatches);
+        adaptiveBatcher = new AdaptiveBatcher(indexingPipeline, builder.targetIndexingLagMillis, MIN_BATCH_SIZE, MAX_BATCH_SIZE);
         cronsRunner = new CronsRunner();
         cronsRunner.runCrons(builder.bulkPersistentFetchCronExp, builder.eventsPersistentFetchCronExp, persistenceHandler, esClient,
                 builder.deletionCronExp, buffer, overflowedQueue,
-                builder.mergingCronExp, redisService, rateLimiterMap);
-        startQueueSpillerThread();
+                builder.mergingCronExp, redisService, rateLimiterMap, builder.rolloverCronExp);
+        cacheWarmer.start();
+        startQueueSpillerThread(builder.targetIndexingLagMillis);
         startWorkingThread();
     }
 
-    private void startQueueSpillerThread() {
+    private void startQueueSpillerThread(long maxSpillWaitMillis) {
         Thread spillerThread = new Thread(() -> {
             LOG.info("Starting Queue Spiller Thread");
             while (keepRunning) {
-                persistenceHandler.spillOverflownEvents(overflowedQueue);
                 try {
-                    Thread.sleep(ElasticsearchUtil.THREAD_SLEEP);
+                    persistenceHandler.spillOverflownEvents(overflowedQueue, maxSpillWaitMillis);
                 } catch (InterruptedException e) {
                     LOG.error("InterruptedException was thrown from TaskIndexer:", e);
                 }
@@ -89,7 +102,7 @@ public class LocalOutputPipe implements EventOutputPipe {
         Thread workingThread = new Thread(() -> {
             LOG.info("Timbermill has started");
             while (keepRunning) {
-                ElasticsearchUtil.drainAndIndex(buffer, taskIndexer, 10000);
+                ElasticsearchUtil.drainAndIndex(buffer, indexingPipeline, adaptiveBatcher);
             }
             stoppedRunning = true;
         });
@@ -135,6 +148,8 @@ public class LocalOutputPipe implements EventOutputPipe {
             } catch (InterruptedException ignored) {
             }
         }
+        cacheWarmer.close();
+        indexingPipeline.close(PIPELINE_TERMINATION_TIMEOUT_MILLIS);
         if (persistenceHandler != null){
             persistenceHandler.close();
         }
@@ -177,6 +192,7 @@ public class LocalOutputPipe implements EventOutputPipe {
         //DEFAULTS
         private String redisHost = "localhost";
         private int redisPort = 6379;
+        private String redisClusterNodes = "";
         private String redisPass = "";
         private String cacheStrategy = "none";
         private String redisMaxMemory = "";
@@ -190,6 +206,12 @@ public class LocalOutputPipe implements EventOutputPipe {
         private int redisMaxTries = 3;
         private int maximumTasksCacheWeight = 1000000000;
         private int maximumOrphansCacheWeight = 1000000000;
+        private boolean localCacheCompression = false;
+        private int maximumNearCacheWeight = 0;
+        private int nearCacheTtlSeconds = 60;
+        private int cacheWarmUpSeconds = 0;
+        private int cacheWarmUpLookbackMinutes = 60;
+        private int cacheWarmUpMaxTasks = 1000000;
         private int searchMaxSize = 1000;
         private int maxBulkIndexFetched = 3;
         private int numOfElasticSearchActionsTries = 3;
@@ -211,6 +233,7 @@ public class LocalOutputPipe implements EventOutputPipe {
         private String mergingCronExp = "0 0/1 * 1/1 * ? *";
         private String bulkPersistentFetchCronExp = "0 0/10 * 1/1 * ? *";
         private String eventsPersistentFetchCronExp = "0 0/5 * 1/1 * ? *";
+        private String rolloverCronExp = "0 0/1 * 1/1 * ? *";
         private String persistenceHandlerStrategy = "redis";
         private int maxFetchedBulksInOneTime = 10;
         private int maxFetchedEventsInOneTime = 10;
@@ -219,11 +242,25 @@ public class LocalOutputPipe implements EventOutputPipe {
         private int scrollLimitation = 1000;
         private int scrollTimeoutSeconds = 60;
         private int fetchByIdsPartitions = 10000;
+        private int multiGetMaxIds = 500;
         private int expiredMaxIndicesToDeleteInParallel = 2;
         private String timbermillVersion = "";
         private int limitForPeriod = 10000;
         private Duration limitRefreshPeriodMinutes = Duration.ofMinutes(1);
         private int rateLimiterCapacity = 30000;
+        private int pipelineQueueCapacity = 10;
+        private int pipelineNormalizeThreads = 1;
+        private int pipelineTreeThreads = 1;
+        private int pipelineBulkBuildThreads = 1;
+        private int pipelineMaxInFlightBatches = 2;
+        private int enrichmentShards = 1;
+        private long coalescingWindowMillis = 0;
+        private boolean scriptlessUpdates = false;
+        private int indexStateCacheTtlSeconds = 300;
+        private int coalescingMaxTasks = 100000;
+        private int missingParentsCacheMaxSize = 100000;
+        private int missingParentsCacheTtlSeconds = 60;
+        private long targetIndexingLagMillis = 1000;
 
         public Builder url(String elasticUrl) {
             this.elasticUrl = elasticUrl;
@@ -345,6 +382,36 @@ public class LocalOutputPipe implements EventOutputPipe {
             return this;
         }
 
+        public Builder localCacheCompression(boolean localCacheCompression) {
+            this.localCacheCompression = localCacheCompression;
+            return this;
+        }
+
+        public Builder maximumNearCacheWeight(int maximumNearCacheWeight) {
+            this.maximumNearCacheWeight = maximumNearCacheWeight;
+            return this;
+        }
+
+        public Builder nearCacheTtlSeconds(int nearCacheTtlSeconds) {
+            this.nearCacheTtlSeconds = nearCacheTtlSeconds;
+            return this;
+        }
+
+        public Builder cacheWarmUpSeconds(int cacheWarmUpSeconds) {
+            this.cacheWarmUpSeconds = cacheWarmUpSeconds;
+            return this;
+        }
+
+        public Builder cacheWarmUpLookbackMinutes(int cacheWarmUpLookbackMinutes) {
+            this.cacheWarmUpLookbackMinutes = cacheWarmUpLookbackMinutes;
+            return this;
+        }
+
+        public Builder cacheWarmUpMaxTasks(int cacheWarmUpMaxTasks) {
+            this.cacheWarmUpMaxTasks = cacheWarmUpMaxTasks;
+            return this;
+        }
+
         public Builder bulkPersistentFetchCronExp(String bulkPersistentFetchCronExp) {
             this.bulkPersistentFetchCronExp = bulkPersistentFetchCronExp;
             return this;
@@ -385,6 +452,11 @@ public class LocalOutputPipe implements EventOutputPipe {
             return this;
         }
 
+        public Builder redisClusterNodes(String redisClusterNodes) {
+            this.redisClusterNodes = redisClusterNodes;
+            return this;
+        }
+
         public Builder redisPass(String redisPass) {
             this.redisPass = redisPass;
             return this;
@@ -461,6 +533,82 @@ public class LocalOutputPipe implements EventOutputPipe {
             return this;
         }
 
+        public Builder pipelineQueueCapacity(int pipelineQueueCapacity) {
+            this.pipelineQueueCapacity = pipelineQueueCapacity;
+            return this;
+        }
+
+        public Builder pipelineNormalizeThreads(int pipelineNormalizeThreads) {
+            this.pipelineNormalizeThreads = pipelineNormalizeThreads;
+            return this;
+        }
+
+        public Builder pipelineTreeThreads(int pipelineTreeThreads) {
+            this.pipelineTreeThreads = pipelineTreeThreads;
+            return this;
+        }
+
+        public Builder pipelineBulkBuildThreads(int pipelineBulkBuildThreads) {
+            this.pipelineBulkBuildThreads = pipelineBulkBuildThreads;
+            return this;
+        }
+
+        public Builder pipelineMaxInFlightBatches(int pipelineMaxInFlightBatches) {
+            this.pipelineMaxInFlightBatches = pipelineMaxInFlightBatches;
+            return this;
+        }
+
+        public Builder enrichmentShards(int enrichmentShards) {
+            this.enrichmentShards = enrichmentShards;
+            return this;
+        }
+
+        public Builder coalescingWindowMillis(long coalescingWindowMillis) {
+            this.coalescingWindowMillis = coalescingWindowMillis;
+            return this;
+        }
+
+        public Builder coalescingMaxTasks(int coalescingMaxTasks) {
+            this.coalescingMaxTasks = coalescingMaxTasks;
+            return this;
+        }
+
+        // Only when this pipe is the only one writing the tasks, see ElasticsearchClient
+        public Builder scriptlessUpdates(boolean scriptlessUpdates) {
+            this.scriptlessUpdates = scriptlessUpdates;
+            return this;
+        }
+
+        public Builder multiGetMaxIds(int multiGetMaxIds) {
+            this.multiGetMaxIds = multiGetMaxIds;
+            return this;
+        }
+
+        public Builder indexStateCacheTtlSeconds(int indexStateCacheTtlSeconds) {
+            this.indexStateCacheTtlSeconds = indexStateCacheTtlSeconds;
+            return this;
+        }
+
+        public Builder missingParentsCacheMaxSize(int missingParentsCacheMaxSize) {
+            this.missingParentsCacheMaxSize = missingParentsCacheMaxSize;
+            return this;
+        }
+
+        public Builder missingParentsCacheTtlSeconds(int missingParentsCacheTtlSeconds) {
+            this.missingParentsCacheTtlSeconds = missingParentsCacheTtlSeconds;
+            return this;
+        }
+
+        public Builder rolloverCronExp(String rolloverCronExp) {
+            this.rolloverCronExp = rolloverCronExp;
+            return this;
+        }
+
+        public Builder targetIndexingLagMillis(long targetIndexingLagMillis) {
+            this.targetIndexingLagMillis = targetIndexingLagMillis;
+            return this;
+        }
+
         public LocalOutputPipe build() {
             return new LocalOutputPipe(this);
         }
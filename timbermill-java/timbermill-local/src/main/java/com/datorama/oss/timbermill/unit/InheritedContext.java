@@ -0,0 +1,139 @@
+package com.datorama.oss.timbermill.unit;
+
+import java.util.*;
+
+/**
+ * A context made of its own entries on top of the context it inherited, so a tree of tasks shares its ancestors' context instead of
+ * copying all of it into every descendant. Own entries win over inherited ones, and puts only ever change the own entries.
+ * A context that is inherited is frozen first: its own entries so far become an immutable level that its heirs point to, and its later
+ * puts go to fresh own entries. Plain maps are inherited as they are, they must not change afterwards.
+ * The entries are only put together when the whole context is read, which is when it is serialized.
+ */
+public final class InheritedContext extends AbstractMap<String, String> {
+
+    // Null, a frozen level or a plain map
+    private Map<String, String> inherited;
+    private Map<String, String> own;
+    private final boolean frozen;
+
+    public InheritedContext(Map<String, String> inherited) {
+        this(inherited, new HashMap<>());
+    }
+
+    /**
+     * Takes the given own entries as they are, later puts change them.
+     */
+    public InheritedContext(Map<String, String> inherited, Map<String, String> own) {
+        this.inherited = inheritable(inherited);
+        // Another context may still be changed by whoever else holds it
+        this.own = own instanceof InheritedContext ? new HashMap<>(own) : own;
+        frozen = false;
+    }
+
+    private InheritedContext(Map<String, String> inherited, Map<String, String> own, boolean frozen) {
+        this.inherited = inherited;
+        this.own = own;
+        this.frozen = frozen;
+    }
+
+    /**
+     * The given entries on top of the given context, without copying either of them.
+     */
+    public static Map<String, String> override(Map<String, String> context, Map<String, String> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return context;
+        }
+        if (context == null || context.isEmpty()) {
+            return entries;
+        }
+        return new InheritedContext(inheritable(context), inheritable(entries), true);
+    }
+
+    private static Map<String, String> inheritable(Map<String, String> context) {
+        if (context instanceof InheritedContext) {
+            return ((InheritedContext) context).freeze();
+        }
+        return context == null || context.isEmpty() ? null : context;
+    }
+
+    private Map<String, String> freeze() {
+        if (frozen) {
+            return this;
+        }
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        InheritedContext level = new InheritedContext(inherited, own, true);
+        inherited = level;
+        own = new HashMap<>();
+        return level;
+    }
+
+    @Override
+    public String get(Object key) {
+        Map<String, String> context = this;
+        while (context instanceof InheritedContext) {
+            InheritedContext level = (InheritedContext) context;
+            if (level.own.containsKey(key)) {
+                return level.own.get(key);
+            }
+            context = level.inherited;
+        }
+        return context == null ? null : context.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Map<String, String> context = this;
+        while (context instanceof InheritedContext) {
+            InheritedContext level = (InheritedContext) context;
+            if (level.own.containsKey(key)) {
+                return true;
+            }
+            context = level.inherited;
+        }
+        return context != null && context.containsKey(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (frozen) {
+            throw new UnsupportedOperationException("An inherited context can't be changed");
+        }
+        String previousValue = get(key);
+        own.put(key, value);
+        return previousValue;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return own.isEmpty() && inherited == null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return Collections.unmodifiableMap(materialize()).entrySet();
+    }
+
+    /**
+     * All the entries, put together once. Serializers that read the size and then the entries would put them together twice otherwise.
+     */
+    public Map<String, String> snapshot() {
+        return materialize();
+    }
+
+    private Map<String, String> materialize() {
+        Deque<Map<String, String>> levels = new ArrayDeque<>();
+        Map<String, String> context = this;
+        while (context instanceof InheritedContext) {
+            InheritedContext level = (InheritedContext) context;
+            levels.push(level.own);
+            context = level.inherited;
+        }
+        Map<String, String> entries = context == null ? new HashMap<>() : new HashMap<>(context);
+        for (Map<String, String> levelEntries : levels) {
+            entries.putAll(levelEntries);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,189 @@
+package com.datorama.oss.timbermill.unit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the tasks cache keeps of a task: the fields its children are enriched from, the same ones fetched from Elasticsearch for
+ * missing parents, and the status and times later updates of the task are resolved against.
+ */
+public class ParentInfo {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParentInfo.class);
+
+    String index;
+    String name;
+    String parentId;
+    String primaryId;
+    List<String> parentsPath;
+    Map<String, String> ctx = new HashMap<>();
+    Boolean orphan;
+
+    TaskStatus status;
+    ZonedDateTime startTime;
+    ZonedDateTime endTime;
+    Long duration;
+    ZonedDateTime dateToDelete;
+    // Whether the cached status is the status of the indexed task, only then later updates can be resolved against it
+    boolean knownState;
+
+    ParentInfo() {
+    }
+
+    public ParentInfo(Task task) {
+        index = task.getIndex();
+        name = task.getName();
+        parentId = task.getParentId();
+        primaryId = task.getPrimaryId();
+        parentsPath = task.getParentsPath();
+        ctx = new InheritedContext(task.getCtx());
+        orphan = task.isOrphan();
+        status = task.getStatus();
+        TaskMetaData meta = task.getMeta();
+        if (meta != null) {
+            startTime = meta.getTaskBegin();
+            endTime = meta.getTaskEnd();
+            duration = meta.getDuration();
+            dateToDelete = meta.getDateToDelete();
+        }
+        knownState = task.isFullState();
+    }
+
+    /**
+     * The task to index for a cached orphan that was adopted, as the cached task was written.
+     */
+    public Task toTask() {
+        Task task = new Task();
+        task.setIndex(index);
+        task.setName(name);
+        task.setParentId(parentId);
+        task.setPrimaryId(primaryId);
+        task.setParentsPath(parentsPath);
+        task.getCtx().putAll(ctx);
+        task.setOrphan(orphan);
+        task.setStatus(status);
+        task.setStartTime(startTime);
+        task.setEndTime(endTime);
+        task.setDuration(duration);
+        task.setDateToDelete(dateToDelete);
+        return task;
+    }
+
+    // Fills in what the task's new events didn't have from the cached info, same as Task.mergeTask
+    public void mergeCached(ParentInfo cachedInfo, String id) {
+        if (parentId == null) {
+            parentId = cachedInfo.parentId;
+        } else if (cachedInfo.parentId != null && !parentId.equals(cachedInfo.parentId)) {
+            LOG.warn("Found different parentId for same task. Flagged task [{}] as corrupted. parentId 1 [{}], parentId 2 [{}]", id, parentId, cachedInfo.parentId);
+        }
+
+        if (primaryId == null) {
+            primaryId = cachedInfo.primaryId;
+        } else if (!StringUtils.isEmpty(cachedInfo.primaryId) && !primaryId.equals(cachedInfo.primaryId)) {
+            if (primaryId.equals(id)) {
+                primaryId = cachedInfo.primaryId; // Override with actual primary id
+            } else if (!cachedInfo.primaryId.equals(id)) {
+                LOG.warn("Found different primaryId for same task. Flagged task [{}] as corrupted. primaryId 1 [{}], primaryId 2 [{}]", id, primaryId, cachedInfo.primaryId);
+            }
+        }
+
+        if (parentsPath == null) {
+            parentsPath = cachedInfo.parentsPath;
+        } else if (cachedInfo.parentsPath != null && !cachedInfo.parentsPath.equals(parentsPath)) {
+            LOG.warn("Found different parentsPath for same task. Flagged task [{}] as corrupted. parentsPath 1 [{}], parentsPath 2 [{}]", id, parentsPath, cachedInfo.parentsPath);
+        }
+
+        ctx.putAll(cachedInfo.ctx);
+
+        if (cachedInfo.orphan != null) {
+            orphan = orphan == null ? cachedInfo.orphan : orphan && cachedInfo.orphan;
+        }
+    }
+
+    boolean isComplete() {
+        return status == TaskStatus.SUCCESS || status == TaskStatus.ERROR;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public void setIndex(String index) {
+        this.index = index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    public String getPrimaryId() {
+        return primaryId;
+    }
+
+    public List<String> getParentsPath() {
+        return parentsPath;
+    }
+
+    public Map<String, String> getCtx() {
+        return ctx;
+    }
+
+    public Boolean isOrphan() {
+        return orphan;
+    }
+
+    public TaskStatus getStatus() {
+        return status;
+    }
+
+    public ZonedDateTime getStartTime() {
+        return startTime;
+    }
+
+    public ZonedDateTime getEndTime() {
+        return endTime;
+    }
+
+    public Long getDuration() {
+        return duration;
+    }
+
+    public ZonedDateTime getDateToDelete() {
+        return dateToDelete;
+    }
+
+    public boolean isKnownState() {
+        return knownState;
+    }
+
+    public void setKnownState(boolean knownState) {
+        this.knownState = knownState;
+    }
+
+    @Override
+    public String toString() {
+        return "ParentInfo{" +
+                "index='" + index + '\'' +
+                ", name='" + name + '\'' +
+                ", status=" + status +
+                ", parentId='" + parentId + '\'' +
+                ", primaryId='" + primaryId + '\'' +
+                ", parentsPath=" + parentsPath +
+                ", ctx=" + ctx +
+                ", orphan=" + orphan +
+                ", startTime=" + startTime +
+                ", endTime=" + endTime +
+                ", knownState=" + knownState +
+                '}';
+    }
+}
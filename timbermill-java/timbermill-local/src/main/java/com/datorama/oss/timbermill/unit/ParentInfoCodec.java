@@ -0,0 +1,134 @@
+package com.datorama.oss.timbermill.unit;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link ParentInfo} as a compact binary blob.
+ * Unlike the Kryo serialization the layout carries no field names or class ids, so it only has to be read by the same version that
+ * wrote it. Caches that keep blobs across restarts or share them between servers version their files or keys, and drop them when the
+ * layout changes.
+ */
+public final class ParentInfoCodec {
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final TaskStatus[] STATUSES = TaskStatus.values();
+
+    private ParentInfoCodec() {
+    }
+
+    public static byte[] encode(ParentInfo parentInfo) {
+        Output output = new Output(INITIAL_BUFFER_SIZE, -1);
+        output.writeString(parentInfo.index);
+        output.writeString(parentInfo.name);
+        output.writeString(parentInfo.parentId);
+        output.writeString(parentInfo.primaryId);
+        writeList(output, parentInfo.parentsPath);
+        writeMap(output, parentInfo.ctx);
+        output.writeByte(parentInfo.orphan == null ? 0 : parentInfo.orphan ? 2 : 1);
+        output.writeVarInt(parentInfo.status == null ? 0 : parentInfo.status.ordinal() + 1, true);
+        writeDate(output, parentInfo.startTime);
+        writeDate(output, parentInfo.endTime);
+        output.writeBoolean(parentInfo.duration != null);
+        if (parentInfo.duration != null) {
+            output.writeVarLong(parentInfo.duration, false);
+        }
+        writeDate(output, parentInfo.dateToDelete);
+        output.writeBoolean(parentInfo.knownState);
+        return output.toBytes();
+    }
+
+    public static ParentInfo decode(byte[] bytes) {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    public static ParentInfo decode(byte[] bytes, int offset, int length) {
+        Input input = new Input(bytes, offset, length);
+        ParentInfo parentInfo = new ParentInfo();
+        parentInfo.index = input.readString();
+        parentInfo.name = input.readString();
+        parentInfo.parentId = input.readString();
+        parentInfo.primaryId = input.readString();
+        parentInfo.parentsPath = readList(input);
+        readMap(input, parentInfo.ctx);
+        byte orphan = input.readByte();
+        parentInfo.orphan = orphan == 0 ? null : orphan == 2;
+        int status = input.readVarInt(true);
+        parentInfo.status = status == 0 ? null : STATUSES[status - 1];
+        parentInfo.startTime = readDate(input);
+        parentInfo.endTime = readDate(input);
+        if (input.readBoolean()) {
+            parentInfo.duration = input.readVarLong(false);
+        }
+        parentInfo.dateToDelete = readDate(input);
+        parentInfo.knownState = input.readBoolean();
+        return parentInfo;
+    }
+
+    private static void writeList(Output output, List<String> list) {
+        if (list == null) {
+            output.writeVarInt(0, true);
+            return;
+        }
+        output.writeVarInt(list.size() + 1, true);
+        for (String value : list) {
+            output.writeString(value);
+        }
+    }
+
+    private static List<String> readList(Input input) {
+        int size = input.readVarInt(true) - 1;
+        if (size < 0) {
+            return null;
+        }
+        List<String> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(input.readString());
+        }
+        return list;
+    }
+
+    private static void writeMap(Output output, Map<String, String> map) {
+        Map<String, String> entries = map instanceof InheritedContext ? ((InheritedContext) map).snapshot() : map;
+        output.writeVarInt(entries.size(), true);
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            output.writeString(entry.getKey());
+            output.writeString(entry.getValue());
+        }
+    }
+
+    private static void readMap(Input input, Map<String, String> map) {
+        int size = input.readVarInt(true);
+        for (int i = 0; i < size; i++) {
+            map.put(input.readString(), input.readString());
+        }
+    }
+
+    private static void writeDate(Output output, ZonedDateTime date) {
+        // The zone id is null only when the date itself is
+        if (date == null) {
+            output.writeString(null);
+            return;
+        }
+        output.writeString(date.getZone().getId());
+        output.writeVarLong(date.toEpochSecond(), false);
+        output.writeVarInt(date.getNano(), true);
+    }
+
+    private static ZonedDateTime readDate(Input input) {
+        String zoneId = input.readString();
+        if (zoneId == null) {
+            return null;
+        }
+        long epochSecond = input.readVarLong(false);
+        int nano = input.readVarInt(true);
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond, nano), ZoneId.of(zoneId));
+    }
+}
@@ -0,0 +1,82 @@
+package com.datorama.oss.timbermill.unit;
+
+import java.util.*;
+
+/**
+ * A parents path made of the path it extends and one more name, so the paths of a tree of tasks share their prefixes instead of each
+ * holding all of its ancestors' names. The names are only put together when the whole path is read, which is when it is serialized.
+ */
+public final class ParentsPath extends AbstractList<String> {
+
+    // A parents path or a plain list that doesn't change
+    private final List<String> prefix;
+    private final String name;
+    private final int size;
+
+    private ParentsPath(List<String> prefix, String name) {
+        this.prefix = prefix;
+        this.name = name;
+        size = prefix.size() + 1;
+    }
+
+    /**
+     * The given path followed by the given name. The path is kept as it is, so a plain list must not change afterwards.
+     */
+    public static List<String> append(List<String> prefix, String name) {
+        if (name == null) {
+            return prefix == null ? Collections.emptyList() : prefix;
+        }
+        return new ParentsPath(prefix == null ? Collections.emptyList() : prefix, name);
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        List<String> path = this;
+        while (path instanceof ParentsPath) {
+            ParentsPath node = (ParentsPath) path;
+            if (index == node.size - 1) {
+                return node.name;
+            }
+            path = node.prefix;
+        }
+        return path.get(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return materialize().iterator();
+    }
+
+    @Override
+    public ListIterator<String> listIterator(int index) {
+        return materialize().listIterator(index);
+    }
+
+    @Override
+    public Object[] toArray() {
+        return materialize().toArray();
+    }
+
+    private List<String> materialize() {
+        String[] names = new String[size];
+        List<String> path = this;
+        while (path instanceof ParentsPath) {
+            ParentsPath node = (ParentsPath) path;
+            names[node.size - 1] = node.name;
+            path = node.prefix;
+        }
+        int index = 0;
+        for (String prefixName : path) {
+            names[index++] = prefixName;
+        }
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+}
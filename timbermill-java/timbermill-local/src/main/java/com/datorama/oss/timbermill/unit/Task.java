@@ -43,6 +43,8 @@ public class Task {
 	private Map<String, String> text = new HashMap<>();
 	private Map<String, Number> metric = new HashMap<>();
 	protected Boolean orphan;
+	// Not written anywhere, set when the task already holds the document Elasticsearch should end up with
+	private transient boolean fullState;
 
 	public Task() {
 	}
@@ -141,7 +143,12 @@ public class Task {
 				}
 			}
 			if (e.getContext() != null && !e.getContext().isEmpty()) {
-				ctx.putAll(e.getContext());
+				// The first context is shared rather than copied, it holds the parents' entries as well
+				if (ctx.isEmpty()) {
+					ctx = new InheritedContext(e.getContext());
+				} else {
+					ctx.putAll(e.getContext());
+				}
 			}
 			if (e.isOrphan() != null) {
 				if (orphan == null) {
@@ -171,10 +178,52 @@ public class Task {
 		}
 	}
 
-	private boolean isComplete() {
+	boolean isComplete() {
 		return status == TaskStatus.SUCCESS || status == TaskStatus.ERROR;
 	}
 
+	/**
+	 * Decides whether this task can be written without the stored script.
+	 * A later update of a started or closed cached task is brought to the state the script would have left the indexed task in,
+	 * as long as the cached status is known to be the indexed one. Any other transition needs the indexed task and is left to the script,
+	 * including tasks that aren't cached: the cache is bounded, so they may have been indexed and evicted already.
+	 */
+	public void resolveFullState(ParentInfo cachedTask) {
+		if (cachedTask == null) {
+			return;
+		}
+		TaskStatus cachedStatus = cachedTask.getStatus();
+		if (!cachedTask.isKnownState() || cachedTask.getStartTime() == null || (cachedStatus != TaskStatus.UNTERMINATED && !cachedTask.isComplete())) {
+			return;
+		}
+		if (status == TaskStatus.PARTIAL_INFO_ONLY) {
+			status = cachedStatus;
+			setEndTime(cachedTask.getEndTime());
+			setDuration(cachedTask.getDuration());
+		}
+		else if (cachedStatus == TaskStatus.UNTERMINATED && (status == TaskStatus.PARTIAL_SUCCESS || status == TaskStatus.PARTIAL_ERROR)) {
+			status = status == TaskStatus.PARTIAL_SUCCESS ? TaskStatus.SUCCESS : TaskStatus.ERROR;
+			setDuration(ElasticsearchUtil.getTimesDuration(cachedTask.getStartTime(), getEndTime()));
+		}
+		else {
+			return;
+		}
+		setStartTime(cachedTask.getStartTime());
+		setDateToDelete(cachedTask.getDateToDelete());
+		if (cachedTask.getName() != null) {
+			name = cachedTask.getName();
+		}
+		fullState = true;
+	}
+
+	public boolean isFullState() {
+		return fullState;
+	}
+
+	public void setFullState(boolean fullState) {
+		this.fullState = fullState;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -350,6 +399,17 @@ public class Task {
 		return updateRequest;
 	}
 
+	// Elasticsearch merges the task into the indexed one field by field, same as the script does for tasks in full state
+	public UpdateRequest getDocUpsertRequest(String index, String taskId) {
+		if (meta == null || meta.getTaskBegin() == null){
+			throw new RuntimeException("No taskBegin");
+		}
+		UpdateRequest updateRequest = new UpdateRequest(this.index == null ? index : this.index, ElasticsearchClient.TYPE, taskId);
+		updateRequest.doc(ElasticsearchClient.GSON.toJson(this), XContentType.JSON);
+		updateRequest.docAsUpsert(true);
+		return updateRequest.retryOnConflict(RETRIES_ON_CONFLICT);
+	}
+
 	@Override public String toString() {
 		return "Task{" +
 				"env='" + env + '\'' +
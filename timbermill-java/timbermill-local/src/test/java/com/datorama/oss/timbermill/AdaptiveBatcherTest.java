@@ -0,0 +1,91 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.KamonConstants;
+import com.datorama.oss.timbermill.unit.Event;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdaptiveBatcherTest {
+
+	private static final long TARGET_LAG_MILLIS = 500;
+	private static final int MIN_BATCH_SIZE = 10;
+	private static final int MAX_BATCH_SIZE = 100;
+
+	private IndexingPipeline indexingPipeline;
+	private AdaptiveBatcher adaptiveBatcher;
+	private final BlockingQueue<Event> eventsQueue = new LinkedBlockingQueue<>();
+
+	@BeforeClass
+	public static void initKamon() {
+		// Kamon takes a while to load, it shouldn't count as lingering
+		KamonConstants.BATCH_SIZE_HISTOGRAM.withoutTags();
+	}
+
+	@Before
+	public void init() {
+		indexingPipeline = mock(IndexingPipeline.class);
+		adaptiveBatcher = new AdaptiveBatcher(indexingPipeline, TARGET_LAG_MILLIS, MIN_BATCH_SIZE, MAX_BATCH_SIZE);
+	}
+
+	@Test
+	public void fullQueueIsDrainedWithoutLingering() throws InterruptedException {
+		addEvents(MAX_BATCH_SIZE * 2);
+		long start = System.currentTimeMillis();
+		List<Event> events = adaptiveBatcher.drain(eventsQueue);
+		assertEquals(MAX_BATCH_SIZE, events.size());
+		assertTrue(System.currentTimeMillis() - start < TARGET_LAG_MILLIS);
+	}
+
+	@Test
+	public void emptyQueueReturnsAfterTargetLag() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		List<Event> events = adaptiveBatcher.drain(eventsQueue);
+		assertTrue(events.isEmpty());
+		assertTrue(System.currentTimeMillis() - start >= TARGET_LAG_MILLIS);
+	}
+
+	@Test
+	public void smallBatchLingersForMoreEvents() throws InterruptedException {
+		addEvents(1);
+		long start = System.currentTimeMillis();
+		List<Event> events = adaptiveBatcher.drain(eventsQueue);
+		assertEquals(1, events.size());
+		assertTrue(System.currentTimeMillis() - start >= TARGET_LAG_MILLIS);
+	}
+
+	@Test
+	public void slowBulksShortenLinger() {
+		when(indexingPipeline.getBulkLatencyMillis()).thenReturn(0L);
+		assertEquals(TARGET_LAG_MILLIS, adaptiveBatcher.getLingerMillis(1));
+
+		when(indexingPipeline.getBulkLatencyMillis()).thenReturn(TARGET_LAG_MILLIS - 100);
+		assertEquals(100, adaptiveBatcher.getLingerMillis(1));
+
+		when(indexingPipeline.getBulkLatencyMillis()).thenReturn(TARGET_LAG_MILLIS * 2);
+		assertEquals(0, adaptiveBatcher.getLingerMillis(1));
+	}
+
+	@Test
+	public void batchSizeIsBounded() {
+		assertEquals(MIN_BATCH_SIZE, adaptiveBatcher.getBatchSize(1, 0));
+		assertEquals(MIN_BATCH_SIZE + 5, adaptiveBatcher.getBatchSize(MIN_BATCH_SIZE + 5, 0));
+		assertEquals(MAX_BATCH_SIZE, adaptiveBatcher.getBatchSize(MAX_BATCH_SIZE * 2, 0));
+	}
+
+	private void addEvents(int amount) {
+		for (int i = 0; i < amount; i++) {
+			eventsQueue.add(new StartEvent(Event.generateTaskId("adaptive_batcher"), "adaptive_batcher", LogParams.create(), null));
+		}
+	}
+}
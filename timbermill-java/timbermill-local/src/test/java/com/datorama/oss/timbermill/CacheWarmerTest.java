@@ -0,0 +1,84 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.cache.AbstractCacheHandler;
+import com.datorama.oss.timbermill.common.cache.CacheConfig;
+import com.datorama.oss.timbermill.common.cache.CacheHandlerUtil;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.Task;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CacheWarmerTest {
+
+	private ElasticsearchClient es;
+	private AbstractCacheHandler cacheHandler;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void init() {
+		es = mock(ElasticsearchClient.class);
+		cacheHandler = CacheHandlerUtil.getCacheHandler("local", new CacheConfig(null, 0, 1000000, 1000000));
+		when(es.streamRecentTasks(anyInt(), anyInt(), anyLong(), any())).thenAnswer(invocation -> {
+			Predicate<Map<String, Task>> pageConsumer = (Predicate<Map<String, Task>>) invocation.getArguments()[3];
+			int streamedTasks = 0;
+			for (String id : new String[]{"first", "second"}) {
+				streamedTasks++;
+				if (!pageConsumer.test(Collections.singletonMap(id, task("index_" + id, "indexed_" + id)))) {
+					break;
+				}
+			}
+			return streamedTasks;
+		});
+	}
+
+	@Test
+	public void recentTasksAreCached() {
+		assertEquals(2, new CacheWarmer(es, cacheHandler, 10, 60, 100).warmUp());
+
+		ParentInfo cachedTask = cacheHandler.logGetFromTasksCache(Collections.singletonList("first"), "test").get("first");
+		assertEquals("indexed_first", cachedTask.getName());
+		assertEquals("index_first", cachedTask.getIndex());
+		assertFalse(cachedTask.isKnownState());
+	}
+
+	@Test
+	public void tasksCachedByIngestionAreKept() {
+		cacheHandler.logPushToTasksCache(Collections.singletonMap("first", new ParentInfo(task("index", "ingested"))), "test");
+
+		assertEquals(1, new CacheWarmer(es, cacheHandler, 10, 60, 100).warmUp());
+
+		assertEquals("ingested", cacheHandler.logGetFromTasksCache(Collections.singletonList("first"), "test").get("first").getName());
+	}
+
+	@Test
+	public void closedWarmerStops() {
+		CacheWarmer cacheWarmer = new CacheWarmer(es, cacheHandler, 10, 60, 100);
+		cacheWarmer.close();
+
+		assertEquals(0, cacheWarmer.warmUp());
+		assertNull(cacheHandler.logGetFromTasksCache(Collections.singletonList("first"), "test").get("first"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void negativeBudgetIsRejected() {
+		new CacheWarmer(es, cacheHandler, -1, 60, 100);
+	}
+
+	private static Task task(String index, String name) {
+		Task task = new Task();
+		task.setIndex(index);
+		task.setName(name);
+		return task;
+	}
+}
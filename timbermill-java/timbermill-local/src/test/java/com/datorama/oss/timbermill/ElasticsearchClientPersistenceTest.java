@@ -36,7 +36,7 @@ public class ElasticsearchClientPersistenceTest {
 		}
 		elasticsearchClient = new ElasticsearchClient(elasticUrl, 1000, 1, null, null, null,
 				7, 100, 1000000000, 3, 3, 1000, null, 1,
-				1, 4000, null, 10, 60, 10000, 2);
+				1, 4000, null, 10, 60, 10000, 2, true, 300, 1000);
 	}
 
 	@Test
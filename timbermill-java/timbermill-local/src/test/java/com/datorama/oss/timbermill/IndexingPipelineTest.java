@@ -0,0 +1,130 @@
+package com.datorama.oss.timbermill;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class IndexingPipelineTest {
+
+	private static final int BATCHES = 50;
+	private static final String ENV = "env";
+
+	private TaskIndexer taskIndexer;
+	private IndexingPipeline indexingPipeline;
+	private final List<Long> enrichedBatches = new CopyOnWriteArrayList<>();
+	private final List<Long> sentBatches = new CopyOnWriteArrayList<>();
+	private final Map<BulkRequest, Long> bulkRequestToBatch = new ConcurrentHashMap<>();
+	private final CountDownLatch sendLatch = new CountDownLatch(1);
+
+	@Before
+	public void init() {
+		taskIndexer = mock(TaskIndexer.class);
+		doAnswer(invocation -> {
+			// Random delays so the threads of the multi threaded stages finish out of order
+			Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+			return null;
+		}).when(taskIndexer).buildTree(any(IndexingBatch.class));
+		doAnswer(invocation -> {
+			enrichedBatches.add(((IndexingBatch) invocation.getArguments()[0]).getSequence());
+			return null;
+		}).when(taskIndexer).enrichAndCache(any(IndexingBatch.class));
+		doAnswer(invocation -> {
+			IndexingBatch batch = (IndexingBatch) invocation.getArguments()[0];
+			Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+			BulkRequest bulkRequest = new BulkRequest();
+			bulkRequestToBatch.put(bulkRequest, batch.getSequence());
+			batch.setBulkRequestsPerLane(Collections.singletonList(Collections.singletonList(bulkRequest)));
+			return null;
+		}).when(taskIndexer).buildBulkRequests(any(IndexingBatch.class), anyInt());
+		doAnswer(invocation -> {
+			sendLatch.await();
+			sentBatches.add(bulkRequestToBatch.get((BulkRequest) invocation.getArguments()[1]));
+			return null;
+		}).when(taskIndexer).sendBulkRequest(any(IndexingBatch.class), any(BulkRequest.class), anyInt());
+		indexingPipeline = new IndexingPipeline(taskIndexer, 5, 4, 4, 4, 1, BATCHES);
+	}
+
+	@After
+	public void tearDown() {
+		indexingPipeline.close(0);
+	}
+
+	@Test
+	public void enrichWhileBulksAreInFlight() throws InterruptedException {
+		for (int i = 0; i < BATCHES; i++) {
+			indexingPipeline.submit(Collections.emptyList(), ENV);
+		}
+		waitFor(() -> enrichedBatches.size() == BATCHES);
+		assertTrue(sentBatches.isEmpty());
+
+		sendLatch.countDown();
+		waitFor(() -> indexingPipeline.getPendingBatches() == 0);
+		assertEquals(BATCHES, sentBatches.size());
+		verify(taskIndexer, times(BATCHES)).finishBatch(any(IndexingBatch.class));
+	}
+
+	@Test
+	public void batchesKeepTheirOrder() throws InterruptedException {
+		sendLatch.countDown();
+		for (int i = 0; i < BATCHES; i++) {
+			indexingPipeline.submit(Collections.emptyList(), ENV);
+		}
+		waitFor(() -> indexingPipeline.getPendingBatches() == 0);
+		assertEquals(BATCHES, enrichedBatches.size());
+		for (int i = 0; i < BATCHES; i++) {
+			assertEquals(i, enrichedBatches.get(i).longValue());
+			assertEquals(i, sentBatches.get(i).longValue());
+		}
+	}
+
+	@Test
+	public void failedBatchIsFinished() throws InterruptedException {
+		sendLatch.countDown();
+		doThrow(new RuntimeException("failed")).when(taskIndexer).buildTree(any(IndexingBatch.class));
+		indexingPipeline.submit(Collections.emptyList(), ENV);
+		waitFor(() -> indexingPipeline.getPendingBatches() == 0);
+		assertTrue(enrichedBatches.isEmpty());
+		verify(taskIndexer).finishBatch(any(IndexingBatch.class));
+	}
+
+	@Test
+	public void batchInterruptedBeforeSendingIsFinishedOnce() throws InterruptedException {
+		indexingPipeline.close(0);
+		indexingPipeline = new IndexingPipeline(taskIndexer, 5, 1, 1, 1, 1, 1);
+		indexingPipeline.submit(Collections.emptyList(), ENV);
+		indexingPipeline.submit(Collections.emptyList(), ENV);
+		// The first batch holds the only in flight permit, the second one waits for it
+		waitFor(() -> bulkRequestToBatch.size() == 2);
+		Thread.sleep(100);
+
+		indexingPipeline.close(0);
+		waitFor(() -> indexingPipeline.getPendingBatches() == 0);
+		Thread.sleep(100);
+		assertEquals(0, indexingPipeline.getPendingBatches());
+		verify(taskIndexer, times(2)).finishBatch(any(IndexingBatch.class));
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+}
@@ -0,0 +1,100 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import com.datorama.oss.timbermill.unit.Task;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up missing parents by id with a multi get and with the sliced scrolls used for large id sets, against the Elasticsearch at ELASTICSEARCH_URL.
+ * {@value #PARENTS} parents are indexed to an alias with {@value #SHARDS} shards, every lookup asks for a random sample of them plus as many ids that weren't indexed.
+ * Run its main method with the test classpath, the benchmark forks a JVM with the same classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MissingParentsLookupBenchmark {
+
+	private static final String DEFAULT_ELASTICSEARCH_URL = "http://localhost:9200";
+	private static final String ENV = "lookup_benchmark";
+	private static final int PARENTS = 10000;
+	private static final int SHARDS = 5;
+
+	@Param({"10", "100", "1000"})
+	private int idsAmount;
+
+	private ElasticsearchClient multiGetClient;
+	private ElasticsearchClient scrollClient;
+	private List<String> parentIds;
+	private Random random;
+
+	@Setup
+	public void setup() {
+		String elasticUrl = System.getenv("ELASTICSEARCH_URL");
+		if (StringUtils.isEmpty(elasticUrl)) {
+			elasticUrl = DEFAULT_ELASTICSEARCH_URL;
+		}
+		multiGetClient = createClient(elasticUrl, Integer.MAX_VALUE);
+		scrollClient = createClient(elasticUrl, 0);
+
+		String index = multiGetClient.getWriteIndex(ENV);
+		parentIds = new ArrayList<>(PARENTS);
+		Map<String, Task> tasksMap = new HashMap<>();
+		for (int i = 0; i < PARENTS; i++) {
+			String parentId = "parent_" + i;
+			parentIds.add(parentId);
+			tasksMap.put(parentId, new Task(Collections.singletonList(new StartEvent(parentId, "parent", LogParams.create().context("key", "value"), null)), index, 1, null));
+		}
+		multiGetClient.index(tasksMap);
+		random = new Random(0);
+	}
+
+	@TearDown
+	public void tearDown() {
+		multiGetClient.close();
+		scrollClient.close();
+	}
+
+	@Benchmark
+	public Map<String, Task> multiGet() {
+		return multiGetClient.getMissingParents(sampleIds(), ENV, new HashSet<>());
+	}
+
+	@Benchmark
+	public Map<String, Task> scroll() {
+		return scrollClient.getMissingParents(sampleIds(), ENV, new HashSet<>());
+	}
+
+	private Set<String> sampleIds() {
+		Set<String> ids = new HashSet<>();
+		while (ids.size() < idsAmount) {
+			ids.add(parentIds.get(random.nextInt(PARENTS)));
+			ids.add("missing_" + random.nextInt());
+		}
+		return ids;
+	}
+
+	private static ElasticsearchClient createClient(String elasticUrl, int multiGetMaxIds) {
+		return new ElasticsearchClient(elasticUrl, 1000000, SHARDS, null, null, null,
+				7, 100, 1000000000, 3, 3, 1000, null, SHARDS,
+				0, 4000, null, 100, 60, 10000, 2, true, 300, multiGetMaxIds);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(MissingParentsLookupBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,92 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.cache.AbstractCacheHandler;
+import com.datorama.oss.timbermill.common.cache.CacheConfig;
+import com.datorama.oss.timbermill.common.cache.CacheHandlerUtil;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import com.datorama.oss.timbermill.unit.Task;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adopts a chain of {@code depth} orphans once its root arrives, the way a long string of orphans sent over many batches is adopted.
+ * Every other link of the chain was cached by previous batches and the rest were received in the root's batch, so every level of the chain
+ * needs both the caches and the received tasks.
+ * Run its main method with the test classpath, the benchmark forks a JVM with the same classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParentResolverBenchmark {
+
+	private static final String ROOT_ID = "task_0";
+
+	@Param({"1000", "5000", "20000"})
+	private int depth;
+
+	private Map<String, Task> receivedTasksMap;
+	private AbstractCacheHandler cacheHandler;
+
+	@Setup(Level.Invocation)
+	public void setup() {
+		receivedTasksMap = Maps.newHashMap();
+		Task root = task(ROOT_ID, null);
+		root.setPrimaryId(ROOT_ID);
+		receivedTasksMap.put(ROOT_ID, root);
+		cacheHandler = CacheHandlerUtil.getCacheHandler("local", new CacheConfig(null, 0, Long.MAX_VALUE, Long.MAX_VALUE));
+		Map<String, ParentInfo> cachedTasks = Maps.newHashMap();
+		Map<String, List<String>> cachedOrphans = Maps.newHashMap();
+		for (int i = 1; i <= depth; i++) {
+			String taskId = "task_" + i;
+			String parentId = "task_" + (i - 1);
+			Task task = task(taskId, parentId);
+			task.setOrphan(true);
+			if (i % 2 == 1) {
+				cachedTasks.put(taskId, new ParentInfo(task));
+				cachedOrphans.put(parentId, Lists.newArrayList(taskId));
+			}
+			else {
+				receivedTasksMap.put(taskId, task);
+			}
+		}
+		cacheHandler.logPushToTasksCache(cachedTasks, "benchmark");
+		cacheHandler.logPushToOrphanCache(cachedOrphans, "benchmark");
+	}
+
+	@Benchmark
+	public Map<String, Task> resolveOrphans() {
+		ParentResolver resolver = new ParentResolver(receivedTasksMap, cacheHandler);
+		Map<String, Task> adoptedTasksMap = resolver.resolveOrphansOfCachedParents();
+		adoptedTasksMap.putAll(resolver.resolveOrphansReceived());
+		if (adoptedTasksMap.size() != depth) {
+			throw new IllegalStateException("Adopted " + adoptedTasksMap.size() + " of " + depth + " orphans");
+		}
+		return adoptedTasksMap;
+	}
+
+	private static Task task(String taskId, String parentId) {
+		return new Task(Collections.singletonList(new StartEvent(taskId, "name", LogParams.create().context("key", "value"), parentId)), "index", 1, null);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(ParentResolverBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,101 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.cache.AbstractCacheHandler;
+import com.datorama.oss.timbermill.common.cache.CacheConfig;
+import com.datorama.oss.timbermill.common.cache.CacheHandlerUtil;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import com.datorama.oss.timbermill.unit.Task;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ParentResolverTest {
+
+	private static final int DEPTH = 5000;
+
+	private AbstractCacheHandler cacheHandler;
+
+	@Before
+	public void init() {
+		cacheHandler = CacheHandlerUtil.getCacheHandler("local", new CacheConfig(null, 0, Long.MAX_VALUE, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void longChainOfCachedAndReceivedOrphansIsAdopted() {
+		Map<String, Task> receivedTasksMap = Maps.newHashMap();
+		Task root = task("task_0", null);
+		root.setPrimaryId("task_0");
+		root.getCtx().put("key", "value");
+		receivedTasksMap.put("task_0", root);
+		Map<String, ParentInfo> cachedTasks = Maps.newHashMap();
+		Map<String, List<String>> cachedOrphans = Maps.newHashMap();
+		for (int i = 1; i <= DEPTH; i++) {
+			String taskId = "task_" + i;
+			String parentId = "task_" + (i - 1);
+			Task task = orphan(taskId, parentId);
+			if (i % 2 == 1) {
+				cachedTasks.put(taskId, new ParentInfo(task));
+				cachedOrphans.put(parentId, Lists.newArrayList(taskId));
+			}
+			else {
+				receivedTasksMap.put(taskId, task);
+			}
+		}
+		cacheHandler.logPushToTasksCache(cachedTasks, "test");
+		cacheHandler.logPushToOrphanCache(cachedOrphans, "test");
+
+		Map<String, Task> adoptedTasksMap = resolve(receivedTasksMap);
+
+		assertEquals(DEPTH, adoptedTasksMap.size());
+		Task last = adoptedTasksMap.get("task_" + DEPTH);
+		assertFalse(last.isOrphan());
+		assertEquals("task_0", last.getPrimaryId());
+		assertEquals(DEPTH, last.getParentsPath().size());
+		assertEquals("value", last.getCtx().get("key"));
+		assertSame(receivedTasksMap.get("task_2"), adoptedTasksMap.get("task_2"));
+	}
+
+	@Test
+	public void receivedOrphansOfCachedParentAreAdopted() {
+		Task parent = task("parent", null);
+		parent.setPrimaryId("parent");
+		cacheHandler.logPushToTasksCache(Collections.singletonMap("parent", new ParentInfo(parent)), "test");
+		Map<String, Task> receivedTasksMap = Maps.newHashMap();
+		receivedTasksMap.put("child", orphan("child", "parent"));
+		receivedTasksMap.put("grandchild", orphan("grandchild", "child"));
+		receivedTasksMap.put("other", orphan("other", "missing"));
+
+		Map<String, Task> adoptedTasksMap = resolve(receivedTasksMap);
+
+		assertEquals(Lists.newArrayList("name", "name"), adoptedTasksMap.get("grandchild").getParentsPath());
+		assertEquals("parent", adoptedTasksMap.get("grandchild").getPrimaryId());
+		assertFalse(adoptedTasksMap.containsKey("other"));
+		assertTrue(receivedTasksMap.get("other").isOrphan());
+	}
+
+	private Map<String, Task> resolve(Map<String, Task> receivedTasksMap) {
+		ParentResolver resolver = new ParentResolver(receivedTasksMap, cacheHandler);
+		Map<String, Task> adoptedTasksMap = resolver.resolveOrphansOfCachedParents();
+		adoptedTasksMap.putAll(resolver.resolveOrphansReceived());
+		return adoptedTasksMap;
+	}
+
+	private static Task orphan(String taskId, String parentId) {
+		Task task = task(taskId, parentId);
+		task.setOrphan(true);
+		return task;
+	}
+
+	private static Task task(String taskId, String parentId) {
+		return new Task(Collections.singletonList(new StartEvent(taskId, "name", LogParams.create(), parentId)), "index", 1, null);
+	}
+}
@@ -0,0 +1,102 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.unit.Event;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders the start events of a 100k events batch, with the Swing tree {@link TaskIndexer} used to build and with {@link StartEventsTree}.
+ * Deep batches are chains of {@value #DEPTH} tasks, wide batches are roots with {@value #WIDTH} children each.
+ * Run with {@code mvn test-compile exec:java -Dexec.mainClass=com.datorama.oss.timbermill.StartEventsTreeBenchmark -Dexec.classpathScope=test},
+ * the gc profiler reports the allocation rate per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartEventsTreeBenchmark {
+
+	private static final int BATCH_SIZE = 100000;
+	private static final int DEPTH = 1000;
+	private static final int WIDTH = 1000;
+
+	@Param({"deep", "wide"})
+	private String shape;
+
+	private List<Event> events;
+
+	@Setup
+	public void setup() {
+		events = new ArrayList<>(BATCH_SIZE);
+		String parentId = null;
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			String taskId = "task_" + i;
+			boolean isRoot = shape.equals("deep") ? i % DEPTH == 0 : i % (WIDTH + 1) == 0;
+			if (isRoot) {
+				events.add(new StartEvent(taskId, "root", LogParams.create(), null));
+				parentId = taskId;
+			}
+			else {
+				events.add(new StartEvent(taskId, "child", LogParams.create(), parentId));
+				if (shape.equals("deep")) {
+					parentId = taskId;
+				}
+			}
+		}
+		// Events don't arrive in tree order
+		Collections.shuffle(events, new Random(0));
+	}
+
+	@Benchmark
+	public void swingTree(Blackhole blackhole) {
+		Map<String, DefaultMutableTreeNode> nodesMap = new HashMap<>();
+		for (Event event : events) {
+			nodesMap.put(event.getTaskId(), new DefaultMutableTreeNode(event));
+		}
+		for (DefaultMutableTreeNode treeNode : nodesMap.values()) {
+			String parentId = ((Event) treeNode.getUserObject()).getParentId();
+			if (parentId != null) {
+				DefaultMutableTreeNode parentNode = nodesMap.get(parentId);
+				if (parentNode != null) {
+					parentNode.add(treeNode);
+				}
+			}
+		}
+		for (DefaultMutableTreeNode node : nodesMap.values()) {
+			if (node.isRoot()) {
+				Enumeration enumeration = node.breadthFirstEnumeration();
+				while (enumeration.hasMoreElements()) {
+					blackhole.consume(((DefaultMutableTreeNode) enumeration.nextElement()).getUserObject());
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void startEventsTree(Blackhole blackhole) {
+		for (Event event : new StartEventsTree(events).getStartEventsByOrder()) {
+			blackhole.consume(event);
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(StartEventsTreeBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,78 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.unit.Event;
+import com.datorama.oss.timbermill.unit.InfoEvent;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class StartEventsTreeTest {
+
+	@Test
+	public void parentsComeBeforeChildren() {
+		List<Event> events = Arrays.asList(startEvent("grandchild", "child"), startEvent("child", "root"), startEvent("root", null), startEvent("sibling", "root"));
+		StartEventsTree tree = new StartEventsTree(events);
+
+		List<String> order = getOrder(tree);
+		assertEquals(4, order.size());
+		assertTrue(order.indexOf("root") < order.indexOf("child"));
+		assertTrue(order.indexOf("root") < order.indexOf("sibling"));
+		assertTrue(order.indexOf("child") < order.indexOf("grandchild"));
+		assertEquals("root", tree.getRoot("grandchild").getTaskId());
+		assertEquals("root", tree.getRoot("sibling").getTaskId());
+	}
+
+	@Test
+	public void treeIsRootedAtFirstEventInBatch() {
+		StartEventsTree tree = new StartEventsTree(Arrays.asList(startEvent("child", "parent"), startEvent("parent", "indexed")));
+
+		assertEquals("parent", tree.getRoot("child").getTaskId());
+		assertEquals("parent", tree.getRoot("parent").getTaskId());
+		assertNull(tree.getRoot("indexed"));
+		assertFalse(tree.contains("indexed"));
+	}
+
+	@Test
+	public void onlyStartEventsAreNodes() {
+		StartEventsTree tree = new StartEventsTree(Arrays.asList(startEvent("task", null), new InfoEvent("info", LogParams.create())));
+
+		assertTrue(tree.contains("task"));
+		assertFalse(tree.contains("info"));
+		assertEquals(1, getOrder(tree).size());
+	}
+
+	@Test
+	public void lastStartEventOfTaskIsKept() {
+		Event first = startEvent("task", null);
+		Event last = startEvent("task", null);
+		StartEventsTree tree = new StartEventsTree(Arrays.asList(first, last));
+
+		assertEquals(Arrays.asList(last), tree.getStartEventsByOrder());
+	}
+
+	@Test
+	public void circularParentsAreStillOrdered() {
+		List<Event> events = Arrays.asList(startEvent("a", "b"), startEvent("b", "a"), startEvent("c", "a"));
+		StartEventsTree tree = new StartEventsTree(events);
+
+		List<String> order = getOrder(tree);
+		assertEquals(3, order.size());
+		assertTrue(order.indexOf("a") < order.indexOf("c"));
+		assertEquals(tree.getRoot("a"), tree.getRoot("b"));
+		assertEquals(tree.getRoot("a"), tree.getRoot("c"));
+	}
+
+	private static List<String> getOrder(StartEventsTree tree) {
+		return tree.getStartEventsByOrder().stream().map(Event::getTaskId).collect(Collectors.toList());
+	}
+
+	private static Event startEvent(String taskId, String parentId) {
+		return new StartEvent(taskId, "name", LogParams.create(), parentId);
+	}
+}
@@ -0,0 +1,154 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.cache.AbstractCacheHandler;
+import com.datorama.oss.timbermill.common.cache.CacheConfig;
+import com.datorama.oss.timbermill.common.cache.CacheHandlerUtil;
+import com.datorama.oss.timbermill.unit.Event;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import com.datorama.oss.timbermill.unit.SuccessEvent;
+import com.datorama.oss.timbermill.unit.Task;
+import com.datorama.oss.timbermill.unit.TaskStatus;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TaskIndexerTest {
+
+	private static final String ENV = "env";
+	private static final String PARENT_ID = "parent";
+	private static final String TASK_ID = "task";
+
+	private ElasticsearchClient es;
+
+	@Before
+	public void init() {
+		es = mock(ElasticsearchClient.class);
+		when(es.getWriteIndex(ENV)).thenReturn("index");
+		when(es.getMissingParents(any(), anyString(), any())).thenReturn(Collections.emptyMap());
+	}
+
+	@Test
+	public void missingParentIsLookedUpOnce() {
+		TaskIndexer taskIndexer = createTaskIndexer(1000000);
+
+		taskIndexer.retrieveAndIndex(Collections.singletonList(childStartEvent("child1")), ENV);
+		taskIndexer.retrieveAndIndex(Collections.singletonList(childStartEvent("child2")), ENV);
+
+		verify(es, times(1)).getMissingParents(any(), anyString(), any());
+	}
+
+	@Test
+	public void cachedParentIsLookedUpAgain() {
+		// Nothing stays in the tasks cache, so the parent has to be looked up again once it was started
+		TaskIndexer taskIndexer = createTaskIndexer(1);
+
+		taskIndexer.retrieveAndIndex(Collections.singletonList(childStartEvent("child1")), ENV);
+		taskIndexer.retrieveAndIndex(Collections.singletonList(new StartEvent(PARENT_ID, "name", LogParams.create(), null)), ENV);
+		taskIndexer.retrieveAndIndex(Collections.singletonList(childStartEvent("child2")), ENV);
+
+		verify(es, times(2)).getMissingParents(any(), anyString(), any());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void failedLookupIsNotCached() {
+		when(es.getMissingParents(any(), anyString(), any())).thenAnswer(invocation -> {
+			Set<String> parentIds = (Set<String>) invocation.getArguments()[0];
+			((Set<String>) invocation.getArguments()[2]).addAll(parentIds);
+			return Collections.emptyMap();
+		});
+		TaskIndexer taskIndexer = createTaskIndexer(1000000);
+
+		taskIndexer.retrieveAndIndex(Collections.singletonList(childStartEvent("child1")), ENV);
+		taskIndexer.retrieveAndIndex(Collections.singletonList(childStartEvent("child2")), ENV);
+
+		verify(es, times(2)).getMissingParents(any(), anyString(), any());
+	}
+
+	@Test
+	public void updateOfCreatedTaskIsResolved() {
+		when(es.isScriptlessUpdates()).thenReturn(true);
+		TaskIndexer taskIndexer = createTaskIndexer(1000000);
+		IndexingBatch startBatch = enrichAndCache(taskIndexer, new StartEvent(TASK_ID, "name", LogParams.create(), null));
+		assertFalse(startBatch.getTasksMap().get(TASK_ID).isFullState());
+		when(es.sendBulkRequest(any(BulkRequest.class), anyInt())).thenReturn(bulkResponse(DocWriteResponse.Result.CREATED));
+		taskIndexer.sendBulkRequest(startBatch, new BulkRequest(), 1);
+
+		Task task = enrichAndCache(taskIndexer, new SuccessEvent(TASK_ID, LogParams.create())).getTasksMap().get(TASK_ID);
+
+		assertTrue(task.isFullState());
+		assertEquals(TaskStatus.SUCCESS, task.getStatus());
+	}
+
+	@Test
+	public void updateOfTaskWhoseDocumentExistedIsLeftToScript() {
+		when(es.isScriptlessUpdates()).thenReturn(true);
+		TaskIndexer taskIndexer = createTaskIndexer(1000000);
+		IndexingBatch startBatch = enrichAndCache(taskIndexer, new StartEvent(TASK_ID, "name", LogParams.create(), null));
+		when(es.sendBulkRequest(any(BulkRequest.class), anyInt())).thenReturn(bulkResponse(DocWriteResponse.Result.UPDATED));
+		taskIndexer.sendBulkRequest(startBatch, new BulkRequest(), 1);
+
+		Task task = enrichAndCache(taskIndexer, new SuccessEvent(TASK_ID, LogParams.create())).getTasksMap().get(TASK_ID);
+
+		assertFalse(task.isFullState());
+		assertEquals(TaskStatus.PARTIAL_SUCCESS, task.getStatus());
+	}
+
+	@Test
+	public void orphansAreCachedUnderTheLock() {
+		AbstractCacheHandler cacheHandler = spy(CacheHandlerUtil.getCacheHandler("local", new CacheConfig(null, 0, 1000000, 1000000)));
+		TaskIndexer taskIndexer = createTaskIndexer(cacheHandler);
+
+		enrichAndCache(taskIndexer, childStartEvent("child1"));
+
+		InOrder inOrder = inOrder(cacheHandler);
+		inOrder.verify(cacheHandler).lock();
+		inOrder.verify(cacheHandler).logPushToOrphanCache(any(), anyString());
+		inOrder.verify(cacheHandler).release();
+	}
+
+	private static IndexingBatch enrichAndCache(TaskIndexer taskIndexer, Event event) {
+		IndexingBatch batch = new IndexingBatch(0, Collections.singletonList(event), ENV);
+		taskIndexer.normalize(batch);
+		taskIndexer.buildTree(batch);
+		taskIndexer.enrichAndCache(batch);
+		return batch;
+	}
+
+	private static List<BulkResponse> bulkResponse(DocWriteResponse.Result result) {
+		UpdateResponse updateResponse = new UpdateResponse(new ShardId("index", "uuid", 0), ElasticsearchClient.TYPE, TASK_ID, 1, 1, 1, result);
+		BulkItemResponse itemResponse = new BulkItemResponse(0, DocWriteRequest.OpType.UPDATE, updateResponse);
+		return Collections.singletonList(new BulkResponse(new BulkItemResponse[]{itemResponse}, 1));
+	}
+
+	private TaskIndexer createTaskIndexer(long maximumTasksCacheWeight) {
+		CacheConfig cacheConfig = new CacheConfig(null, 0, maximumTasksCacheWeight, 1000000);
+		return createTaskIndexer(CacheHandlerUtil.getCacheHandler("local", cacheConfig));
+	}
+
+	private TaskIndexer createTaskIndexer(AbstractCacheHandler cacheHandler) {
+		return new TaskIndexer("[]", 1, es, "version", cacheHandler, 1, 0, 1, 100, 60);
+	}
+
+	private static Event childStartEvent(String taskId) {
+		return new StartEvent(taskId, "name", LogParams.create(), PARENT_ID);
+	}
+}
@@ -0,0 +1,94 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.unit.*;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TasksCoalescerTest {
+
+	private static final long WINDOW_MILLIS = 60000;
+
+	@Test
+	public void startAndSuccessAreIndexedAsOneTask() {
+		TasksCoalescer coalescer = new TasksCoalescer(WINDOW_MILLIS, 10);
+
+		assertTrue(coalescer.coalesce(tasksMap(new StartEvent("id", "name", LogParams.create().context("ctx", "value"), null))).isEmpty());
+		assertTrue(coalescer.hasHeldTasks());
+
+		Map<String, Task> tasksToIndex = coalescer.coalesce(tasksMap(new SuccessEvent("id", LogParams.create().string("string", "value"))));
+		Task task = tasksToIndex.get("id");
+		assertEquals(TaskStatus.SUCCESS, task.getStatus());
+		assertEquals("name", task.getName());
+		assertEquals("value", task.getCtx().get("ctx"));
+		assertEquals("value", task.getString().get("string"));
+		assertNotNull(task.getEndTime());
+		assertNotNull(task.getDuration());
+		assertFalse(coalescer.hasHeldTasks());
+	}
+
+	@Test
+	public void heldTasksAreReleasedOnceExpired() throws InterruptedException {
+		TasksCoalescer coalescer = new TasksCoalescer(1, 10);
+
+		assertTrue(coalescer.coalesce(tasksMap(new StartEvent("id", "name", LogParams.create(), null))).isEmpty());
+		Thread.sleep(5);
+
+		Map<String, Task> tasksToIndex = coalescer.coalesce(Collections.emptyMap());
+		assertEquals(TaskStatus.UNTERMINATED, tasksToIndex.get("id").getStatus());
+		assertFalse(coalescer.hasHeldTasks());
+	}
+
+	@Test
+	public void oldestTasksAreReleasedOverMaxTasks() {
+		TasksCoalescer coalescer = new TasksCoalescer(WINDOW_MILLIS, 1);
+
+		coalescer.coalesce(tasksMap(new StartEvent("first", "name", LogParams.create(), null)));
+		Map<String, Task> tasksToIndex = coalescer.coalesce(tasksMap(new StartEvent("second", "name", LogParams.create(), null)));
+
+		assertEquals(Collections.singleton("first"), tasksToIndex.keySet());
+	}
+
+	@Test
+	public void conflictingUpdateIsIndexedAfterHeldTask() {
+		TasksCoalescer coalescer = new TasksCoalescer(WINDOW_MILLIS, 10);
+
+		coalescer.coalesce(tasksMap(new StartEvent("id", "name", LogParams.create(), "parent")));
+		Map<String, Task> tasksToIndex = coalescer.coalesce(tasksMap(new StartEvent("id", "name", LogParams.create(), "other_parent")));
+		assertEquals("parent", tasksToIndex.get("id").getParentId());
+
+		tasksToIndex = coalescer.coalesce(Collections.emptyMap());
+		assertEquals("other_parent", tasksToIndex.get("id").getParentId());
+	}
+
+	@Test
+	public void disabledWindowHoldsNothing() {
+		TasksCoalescer coalescer = new TasksCoalescer(0, 10);
+
+		Map<String, Task> tasksMap = tasksMap(new StartEvent("id", "name", LogParams.create(), null));
+		assertSame(tasksMap, coalescer.coalesce(tasksMap));
+		assertFalse(coalescer.hasHeldTasks());
+	}
+
+	@Test
+	public void closedCoalescerReleasesAllTasks() {
+		TasksCoalescer coalescer = new TasksCoalescer(WINDOW_MILLIS, 10);
+
+		coalescer.coalesce(tasksMap(new StartEvent("held", "name", LogParams.create(), null)));
+		coalescer.close();
+		Map<String, Task> tasksToIndex = coalescer.coalesce(tasksMap(new StartEvent("new", "name", LogParams.create(), null)));
+
+		assertEquals(2, tasksToIndex.size());
+		assertFalse(coalescer.hasHeldTasks());
+	}
+
+	private static Map<String, Task> tasksMap(Event event) {
+		Map<String, Task> tasksMap = new HashMap<>();
+		tasksMap.put(event.getTaskId(), new Task(Collections.singletonList(event), "index", 1, null));
+		return tasksMap;
+	}
+}
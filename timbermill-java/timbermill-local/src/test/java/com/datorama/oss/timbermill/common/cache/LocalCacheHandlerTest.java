@@ -0,0 +1,93 @@
+package com.datorama.oss.timbermill.common.cache;
+
+import com.datorama.oss.timbermill.unit.*;
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LocalCacheHandlerTest {
+
+	private static final String ID = "id";
+
+	@Test
+	public void cachedTaskIsReadBack() {
+		assertCachedTaskIsReadBack(false);
+	}
+
+	@Test
+	public void compressedCachedTaskIsReadBack() {
+		assertCachedTaskIsReadBack(true);
+	}
+
+	@Test
+	public void missingTaskIsNull() {
+		Map<String, ParentInfo> tasks = cacheHandler(false, Long.MAX_VALUE).getFromTasksCache(Collections.singletonList(ID));
+		assertTrue(tasks.containsKey(ID));
+		assertNull(tasks.get(ID));
+	}
+
+	@Test
+	public void orphansAreAppendedAndPulledOnce() {
+		AbstractCacheHandler cacheHandler = cacheHandler(false, Long.MAX_VALUE);
+		cacheHandler.pushToOrphanCache(Collections.singletonMap("parent", Collections.singletonList("orphan1")));
+		cacheHandler.pushToOrphanCache(Collections.singletonMap("parent", Collections.singletonList("orphan2")));
+
+		assertEquals(Arrays.asList("orphan1", "orphan2"), cacheHandler.pullFromOrphansCache(Collections.singletonList("parent")).get("parent"));
+		assertTrue(cacheHandler.pullFromOrphansCache(Collections.singletonList("parent")).isEmpty());
+	}
+
+	@Test
+	public void compressedTaskTakesLessWeight() {
+		Task task = task(new StartEvent(ID, "name", LogParams.create().context("key", Strings.repeat("value", 4000)), null));
+
+		// The task weighs over 20000 without compression, more than a segment of the cache can hold
+		AbstractCacheHandler cacheHandler = cacheHandler(false, 40000);
+		cacheHandler.pushToTasksCache(Collections.singletonMap(ID, new ParentInfo(task)));
+		assertNull(cacheHandler.getFromTasksCache(Collections.singletonList(ID)).get(ID));
+
+		AbstractCacheHandler compressingCacheHandler = cacheHandler(true, 40000);
+		compressingCacheHandler.pushToTasksCache(Collections.singletonMap(ID, new ParentInfo(task)));
+		assertEquals(task.getCtx(), compressingCacheHandler.getFromTasksCache(Collections.singletonList(ID)).get(ID).getCtx());
+	}
+
+	private void assertCachedTaskIsReadBack(boolean compress) {
+		Task task = task(new StartEvent(ID, "name", LogParams.create().context("key", Strings.repeat("value", 100)), "parent"),
+				new SuccessEvent(ID, LogParams.create()));
+		task.setPrimaryId("primary");
+		task.setParentsPath(Arrays.asList("grandparent", "parent"));
+		task.setOrphan(false);
+		AbstractCacheHandler cacheHandler = cacheHandler(compress, Long.MAX_VALUE);
+
+		ParentInfo parentInfo = new ParentInfo(task);
+		parentInfo.setKnownState(true);
+		cacheHandler.pushToTasksCache(Collections.singletonMap(ID, parentInfo));
+		ParentInfo cachedTask = cacheHandler.getFromTasksCache(Collections.singletonList(ID)).get(ID);
+
+		assertEquals("index", cachedTask.getIndex());
+		assertEquals("name", cachedTask.getName());
+		assertEquals(TaskStatus.SUCCESS, cachedTask.getStatus());
+		assertEquals("parent", cachedTask.getParentId());
+		assertEquals("primary", cachedTask.getPrimaryId());
+		assertEquals(task.getParentsPath(), cachedTask.getParentsPath());
+		assertEquals(task.getCtx(), cachedTask.getCtx());
+		assertEquals(task.getStartTime(), cachedTask.getStartTime());
+		assertEquals(task.getEndTime(), cachedTask.getEndTime());
+		assertEquals(task.getDuration(), cachedTask.getDuration());
+		assertEquals(task.getDateToDelete(), cachedTask.getDateToDelete());
+		assertFalse(cachedTask.isOrphan());
+		assertTrue(cachedTask.isKnownState());
+	}
+
+	private static AbstractCacheHandler cacheHandler(boolean compress, long maximumTasksCacheWeight) {
+		return CacheHandlerUtil.getCacheHandler("local", new CacheConfig(null, 0, maximumTasksCacheWeight, Long.MAX_VALUE, compress));
+	}
+
+	private static Task task(Event... events) {
+		return new Task(Arrays.asList(events), "index", 1, null);
+	}
+}
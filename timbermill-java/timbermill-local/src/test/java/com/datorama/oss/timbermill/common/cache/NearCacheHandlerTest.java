@@ -0,0 +1,101 @@
+package com.datorama.oss.timbermill.common.cache;
+
+import com.datorama.oss.timbermill.common.redis.RedisService;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import com.datorama.oss.timbermill.unit.Task;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class NearCacheHandlerTest {
+
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	private String id;
+	private RedisService redisService;
+	private NearCacheHandler node;
+	private NearCacheHandler otherNode;
+
+	@Before
+	public void init() throws InterruptedException {
+		id = "near_cache_test_" + UUID.randomUUID();
+		redisService = redisService();
+		node = subscribedNode();
+		otherNode = subscribedNode();
+	}
+
+	@After
+	public void tearDown() {
+		redisService.deleteFromRedis(Collections.singletonList(RedisCacheHandler.taskKey(id)));
+		redisService.close();
+		node.close();
+		otherNode.close();
+	}
+
+	@Test
+	public void pushedTaskIsReadFromNearCache() throws InterruptedException {
+		node.pushToTasksCache(Collections.singletonMap(id, parentInfo("parent")));
+		// Its own invalidation must not drop the task
+		Thread.sleep(500);
+		redisService.deleteFromRedis(Collections.singletonList(RedisCacheHandler.taskKey(id)));
+
+		assertEquals("parent", getParentId(node));
+		assertNull(otherNode.getFromTasksCache(Collections.singletonList(id), "test").get(id));
+	}
+
+	@Test
+	public void taskReadFromRedisIsKeptInNearCache() throws InterruptedException {
+		otherNode.pushToTasksCache(Collections.singletonMap(id, parentInfo("parent")));
+		// A task invalidated while it was read isn't kept
+		Thread.sleep(500);
+		assertEquals("parent", getParentId(node));
+
+		redisService.deleteFromRedis(Collections.singletonList(RedisCacheHandler.taskKey(id)));
+
+		assertEquals("parent", getParentId(node));
+	}
+
+	@Test
+	public void taskPushedByOtherNodeIsInvalidated() throws InterruptedException {
+		node.pushToTasksCache(Collections.singletonMap(id, parentInfo("parent")));
+
+		otherNode.pushToTasksCache(Collections.singletonMap(id, parentInfo("other_parent")));
+
+		long start = System.currentTimeMillis();
+		while (!"other_parent".equals(getParentId(node))) {
+			assertTrue("Task wasn't invalidated", System.currentTimeMillis() - start < TIMEOUT_MILLIS);
+			Thread.sleep(50);
+		}
+	}
+
+	private String getParentId(NearCacheHandler cacheHandler) {
+		ParentInfo parentInfo = cacheHandler.getFromTasksCache(Collections.singletonList(id), "test").get(id);
+		return parentInfo == null ? null : parentInfo.getParentId();
+	}
+
+	private static NearCacheHandler subscribedNode() throws InterruptedException {
+		CacheConfig cacheConfig = new CacheConfig(redisService(), 60, 0, 0, false, null, 1000000, 60);
+		NearCacheHandler cacheHandler = (NearCacheHandler) CacheHandlerUtil.getCacheHandler("redis", cacheConfig);
+		long start = System.currentTimeMillis();
+		while (!cacheHandler.isSubscribed()) {
+			assertTrue("Near cache didn't subscribe to invalidations", System.currentTimeMillis() - start < TIMEOUT_MILLIS);
+			Thread.sleep(50);
+		}
+		return cacheHandler;
+	}
+
+	private static RedisService redisService() {
+		return new RedisService("localhost", 6379, "", "", "", false, 100, 1, 10, 10, 3);
+	}
+
+	private static ParentInfo parentInfo(String parentId) {
+		return new ParentInfo(new Task(Collections.singletonList(new StartEvent("id", "name", LogParams.create(), parentId)), "index", 1, null));
+	}
+}
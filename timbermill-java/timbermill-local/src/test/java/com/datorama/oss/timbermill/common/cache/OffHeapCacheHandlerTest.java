@@ -0,0 +1,127 @@
+package com.datorama.oss.timbermill.common.cache;
+
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import com.datorama.oss.timbermill.unit.Task;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OffHeapCacheHandlerTest {
+
+	private static final long WEIGHT = 1000000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private OffHeapCacheHandler cacheHandler;
+
+	@After
+	public void tearDown() {
+		if (cacheHandler != null) {
+			cacheHandler.close();
+		}
+	}
+
+	@Test
+	public void cachedTaskIsReadBack() {
+		cacheHandler = cacheHandler(WEIGHT);
+		cacheHandler.pushToTasksCache(Collections.singletonMap("id", parentInfo("id", "parent")));
+
+		Map<String, ParentInfo> tasks = cacheHandler.getFromTasksCache(Lists.newArrayList("id", "missing"));
+
+		assertEquals("parent", tasks.get("id").getParentId());
+		assertEquals("value", tasks.get("id").getCtx().get("key"));
+		assertTrue(tasks.containsKey("missing"));
+		assertNull(tasks.get("missing"));
+	}
+
+	@Test
+	public void latestTaskIsReadBack() {
+		cacheHandler = cacheHandler(WEIGHT);
+		cacheHandler.pushToTasksCache(Collections.singletonMap("id", parentInfo("id", "parent")));
+		cacheHandler.pushToTasksCache(Collections.singletonMap("id", parentInfo("id", "other_parent")));
+
+		assertEquals("other_parent", cacheHandler.getFromTasksCache(Collections.singletonList("id")).get("id").getParentId());
+	}
+
+	@Test
+	public void orphansArePulledOnce() {
+		cacheHandler = cacheHandler(WEIGHT);
+		cacheHandler.pushToOrphanCache(Collections.singletonMap("parent", Lists.newArrayList("orphan1")));
+		cacheHandler.pushToOrphanCache(Collections.singletonMap("parent", Lists.newArrayList("orphan2")));
+
+		Map<String, List<String>> orphans = cacheHandler.pullFromOrphansCache(Lists.newArrayList("parent", "other_parent"));
+
+		assertEquals(Collections.singletonMap("parent", Lists.newArrayList("orphan1", "orphan2")), orphans);
+		assertTrue(cacheHandler.pullFromOrphansCache(Collections.singletonList("parent")).isEmpty());
+	}
+
+	@Test
+	public void cacheSurvivesReopening() {
+		cacheHandler = cacheHandler(WEIGHT);
+		cacheHandler.pushToTasksCache(Collections.singletonMap("id", parentInfo("id", "parent")));
+		cacheHandler.pushToOrphanCache(Collections.singletonMap("parent", Lists.newArrayList("orphan")));
+		cacheHandler.close();
+
+		cacheHandler = cacheHandler(WEIGHT);
+
+		assertEquals("parent", cacheHandler.getFromTasksCache(Collections.singletonList("id")).get("id").getParentId());
+		assertEquals(Lists.newArrayList("orphan"), cacheHandler.pullFromOrphansCache(Collections.singletonList("parent")).get("parent"));
+	}
+
+	@Test
+	public void cacheIsDroppedWhenReopenedWithOtherSize() {
+		cacheHandler = cacheHandler(WEIGHT);
+		cacheHandler.pushToTasksCache(Collections.singletonMap("id", parentInfo("id", "parent")));
+		cacheHandler.close();
+
+		cacheHandler = cacheHandler(2 * WEIGHT);
+
+		assertNull(cacheHandler.getFromTasksCache(Collections.singletonList("id")).get("id"));
+	}
+
+	@Test
+	public void oldestTasksAreEvicted() {
+		cacheHandler = cacheHandler(10000);
+		for (int i = 0; i < 1000; i++) {
+			String id = "id_" + i;
+			cacheHandler.pushToTasksCache(Collections.singletonMap(id, parentInfo(id, "parent")));
+		}
+
+		Map<String, ParentInfo> tasks = cacheHandler.getFromTasksCache(Lists.newArrayList("id_0", "id_999"));
+
+		assertNull(tasks.get("id_0"));
+		assertEquals("id_999", tasks.get("id_999").getName());
+	}
+
+	@Test
+	public void tooLargeTaskIsNotCached() {
+		cacheHandler = cacheHandler(1000);
+		ParentInfo task = parentInfo("id", "parent");
+		task.getCtx().put("large", new String(new char[2000]).replace('\0', 'a'));
+
+		cacheHandler.pushToTasksCache(Collections.singletonMap("id", task));
+
+		assertNull(cacheHandler.getFromTasksCache(Collections.singletonList("id")).get("id"));
+	}
+
+	private OffHeapCacheHandler cacheHandler(long weight) {
+		CacheConfig cacheConfig = new CacheConfig(null, 0, weight, weight, false, folder.getRoot().getAbsolutePath());
+		return (OffHeapCacheHandler) CacheHandlerUtil.getCacheHandler("offheap", cacheConfig);
+	}
+
+	private static ParentInfo parentInfo(String id, String parentId) {
+		Task task = new Task(Collections.singletonList(new StartEvent(id, id, LogParams.create().context("key", "value"), parentId)), "index", 1, null);
+		return new ParentInfo(task);
+	}
+}
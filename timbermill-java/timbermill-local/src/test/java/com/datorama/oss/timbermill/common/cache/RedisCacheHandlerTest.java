@@ -0,0 +1,107 @@
+package com.datorama.oss.timbermill.common.cache;
+
+import com.datorama.oss.timbermill.common.redis.RedisService;
+import com.datorama.oss.timbermill.unit.*;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RedisCacheHandlerTest {
+
+	private String parentId;
+	private RedisService redisService;
+	private RedisCacheHandler cacheHandler;
+
+	@Before
+	public void init() {
+		parentId = "parent_" + UUID.randomUUID();
+		redisService = new RedisService("localhost", 6379, "", "", "", false, 100, 10, 10, 10, 3);
+		cacheHandler = (RedisCacheHandler) CacheHandlerUtil.getCacheHandler("redis", new CacheConfig(redisService, 60, 0, 0));
+	}
+
+	@After
+	public void tearDown() {
+		cacheHandler.pullFromOrphansCache(Collections.singletonList(parentId));
+		cacheHandler.close();
+	}
+
+	@Test
+	public void tasksAreReadBack() {
+		Task task = new Task(Collections.singletonList(new StartEvent(parentId, "name", LogParams.create().context("key", "value"), "grandparent")), "index", 1, null);
+		ParentInfo parentInfo = new ParentInfo(task);
+		parentInfo.setKnownState(true);
+		cacheHandler.pushToTasksCache(Collections.singletonMap(parentId, parentInfo));
+
+		Map<String, ParentInfo> cachedTasks = cacheHandler.getFromTasksCache(Lists.newArrayList(parentId, "other_" + parentId));
+
+		assertEquals(Collections.singleton(parentId), cachedTasks.keySet());
+		ParentInfo cachedTask = cachedTasks.get(parentId);
+		assertEquals("name", cachedTask.getName());
+		assertEquals("grandparent", cachedTask.getParentId());
+		assertEquals("value", cachedTask.getCtx().get("key"));
+		assertEquals(TaskStatus.UNTERMINATED, cachedTask.getStatus());
+		assertEquals(task.getStartTime(), cachedTask.getStartTime());
+		assertTrue(cachedTask.isKnownState());
+	}
+
+	@Test
+	public void orphansAreAppended() {
+		cacheHandler.pushToOrphanCache(Collections.singletonMap(parentId, Lists.newArrayList("orphan1", "orphan2")));
+		cacheHandler.pushToOrphanCache(Collections.singletonMap(parentId, Lists.newArrayList("orphan2", "orphan3")));
+
+		Map<String, List<String>> orphans = cacheHandler.pullFromOrphansCache(Lists.newArrayList(parentId, "other_" + parentId));
+
+		assertEquals(Collections.singleton(parentId), orphans.keySet());
+		assertEquals(Sets.newHashSet("orphan1", "orphan2", "orphan3"), new HashSet<>(orphans.get(parentId)));
+	}
+
+	@Test
+	public void orphansOfOlderVersionsArePulledOnce() {
+		redisService.pushToRedis(Collections.singletonMap("orphan###" + parentId, Lists.newArrayList("orphan1")), 60);
+		cacheHandler.pushToOrphanCache(Collections.singletonMap(parentId, Lists.newArrayList("orphan2")));
+
+		assertEquals(Sets.newHashSet("orphan1", "orphan2"), new HashSet<>(cacheHandler.pullFromOrphansCache(Collections.singletonList(parentId)).get(parentId)));
+		assertTrue(cacheHandler.pullFromOrphansCache(Collections.singletonList(parentId)).isEmpty());
+	}
+
+	@Test
+	public void orphansArePulledOnce() {
+		cacheHandler.pushToOrphanCache(Collections.singletonMap(parentId, Lists.newArrayList("orphan")));
+
+		assertEquals(Lists.newArrayList("orphan"), cacheHandler.pullFromOrphansCache(Collections.singletonList(parentId)).get(parentId));
+		assertTrue(cacheHandler.pullFromOrphansCache(Collections.singletonList(parentId)).isEmpty());
+	}
+
+	@Test
+	public void concurrentAppendsAreKept() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int i = 0; i < 100; i++) {
+			String orphanId = "orphan" + i;
+			executor.submit(() -> cacheHandler.pushToOrphanCache(Collections.singletonMap(parentId, Lists.newArrayList(orphanId))));
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+		assertEquals(100, cacheHandler.pullFromOrphansCache(Collections.singletonList(parentId)).get(parentId).size());
+	}
+
+	@Test
+	public void largeOrphansListIsAppended() {
+		List<String> orphansIds = Lists.newArrayList();
+		for (int i = 0; i < 10000; i++) {
+			orphansIds.add("orphan" + i);
+		}
+		cacheHandler.pushToOrphanCache(Collections.singletonMap(parentId, orphansIds));
+
+		assertEquals(10000, cacheHandler.pullFromOrphansCache(Collections.singletonList(parentId)).get(parentId).size());
+	}
+}
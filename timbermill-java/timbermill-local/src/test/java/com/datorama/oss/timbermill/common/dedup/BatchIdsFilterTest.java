@@ -0,0 +1,55 @@
+package com.datorama.oss.timbermill.common.dedup;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public abstract class BatchIdsFilterTest {
+
+    private static final long WINDOW_MILLIS = 1000;
+    private static final int EXPECTED_BATCHES = 10000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    protected abstract BatchIdsFilter createBatchIdsFilter(long windowMillis, long expectedBatchesPerWindow, double falsePositiveRate);
+
+    public void resentBatchIsDuplicate() {
+        BatchIdsFilter batchIdsFilter = createBatchIdsFilter(WINDOW_MILLIS * 60, EXPECTED_BATCHES, FALSE_POSITIVE_RATE);
+        String batchId = UUID.randomUUID().toString();
+        assertFalse(batchIdsFilter.isDuplicate(batchId));
+        assertTrue(batchIdsFilter.isDuplicate(batchId));
+        assertFalse(batchIdsFilter.isDuplicate(UUID.randomUUID().toString()));
+    }
+
+    public void batchIsRememberedForAtLeastOneWindow() throws InterruptedException {
+        BatchIdsFilter batchIdsFilter = createBatchIdsFilter(WINDOW_MILLIS, EXPECTED_BATCHES, FALSE_POSITIVE_RATE);
+        String batchId = UUID.randomUUID().toString();
+        assertFalse(batchIdsFilter.isDuplicate(batchId));
+        Thread.sleep(WINDOW_MILLIS);
+        assertTrue(batchIdsFilter.isDuplicate(batchId));
+    }
+
+    public void batchIsForgottenAfterTwoWindows() throws InterruptedException {
+        BatchIdsFilter batchIdsFilter = createBatchIdsFilter(WINDOW_MILLIS, EXPECTED_BATCHES, FALSE_POSITIVE_RATE);
+        String batchId = UUID.randomUUID().toString();
+        assertFalse(batchIdsFilter.isDuplicate(batchId));
+        Thread.sleep(WINDOW_MILLIS * 2);
+        assertFalse(batchIdsFilter.isDuplicate(batchId));
+    }
+
+    public void falsePositiveRateIsBounded() {
+        BatchIdsFilter batchIdsFilter = createBatchIdsFilter(WINDOW_MILLIS * 60, EXPECTED_BATCHES, FALSE_POSITIVE_RATE);
+        int newBatches = 1000;
+        for (int i = 0; i < EXPECTED_BATCHES - newBatches; i++) {
+            batchIdsFilter.isDuplicate(UUID.randomUUID().toString());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < newBatches; i++) {
+            if (batchIdsFilter.isDuplicate(UUID.randomUUID().toString())) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < newBatches * FALSE_POSITIVE_RATE * 2);
+        assertTrue(batchIdsFilter.getExpectedFalsePositiveRate(batchIdsFilter.getCurrentGeneration()) < FALSE_POSITIVE_RATE * 2);
+    }
+}
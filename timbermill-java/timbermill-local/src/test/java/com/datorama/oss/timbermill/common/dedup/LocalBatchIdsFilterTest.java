@@ -0,0 +1,31 @@
+package com.datorama.oss.timbermill.common.dedup;
+
+import org.junit.Test;
+
+public class LocalBatchIdsFilterTest extends BatchIdsFilterTest {
+
+    @Override
+    protected BatchIdsFilter createBatchIdsFilter(long windowMillis, long expectedBatchesPerWindow, double falsePositiveRate) {
+        return new LocalBatchIdsFilter(windowMillis, expectedBatchesPerWindow, falsePositiveRate);
+    }
+
+    @Test
+    public void resentBatchIsDuplicate() {
+        super.resentBatchIsDuplicate();
+    }
+
+    @Test
+    public void batchIsRememberedForAtLeastOneWindow() throws InterruptedException {
+        super.batchIsRememberedForAtLeastOneWindow();
+    }
+
+    @Test
+    public void batchIsForgottenAfterTwoWindows() throws InterruptedException {
+        super.batchIsForgottenAfterTwoWindows();
+    }
+
+    @Test
+    public void falsePositiveRateIsBounded() {
+        super.falsePositiveRateIsBounded();
+    }
+}
@@ -0,0 +1,41 @@
+package com.datorama.oss.timbermill.common.dedup;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.datorama.oss.timbermill.common.redis.RedisService;
+
+public class RedisBatchIdsFilterTest extends BatchIdsFilterTest {
+
+    private static RedisService redisService;
+
+    @BeforeClass
+    public static void init() {
+        redisService = new RedisService("localhost", 6379, "", "", "", false, 100, 10, 10, 10, 3);
+    }
+
+    @Override
+    protected BatchIdsFilter createBatchIdsFilter(long windowMillis, long expectedBatchesPerWindow, double falsePositiveRate) {
+        return new RedisBatchIdsFilter(redisService, windowMillis, expectedBatchesPerWindow, falsePositiveRate);
+    }
+
+    @Test
+    public void resentBatchIsDuplicate() {
+        super.resentBatchIsDuplicate();
+    }
+
+    @Test
+    public void batchIsRememberedForAtLeastOneWindow() throws InterruptedException {
+        super.batchIsRememberedForAtLeastOneWindow();
+    }
+
+    @Test
+    public void batchIsForgottenAfterTwoWindows() throws InterruptedException {
+        super.batchIsForgottenAfterTwoWindows();
+    }
+
+    @Test
+    public void falsePositiveRateIsBounded() {
+        super.falsePositiveRateIsBounded();
+    }
+}
@@ -0,0 +1,33 @@
+package com.datorama.oss.timbermill.common.persistence;
+
+import com.datorama.oss.timbermill.common.redis.RedisService;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the Redis persistence tests against the Redis cluster in REDIS_CLUSTER_NODES, skipped when it isn't set.
+ * A local cluster is started by src/test/resources/redis-cluster/docker-compose.yml, with REDIS_CLUSTER_NODES=localhost:7000.
+ */
+public class RedisClusterPersistenceHandlerTest extends RedisPersistenceHandlerTest {
+    private static final int maxFetchedInOneTime = 10;
+    private static final int maxInsertRetries = 3;
+    private static final int TTL = 86400;
+
+    @BeforeClass
+    public static void init()  {
+        String redisClusterNodes = System.getenv("REDIS_CLUSTER_NODES");
+        Assume.assumeTrue("REDIS_CLUSTER_NODES is not set", !StringUtils.isEmpty(redisClusterNodes));
+        Map<String, Object> persistenceHandlerParams = new HashMap<>();
+        persistenceHandlerParams.put(PersistenceHandler.MAX_FETCHED_BULKS_IN_ONE_TIME, maxFetchedInOneTime);
+        persistenceHandlerParams.put(PersistenceHandler.MAX_FETCHED_EVENTS_IN_ONE_TIME, maxFetchedInOneTime);
+        persistenceHandlerParams.put(PersistenceHandler.MAX_INSERT_TRIES, maxInsertRetries);
+        persistenceHandlerParams.put(RedisPersistenceHandler.TTL, TTL);
+        persistenceHandlerParams.put(RedisPersistenceHandler.REDIS_SERVICE, new RedisService(null, 0, redisClusterNodes, "", "", "",
+                false, 100, 10, 10, 10, 3));
+        PersistenceHandlerTest.init(persistenceHandlerParams, "redis");
+    }
+}
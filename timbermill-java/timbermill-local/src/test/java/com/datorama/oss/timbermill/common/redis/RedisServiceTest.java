@@ -0,0 +1,198 @@
+package com.datorama.oss.timbermill.common.redis;
+
+import com.github.jedis.lock.JedisLock;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a cluster of two nodes, on ports 6379 and 6380, that each serve half of the slots. Both nodes are the local Redis.
+ */
+public class RedisServiceTest {
+
+	private static final String SCRIPT =
+			"local results = {}\n" +
+			"for i, key in ipairs(KEYS) do\n" +
+			"  results[i] = ARGV[1] .. key\n" +
+			"end\n" +
+			"return results";
+
+	private final Map<Integer, AtomicInteger> borrowedConnections = Maps.newConcurrentMap();
+	private String prefix;
+	private RedisService redisService;
+
+	@Before
+	public void init() {
+		prefix = UUID.randomUUID().toString();
+		RedisNodes nodes = new RedisNodes(Sets.newHashSet(new HostAndPort("localhost", 6379)), node -> new CountingPool(node.getPort()), jedis -> {
+			List<Object> slotsRanges = new ArrayList<>();
+			slotsRanges.add(slotsRange(0, 8191, 6379));
+			slotsRanges.add(slotsRange(8192, 16383, 6380));
+			return slotsRanges;
+		});
+		redisService = new RedisService(nodes, "", "", 100, 3);
+	}
+
+	@After
+	public void tearDown() {
+		redisService.close();
+	}
+
+	@Test
+	public void keysAreReadFromEveryNode() {
+		Map<String, String> values = Maps.newHashMap();
+		for (int i = 0; i < 1000; i++) {
+			values.put(prefix + i, "value" + i);
+		}
+
+		assertTrue(redisService.pushToRedis(values, 60));
+		Map<String, String> readValues = redisService.getFromRedis(values.keySet());
+		redisService.deleteFromRedis(values.keySet());
+
+		assertEquals(values, readValues);
+		assertTrue(redisService.getFromRedis(values.keySet()).isEmpty());
+		assertTrue(borrowedConnections.get(6379).get() > 0);
+		assertTrue(borrowedConnections.get(6380).get() > 0);
+	}
+
+	@Test
+	public void scriptIsRunOnEveryKey() throws Exception {
+		Map<String, List<String>> keysArgs = Maps.newHashMap();
+		for (int i = 0; i < 1000; i++) {
+			keysArgs.put(prefix + i, Collections.emptyList());
+		}
+
+		Map<String, Object> results = redisService.evalScript(SCRIPT, keysArgs, Collections.singletonList("result_"), 10);
+
+		assertEquals(keysArgs.keySet(), results.keySet());
+		results.forEach((key, result) -> assertEquals("result_" + key, result));
+	}
+
+	@Test
+	public void listsAndLocksUseTheirKeysNode() {
+		String listName = "{" + prefix + "}list";
+		assertTrue(redisService.pushToRedisList(listName, "first"));
+		assertTrue(redisService.pushToRedisList(listName, "second"));
+		assertEquals(2, redisService.getListLength(listName));
+		assertEquals(Lists.newArrayList("first", "second"), redisService.popFromRedisList(listName, 5));
+
+		JedisLock lock = redisService.lockIfUnlocked(prefix + "lock");
+		assertNotNull(lock);
+		assertNull(redisService.lockIfUnlocked(prefix + "lock"));
+		redisService.release(lock);
+		lock = redisService.lockIfUnlocked(prefix + "lock");
+		assertNotNull(lock);
+		redisService.release(lock);
+	}
+
+	@Test
+	public void migratingKeysAreAskedForOnTheirTargetNode() {
+		AtomicInteger slotsFetches = new AtomicInteger();
+		RedisNodes nodes = new RedisNodes(Sets.newHashSet(new HostAndPort("localhost", 6379)), node -> new MigratingPool(node.getPort()), jedis -> {
+			slotsFetches.incrementAndGet();
+			return Collections.singletonList(slotsRange(0, 16383, 6379));
+		});
+		RedisService migratingService = new RedisService(nodes, "", "", 100, 3);
+		String listName = "{" + prefix + "}list";
+		try {
+			assertTrue(migratingService.pushToRedisList(listName, "first"));
+			assertEquals(1, migratingService.getListLength(listName));
+			assertEquals(1, slotsFetches.get());
+			assertTrue(borrowedConnections.get(6380).get() > 0);
+		} finally {
+			redisService.popFromRedisList(listName, 1);
+			migratingService.close();
+		}
+	}
+
+	private static List<Object> slotsRange(long first, long last, long port) {
+		return Lists.newArrayList(first, last, Lists.newArrayList("localhost".getBytes(), port));
+	}
+
+	private class CountingPool extends JedisPool {
+
+		private final AtomicInteger borrows;
+
+		CountingPool(int port) {
+			super("localhost", 6379);
+			borrows = borrowedConnections.computeIfAbsent(port, p -> new AtomicInteger());
+		}
+
+		@Override
+		public Jedis getResource() {
+			borrows.incrementAndGet();
+			return super.getResource();
+		}
+	}
+
+	/**
+	 * A node on port 6379 whose keys are all migrating to the node on port 6380, which only lets in asked commands.
+	 */
+	private class MigratingPool extends JedisPool {
+
+		private final int port;
+
+		MigratingPool(int port) {
+			this.port = port;
+		}
+
+		@Override
+		public Jedis getResource() {
+			borrowedConnections.computeIfAbsent(port, p -> new AtomicInteger()).incrementAndGet();
+			return new MigratingJedis(port == 6379);
+		}
+	}
+
+	private static class MigratingJedis extends Jedis {
+
+		private final boolean source;
+		private boolean asked;
+
+		MigratingJedis(boolean source) {
+			super("localhost", 6379);
+			this.source = source;
+		}
+
+		@Override
+		public String asking() {
+			asked = true;
+			return "OK";
+		}
+
+		@Override
+		public Long rpush(String key, String... strings) {
+			redirect(key);
+			return super.rpush(key, strings);
+		}
+
+		@Override
+		public Long llen(String key) {
+			redirect(key);
+			return super.llen(key);
+		}
+
+		private void redirect(String key) {
+			boolean wasAsked = asked;
+			asked = false;
+			if (source) {
+				throw new JedisAskDataException("ASK", new HostAndPort("localhost", 6380), 0);
+			}
+			if (!wasAsked) {
+				throw new JedisMovedDataException("MOVED", new HostAndPort("localhost", 6379), 0);
+			}
+		}
+	}
+}
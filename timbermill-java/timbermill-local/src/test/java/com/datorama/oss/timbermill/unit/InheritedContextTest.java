@@ -0,0 +1,79 @@
+package com.datorama.oss.timbermill.unit;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.datorama.oss.timbermill.ElasticsearchClient.GSON;
+import static org.junit.Assert.*;
+
+public class InheritedContextTest {
+
+	@Test
+	public void ownEntriesWinOverInheritedOnes() {
+		Map<String, String> context = new InheritedContext(ImmutableMap.of("key", "parent", "parent_key", "parent"), map("key", "child"));
+
+		assertEquals("child", context.get("key"));
+		assertEquals("parent", context.get("parent_key"));
+		assertTrue(context.containsKey("parent_key"));
+		assertEquals(ImmutableMap.of("key", "child", "parent_key", "parent"), context);
+	}
+
+	@Test
+	public void laterPutsAreNotInherited() {
+		Map<String, String> parentContext = new InheritedContext(Collections.emptyMap(), map("key", "value"));
+		Map<String, String> childContext = new InheritedContext(parentContext);
+
+		parentContext.put("later_key", "value");
+		childContext.put("child_key", "value");
+
+		assertEquals(ImmutableMap.of("key", "value", "later_key", "value"), parentContext);
+		assertEquals(ImmutableMap.of("key", "value", "child_key", "value"), childContext);
+	}
+
+	@Test
+	public void deepTreeSharesItsAncestorsEntries() {
+		Map<String, String> context = map("root", "value");
+		for (int i = 0; i < 1000; i++) {
+			context = new InheritedContext(context, map("level" + i, "value"));
+		}
+
+		assertEquals(1001, context.size());
+		assertEquals("value", context.get("root"));
+		assertEquals("value", context.get("level999"));
+	}
+
+	@Test
+	public void overridingEntriesWin() {
+		Map<String, String> context = InheritedContext.override(map("key", "first"), map("key", "second"));
+
+		assertEquals("second", context.get("key"));
+		assertEquals(1, context.size());
+	}
+
+	@Test
+	public void contextIsSerializedWhole() {
+		Map<String, String> context = new InheritedContext(map("parent_key", "parent"), map("key", "child"));
+
+		assertEquals(ImmutableMap.of("key", "child", "parent_key", "parent"), GSON.fromJson(GSON.toJson(context), Map.class));
+	}
+
+	@Test
+	public void snapshotIsNotChangedByLaterPuts() {
+		InheritedContext context = new InheritedContext(map("parent_key", "parent"), map("key", "child"));
+
+		Map<String, String> snapshot = context.snapshot();
+		context.put("later_key", "value");
+
+		assertEquals(ImmutableMap.of("key", "child", "parent_key", "parent"), snapshot);
+	}
+
+	private static Map<String, String> map(String key, String value) {
+		Map<String, String> map = new HashMap<>();
+		map.put(key, value);
+		return map;
+	}
+}
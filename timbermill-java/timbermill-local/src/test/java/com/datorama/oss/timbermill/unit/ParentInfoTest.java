@@ -0,0 +1,48 @@
+package com.datorama.oss.timbermill.unit;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ParentInfoTest {
+
+	@Test
+	public void cachedInfoFillsMissingFields() {
+		Task cachedTask = new Task(Collections.singletonList(new StartEvent("id", "name", LogParams.create().context("cached", "value"), "parent")), "index", 1, null);
+		cachedTask.setPrimaryId("primary");
+		cachedTask.setParentsPath(Collections.singletonList("parent_name"));
+		ParentInfo parentInfo = new ParentInfo(new Task(Collections.singletonList(new InfoEvent("id", LogParams.create().context("new", "value"))), "index", 1, null));
+
+		parentInfo.mergeCached(new ParentInfo(cachedTask), "id");
+
+		assertEquals("parent", parentInfo.getParentId());
+		assertEquals("primary", parentInfo.getPrimaryId());
+		assertEquals(Collections.singletonList("parent_name"), parentInfo.getParentsPath());
+		assertEquals("value", parentInfo.getCtx().get("cached"));
+		assertEquals("value", parentInfo.getCtx().get("new"));
+	}
+
+	@Test
+	public void taskIsWrittenAsCached() {
+		Task task = new Task(Arrays.asList(new StartEvent("id", "name", LogParams.create().context("key", "value"), "parent"),
+				new SuccessEvent("id", LogParams.create())), "index", 1, null);
+		task.setOrphan(true);
+
+		Task cachedTask = ParentInfoCodec.decode(ParentInfoCodec.encode(new ParentInfo(task))).toTask();
+
+		assertEquals("index", cachedTask.getIndex());
+		assertEquals("name", cachedTask.getName());
+		assertEquals("parent", cachedTask.getParentId());
+		assertEquals(task.getCtx(), cachedTask.getCtx());
+		assertEquals(TaskStatus.SUCCESS, cachedTask.getStatus());
+		assertEquals(task.getStartTime(), cachedTask.getStartTime());
+		assertEquals(task.getEndTime(), cachedTask.getEndTime());
+		assertEquals(task.getDuration(), cachedTask.getDuration());
+		assertEquals(task.getDateToDelete(), cachedTask.getDateToDelete());
+		assertTrue(cachedTask.isOrphan());
+		assertTrue(cachedTask.getString().isEmpty());
+	}
+}
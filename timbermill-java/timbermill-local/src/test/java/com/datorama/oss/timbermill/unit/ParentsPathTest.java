@@ -0,0 +1,56 @@
+package com.datorama.oss.timbermill.unit;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.datorama.oss.timbermill.ElasticsearchClient.GSON;
+import static org.junit.Assert.*;
+
+public class ParentsPathTest {
+
+	@Test
+	public void pathIsItsPrefixFollowedByTheName() {
+		List<String> path = ParentsPath.append(ParentsPath.append(Arrays.asList("root", "parent"), "child"), "grandchild");
+
+		assertEquals(Arrays.asList("root", "parent", "child", "grandchild"), path);
+		assertEquals(4, path.size());
+		assertEquals("root", path.get(0));
+		assertEquals("child", path.get(2));
+		assertEquals(Arrays.asList("root", "parent", "child", "grandchild").hashCode(), path.hashCode());
+	}
+
+	@Test
+	public void missingNameKeepsThePrefix() {
+		List<String> prefix = Collections.singletonList("root");
+
+		assertSame(prefix, ParentsPath.append(prefix, null));
+		assertTrue(ParentsPath.append(null, null).isEmpty());
+		assertEquals(Collections.singletonList("root"), ParentsPath.append(null, "root"));
+	}
+
+	@Test
+	public void deepPathIsRead() {
+		List<String> path = Collections.emptyList();
+		List<String> expectedPath = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			path = ParentsPath.append(path, "level" + i);
+			expectedPath.add("level" + i);
+		}
+
+		assertEquals(expectedPath, path);
+		assertEquals("level500", path.get(500));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void indexOutOfThePathIsRejected() {
+		ParentsPath.append(Collections.singletonList("root"), "child").get(2);
+	}
+
+	@Test
+	public void pathIsSerializedWhole() {
+		List<String> path = ParentsPath.append(Collections.singletonList("root"), "child");
+
+		assertEquals("[\"root\",\"child\"]", GSON.toJson(path));
+	}
+}
@@ -0,0 +1,106 @@
+package com.datorama.oss.timbermill.unit;
+
+import org.elasticsearch.action.update.UpdateRequest;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TaskTest {
+
+	@Test
+	public void uncachedTaskIsLeftToScript() {
+		Task task = task(new StartEvent("id", "name", LogParams.create(), null));
+		task.resolveFullState(null);
+		assertFalse(task.isFullState());
+	}
+
+	@Test
+	public void lateStartAfterEvictionIsLeftToScript() {
+		// The success was indexed as partial and then evicted from the cache, only the script can close the task with the late start
+		Task startTask = task(new StartEvent("id", "name", LogParams.create(), null));
+		startTask.resolveFullState(null);
+		assertFalse(startTask.isFullState());
+		UpdateRequest request = startTask.getUpdateRequest("index", "id");
+		assertNotNull(request.script());
+		assertNotNull(request.upsertRequest());
+
+		Task infoTask = task(new InfoEvent("id", LogParams.create().string("key", "value")));
+		infoTask.resolveFullState(new ParentInfo(startTask));
+		assertFalse(infoTask.isFullState());
+		assertEquals(TaskStatus.PARTIAL_INFO_ONLY, infoTask.getStatus());
+	}
+
+	@Test
+	public void endOfCachedStartedTaskIsResolved() throws InterruptedException {
+		ParentInfo cachedTask = cachedTask(new StartEvent("id", "name", LogParams.create(), null));
+		Thread.sleep(2);
+		Task task = task(new ErrorEvent("id", LogParams.create()));
+
+		task.resolveFullState(cachedTask);
+
+		assertTrue(task.isFullState());
+		assertEquals(TaskStatus.ERROR, task.getStatus());
+		assertEquals("name", task.getName());
+		assertEquals(cachedTask.getStartTime(), task.getStartTime());
+		assertEquals(cachedTask.getDateToDelete(), task.getDateToDelete());
+		assertTrue(task.getDuration() > 0);
+		UpdateRequest request = task.getDocUpsertRequest("index", "id");
+		assertNull(request.script());
+		assertTrue(request.docAsUpsert());
+	}
+
+	@Test
+	public void infoOfCachedClosedTaskKeepsItsStatus() {
+		ParentInfo cachedTask = cachedTask(new StartEvent("id", "name", LogParams.create(), null), new SuccessEvent("id", LogParams.create()));
+		Task task = task(new InfoEvent("id", LogParams.create().string("key", "value")));
+
+		task.resolveFullState(cachedTask);
+
+		assertTrue(task.isFullState());
+		assertEquals(TaskStatus.SUCCESS, task.getStatus());
+		assertEquals(cachedTask.getEndTime(), task.getEndTime());
+		assertEquals(cachedTask.getDuration(), task.getDuration());
+	}
+
+	@Test
+	public void transitionsThatNeedIndexedTaskAreLeftToScript() {
+		ParentInfo cachedPartialTask = cachedTask(new SuccessEvent("id", LogParams.create()));
+		Task task = task(new StartEvent("id", "name", LogParams.create(), null));
+		task.resolveFullState(cachedPartialTask);
+		assertFalse(task.isFullState());
+		assertNotNull(task.getUpdateRequest("index", "id").script());
+
+		ParentInfo cachedClosedTask = cachedTask(new StartEvent("id", "name", LogParams.create(), null), new SuccessEvent("id", LogParams.create()));
+		Task closedAgainTask = task(new ErrorEvent("id", LogParams.create()));
+		closedAgainTask.resolveFullState(cachedClosedTask);
+		assertFalse(closedAgainTask.isFullState());
+		assertEquals(TaskStatus.PARTIAL_ERROR, closedAgainTask.getStatus());
+	}
+
+	@Test
+	public void updateOfUnresolvedCachedTaskIsLeftToScript() {
+		ParentInfo cachedPartialTask = cachedTask(new SuccessEvent("id", LogParams.create()));
+		Task startTask = task(new StartEvent("id", "name", LogParams.create(), null));
+		startTask.resolveFullState(cachedPartialTask);
+		ParentInfo cachedStartedTask = new ParentInfo(startTask);
+
+		Task task = task(new InfoEvent("id", LogParams.create().string("key", "value")));
+		task.resolveFullState(cachedStartedTask);
+
+		assertFalse(task.isFullState());
+		assertEquals(TaskStatus.PARTIAL_INFO_ONLY, task.getStatus());
+	}
+
+	// As cached once Elasticsearch reported that the task created its document
+	private static ParentInfo cachedTask(Event... events) {
+		ParentInfo parentInfo = new ParentInfo(task(events));
+		parentInfo.setKnownState(true);
+		return parentInfo;
+	}
+
+	private static Task task(Event... events) {
+		return new Task(Arrays.asList(events), "index", 1, null);
+	}
+}
@@ -2,8 +2,11 @@ package com.datorama.timbermill.server;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
 import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.reactive.server.ReactiveWebServerFactory;
 import org.springframework.boot.web.servlet.server.ServletWebServerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
@@ -13,6 +16,7 @@ import org.springframework.context.annotation.ComponentScan;
 public class TimbermillApplication {
 
     @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     public ServletWebServerFactory tomcatServletWebServerFactory() {
         TomcatServletWebServerFactory tomcatServletWebServerFactory = new TomcatServletWebServerFactory();
         TomcatConnectorCustomizer customizer = connector -> {
@@ -24,6 +28,13 @@ public class TimbermillApplication {
         return tomcatServletWebServerFactory;
     }
 
+    // Started with spring.main.web-application-type=reactive, serves the events endpoints on Netty instead of Tomcat
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public ReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
     public static void main(String[] args) {
         SpringApplication.run(TimbermillApplication.class, args);
     }
@@ -0,0 +1,94 @@
+package com.datorama.timbermill.server.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Reads a reactive request body buffer by buffer, so it can be decoded while it is still being received.
+ * At most prefetch buffers are held at a time, reads block until the next buffer arrives, so it has to be read off the event loop.
+ */
+final class DataBuffersInputStream extends InputStream {
+
+	private final Stream<DataBuffer> buffers;
+	private final Iterator<DataBuffer> buffersIterator;
+	private InputStream current;
+
+	DataBuffersInputStream(Flux<DataBuffer> body, int prefetch) {
+		buffers = body.doOnDiscard(DataBuffer.class, DataBufferUtils::release).toStream(prefetch);
+		buffersIterator = buffers.iterator();
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (nextBufferIfDone()) {
+			int b = current.read();
+			if (b != -1) {
+				return b;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (nextBufferIfDone()) {
+			int read = current.read(b, off, len);
+			if (read != -1) {
+				return read;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current == null ? 0 : current.available();
+	}
+
+	// Stops receiving the rest of the body
+	@Override
+	public void close() {
+		closeCurrent();
+		buffers.close();
+	}
+
+	// Returns false once the whole body was read
+	private boolean nextBufferIfDone() throws IOException {
+		if (current != null && current.available() > 0) {
+			return true;
+		}
+		closeCurrent();
+		try {
+			if (!buffersIterator.hasNext()) {
+				return false;
+			}
+			// Released once it is closed
+			current = buffersIterator.next().asInputStream(true);
+			return true;
+		} catch (RuntimeException e) {
+			// Usually the client disconnected
+			throw new IOException("Error receiving request body", e);
+		}
+	}
+
+	private void closeCurrent() {
+		if (current != null) {
+			try {
+				current.close();
+			} catch (IOException ignored) {
+				// Closing only releases the buffer
+			}
+			current = null;
+		}
+	}
+}
@@ -5,7 +5,6 @@ import java.net.URLDecoder;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
@@ -23,11 +22,11 @@ import com.google.common.io.ByteStreams;
 import com.google.common.net.HttpHeaders;
 
 /**
- * Wrapper class that detects if the request is gzipped and ungzipps it.
+ * Wrapper class that replaces the body of a compressed request with its decompressed content.
  */
-final class GzippedInputStreamWrapper extends HttpServletRequestWrapper {
+final class DecompressedInputStreamWrapper extends HttpServletRequestWrapper {
 
-	private static final Logger LOG = LoggerFactory.getLogger(GzippedInputStreamWrapper.class);
+	private static final Logger LOG = LoggerFactory.getLogger(DecompressedInputStreamWrapper.class);
 
 
 	/**
@@ -36,23 +35,23 @@ final class GzippedInputStreamWrapper extends HttpServletRequestWrapper {
 	static final String DEFAULT_ENCODING = WebUtils.DEFAULT_CHARACTER_ENCODING;
 
 	/**
-	 * Serialized bytes array that is a result of unzipping gzipped body.
+	 * Serialized bytes array that is a result of decompressing the body.
 	 */
 	private byte[] bytes;
 
 	/**
 	 * Constructs a request object wrapping the given request.
-	 * In case if Content-Encoding contains "gzip" we wrap the input stream into byte array
-	 * to original input stream has nothing in it but hew wrapped input stream always returns
-	 * reproducible ungzipped input stream.
+	 * We read the decompressed input stream into byte array so original input stream has nothing in it
+	 * but the wrapped input stream always returns reproducible decompressed input stream.
 	 *
 	 * @param request request which input stream will be wrapped.
+	 * @param decompressor decompresses the request body according to its Content-Encoding.
 	 * @throws java.io.IOException when input stream reqtieval failed.
 	 */
-	GzippedInputStreamWrapper(final HttpServletRequest request) throws IOException {
+	DecompressedInputStreamWrapper(final HttpServletRequest request, final RequestDecompressor decompressor) throws IOException {
 		super(request);
 		try {
-			final InputStream in = new GZIPInputStream(request.getInputStream());
+			final InputStream in = decompressor.decompress(request.getInputStream(), request.getHeader(HttpHeaders.CONTENT_ENCODING));
 			bytes = ByteStreams.toByteArray(in);
 		} catch (EOFException e) {
 			bytes = new byte[0];
@@ -62,7 +61,7 @@ final class GzippedInputStreamWrapper extends HttpServletRequestWrapper {
 
 	/**
 	 * @return reproduceable input stream that is either equal to initial servlet input
-	 * stream(if it was not zipped) or returns unzipped input stream.
+	 * stream(if it was not compressed) or returns decompressed input stream.
 	 */
 	@Override public ServletInputStream getInputStream() {
 		final ByteArrayInputStream sourceStream = new ByteArrayInputStream(bytes);
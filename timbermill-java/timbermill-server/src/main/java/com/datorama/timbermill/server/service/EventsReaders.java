@@ -0,0 +1,40 @@
+package com.datorama.timbermill.server.service;
+
+import com.datorama.oss.timbermill.common.Constants;
+import com.datorama.oss.timbermill.unit.Event;
+import com.datorama.oss.timbermill.unit.EventsList;
+import com.datorama.oss.timbermill.unit.EventsWrapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Readers for request bodies that are decoded outside of Spring's message converters, picked by the request content type.
+ */
+final class EventsReaders {
+
+	private static final ObjectMapper JSON_OBJECT_MAPPER = new ObjectMapper();
+	private static final ObjectMapper SMILE_OBJECT_MAPPER = new ObjectMapper(new SmileFactory());
+
+	private EventsReaders() {
+	}
+
+	static ObjectReader getEventReader(String contentType) {
+		return getObjectMapper(contentType).readerFor(Event.class);
+	}
+
+	static ObjectReader getEventsWrapperReader(String contentType) {
+		return getObjectMapper(contentType).readerFor(EventsWrapper.class);
+	}
+
+	static ObjectReader getEventsListReader(String contentType) {
+		return getObjectMapper(contentType).readerFor(EventsList.class);
+	}
+
+	private static ObjectMapper getObjectMapper(String contentType) {
+		if (contentType != null && contentType.startsWith(Constants.SMILE_CONTENT_TYPE)) {
+			return SMILE_OBJECT_MAPPER;
+		}
+		return JSON_OBJECT_MAPPER;
+	}
+}
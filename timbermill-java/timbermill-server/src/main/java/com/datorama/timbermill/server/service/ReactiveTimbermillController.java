@@ -0,0 +1,178 @@
+package com.datorama.timbermill.server.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.datorama.oss.timbermill.common.KamonConstants;
+import com.datorama.oss.timbermill.unit.EventsList;
+import com.datorama.oss.timbermill.unit.EventsWrapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Same endpoints as {@link TimbermillController}, served by WebFlux when running with spring.main.web-application-type=reactive.
+ * Request bodies are read without blocking a thread per connection, only decoding and queueing the events runs on the receiving threads.
+ * Bodies of up to MAX_REQUEST_BODY_BYTES are read whole before being decoded, events streams are decoded while they are received.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveTimbermillController {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReactiveTimbermillController.class);
+	private static final DefaultDataBufferFactory EMPTY_BODY_FACTORY = new DefaultDataBufferFactory();
+	private static final int STREAM_PREFETCH_BUFFERS = 32;
+
+	private final Scheduler receivingScheduler;
+	private final String retryAfterSeconds;
+	private final int maxRequestBodyBytes;
+
+	@Autowired
+	private TimbermillService timbermillService;
+
+	@Autowired
+	private RequestDecompressor requestDecompressor;
+
+	public ReactiveTimbermillController(@Value("${RECEIVING_THREAD:10}") int numOfThreads,
+										@Value("${RECEIVING_QUEUE_CAPACITY:1000}") int receivingQueueCapacity,
+										@Value("${RETRY_AFTER_SECONDS:5}") int retryAfterSeconds,
+										@Value("${MAX_REQUEST_BODY_BYTES:20971520}") int maxRequestBodyBytes) {
+		ThreadPoolExecutor executorService = new ThreadPoolExecutor(numOfThreads, numOfThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(receivingQueueCapacity),
+				new ThreadFactoryBuilder().setNameFormat("timbermill-receiving-%d").build());
+		receivingScheduler = Schedulers.fromExecutorService(executorService, "timbermill-receiving");
+		this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+		this.maxRequestBodyBytes = maxRequestBodyBytes;
+	}
+
+	@RequestMapping(method = RequestMethod.POST, value = "/events")
+	public Mono<ResponseEntity<String>> ingestEvents(ServerHttpRequest request) {
+		return receiveEvents(request, (body, contentType) -> {
+			EventsWrapper eventsWrapper = EventsReaders.getEventsWrapperReader(contentType).readValue(body);
+			timbermillService.handleEventsWrapper(eventsWrapper);
+			return new ResponseEntity<>("Event received", HttpStatus.OK);
+		});
+	}
+
+	@RequestMapping(method = RequestMethod.POST, value = "/events/v2")
+	public Mono<ResponseEntity<String>> ingestEventsNew(ServerHttpRequest request) {
+		return receiveEvents(request, (body, contentType) -> {
+			EventsList events = EventsReaders.getEventsListReader(contentType).readValue(body);
+			timbermillService.handleEvents(events);
+			return new ResponseEntity<>("Event received", HttpStatus.OK);
+		});
+	}
+
+	@RequestMapping(method = RequestMethod.POST, value = TimbermillController.EVENTS_STREAM_PATH)
+	public Mono<ResponseEntity<String>> ingestEventsStream(ServerHttpRequest request) {
+		ResponseEntity<String> rejection = getRejection(request.getHeaders());
+		if (rejection != null) {
+			return Mono.just(rejection);
+		}
+		String contentType = request.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+		String contentEncoding = request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+		return Mono.fromCallable(() -> readEventsStream(request.getBody(), contentType, contentEncoding))
+				.subscribeOn(receivingScheduler)
+				.onErrorResume(RejectedExecutionException.class, e -> Mono.just(tooManyRequests("receiving_backlog_full")));
+	}
+
+	// Only up to STREAM_PREFETCH_BUFFERS buffers of the body are held at a time, however long it is
+	private ResponseEntity<String> readEventsStream(Flux<DataBuffer> body, String contentType, String contentEncoding) {
+		InputStream in;
+		try {
+			in = requestDecompressor.decompress(new DataBuffersInputStream(body, STREAM_PREFETCH_BUFFERS), contentEncoding);
+		} catch (IOException e) {
+			LOG.warn("Error reading events stream", e);
+			return TimbermillController.partiallyAcceptedStream(0, "Error reading events stream: " + e.getMessage());
+		}
+		try {
+			return TimbermillController.readEventsStream(timbermillService, in, contentType);
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private Mono<ResponseEntity<String>> receiveEvents(ServerHttpRequest request, BodyHandler bodyHandler) {
+		HttpHeaders headers = request.getHeaders();
+		ResponseEntity<String> rejection = getRejection(headers);
+		if (rejection != null) {
+			return Mono.just(rejection);
+		}
+		String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+		String contentEncoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+		return DataBufferUtils.join(request.getBody(), maxRequestBodyBytes)
+				.switchIfEmpty(Mono.fromSupplier(() -> EMPTY_BODY_FACTORY.allocateBuffer(0)))
+				.flatMap(body -> Mono.fromCallable(() -> {
+					try (InputStream in = requestDecompressor.decompress(body.asInputStream(true), contentEncoding)) {
+						return bodyHandler.handle(in, contentType);
+					}
+				}).subscribeOn(receivingScheduler)
+						.doOnDiscard(DataBuffer.class, DataBufferUtils::release))
+				.onErrorResume(DataBufferLimitException.class, e -> {
+					LOG.warn("Rejected events request larger than {} bytes", maxRequestBodyBytes);
+					return Mono.just(new ResponseEntity<>("Request body is larger than " + maxRequestBodyBytes + " bytes", HttpStatus.PAYLOAD_TOO_LARGE));
+				})
+				.onErrorResume(RejectedExecutionException.class, e -> Mono.just(tooManyRequests("receiving_backlog_full")))
+				.onErrorResume(JsonProcessingException.class, e -> {
+					LOG.error("Error parsing request", e);
+					return Mono.just(new ResponseEntity<>("Error parsing request: " + e.getOriginalMessage(), HttpStatus.BAD_REQUEST));
+				});
+	}
+
+	// The response to a request that isn't read at all, null if it should be read
+	private ResponseEntity<String> getRejection(HttpHeaders headers) {
+		if (timbermillService.isSaturated()) {
+			return tooManyRequests("queue_saturated");
+		}
+		String contentEncoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+		if (!RequestDecompressor.isSupported(contentEncoding)) {
+			return TimbermillController.unsupportedEncoding(contentEncoding);
+		}
+		return null;
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			LOG.debug("Error closing events stream", e);
+		}
+	}
+
+	private ResponseEntity<String> tooManyRequests(String reason) {
+		KamonConstants.REJECTED_REQUESTS_COUNTER.withTag("reason", reason).increment();
+		LOG.debug("Rejected events request, reason: {}", reason);
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+				.header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+				.body("Timbermill is overloaded, retry later (" + reason + ")");
+	}
+
+	@FunctionalInterface
+	private interface BodyHandler {
+		ResponseEntity<String> handle(InputStream body, String contentType) throws IOException;
+	}
+}
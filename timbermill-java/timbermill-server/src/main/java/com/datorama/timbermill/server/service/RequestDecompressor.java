@@ -0,0 +1,80 @@
+package com.datorama.timbermill.server.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.datorama.oss.timbermill.common.Constants;
+import com.github.luben.zstd.ZstdInputStream;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+
+/**
+ * Decompresses request bodies according to their Content-Encoding.
+ * Zstd bodies are decoded with the dictionary from ZSTD_DICTIONARY_PATH when it is set, it has to be the same dictionary the clients compress with.
+ */
+@Component
+public class RequestDecompressor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestDecompressor.class);
+
+	static final String SUPPORTED_ENCODINGS = String.join(", ", Constants.GZIP_ENCODING, Constants.ZSTD_ENCODING, Constants.LZ4_ENCODING);
+	private static final String IDENTITY_ENCODING = "identity";
+
+	private byte[] zstdDictionary;
+
+	public RequestDecompressor(@Value("${ZSTD_DICTIONARY_PATH:}") String zstdDictionaryPath) throws IOException {
+		if (!StringUtils.isEmpty(zstdDictionaryPath)) {
+			zstdDictionary = Files.readAllBytes(Paths.get(zstdDictionaryPath));
+			LOG.info("Loaded zstd dictionary of {} bytes from {}", zstdDictionary.length, zstdDictionaryPath);
+		}
+	}
+
+	/**
+	 * @return the encoding the body is compressed with, null if it isn't compressed or the encoding is not supported.
+	 */
+	static String getEncoding(String contentEncoding) {
+		if (StringUtils.isBlank(contentEncoding)) {
+			return null;
+		}
+		String encoding = contentEncoding.trim().toLowerCase();
+		if (encoding.contains(Constants.GZIP_ENCODING)) {
+			return Constants.GZIP_ENCODING;
+		}
+		if (encoding.equals(Constants.ZSTD_ENCODING) || encoding.equals(Constants.LZ4_ENCODING)) {
+			return encoding;
+		}
+		return null;
+	}
+
+	static boolean isSupported(String contentEncoding) {
+		return StringUtils.isBlank(contentEncoding) || IDENTITY_ENCODING.equalsIgnoreCase(contentEncoding.trim()) || getEncoding(contentEncoding) != null;
+	}
+
+	InputStream decompress(InputStream in, String contentEncoding) throws IOException {
+		String encoding = getEncoding(contentEncoding);
+		if (encoding == null) {
+			return in;
+		}
+		switch (encoding) {
+			case Constants.GZIP_ENCODING:
+				return new GZIPInputStream(in);
+			case Constants.ZSTD_ENCODING:
+				ZstdInputStream zstdInputStream = new ZstdInputStream(in);
+				if (zstdDictionary != null) {
+					zstdInputStream.setDict(zstdDictionary);
+				}
+				return zstdInputStream;
+			default:
+				return new LZ4FrameInputStream(in);
+		}
+	}
+}
@@ -7,6 +7,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.util.ContentCachingRequestWrapper;
@@ -17,20 +19,37 @@ import kamon.metric.Timer;
 import static com.datorama.oss.timbermill.common.KamonConstants.GZIP_DECOMPRESS_REQUEST_DURATION;
 
 @Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class RequestWrapperFilter extends OncePerRequestFilter {
 
+	@Autowired
+	private RequestDecompressor requestDecompressor;
+
 	@Override
 	protected void doFilterInternal(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, FilterChain filterChain) throws ServletException, IOException {
 
-		boolean isGzipped = httpServletRequest.getHeader(HttpHeaders.CONTENT_ENCODING) != null && httpServletRequest.getHeader(HttpHeaders.CONTENT_ENCODING).contains("gzip");
-		if (isGzipped) {
-			Timer.Started gzipTimer = GZIP_DECOMPRESS_REQUEST_DURATION.withoutTags().start();
-			httpServletRequest = new GzippedInputStreamWrapper(httpServletRequest);
-			gzipTimer.stop();
+		String contentEncoding = httpServletRequest.getHeader(HttpHeaders.CONTENT_ENCODING);
+		if (!RequestDecompressor.isSupported(contentEncoding)) {
+			httpServletResponse.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+			httpServletResponse.setHeader(HttpHeaders.ACCEPT_ENCODING, RequestDecompressor.SUPPORTED_ENCODINGS);
+			httpServletResponse.getWriter().write("Unsupported Content-Encoding: " + contentEncoding);
+			return;
+		}
+		String encoding = RequestDecompressor.getEncoding(contentEncoding);
+		if (encoding != null) {
+			Timer.Started decompressTimer = GZIP_DECOMPRESS_REQUEST_DURATION.withTag("encoding", encoding).start();
+			httpServletRequest = new DecompressedInputStreamWrapper(httpServletRequest, requestDecompressor);
+			decompressTimer.stop();
 
 		} else {
 			httpServletRequest = new ContentCachingRequestWrapper(httpServletRequest);
 		}
 		filterChain.doFilter(httpServletRequest, httpServletResponse);
 	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		// The streaming endpoint reads and decompresses the body lazily by itself
+		return TimbermillController.EVENTS_STREAM_PATH.equals(request.getServletPath());
+	}
 }
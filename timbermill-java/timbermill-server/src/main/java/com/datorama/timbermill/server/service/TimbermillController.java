@@ -1,82 +1,173 @@
 package com.datorama.timbermill.server.service;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletRequestWrapper;
 import javax.validation.Valid;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.*;
 
+import com.datorama.oss.timbermill.common.Constants;
+import com.datorama.oss.timbermill.common.KamonConstants;
 import com.datorama.oss.timbermill.unit.Event;
 import com.datorama.oss.timbermill.unit.EventsList;
 import com.datorama.oss.timbermill.unit.EventsWrapper;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.google.common.net.HttpHeaders;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class TimbermillController {
 
 	private static final Logger LOG = LoggerFactory.getLogger(TimbermillController.class);
 
+	static final String EVENTS_STREAM_PATH = "/events/stream";
+	private static final int MAX_ECHOED_BODY_CHARS = 1000;
+
 	private static ExecutorService executorService;
-	private final Cache<String, String> idsCache;
+	private final String retryAfterSeconds;
 
 	@Autowired
 	private TimbermillService timbermillService;
 
-	public TimbermillController(@Value("${RECEIVING_THREAD:10}") int numOfThreads) {
-		CacheBuilder<String, String> cacheBuilder = CacheBuilder.newBuilder().weigher((key, value) -> key.length() + value.length());
-		idsCache = cacheBuilder
-				.maximumWeight(1000000) //1MB
-				.expireAfterWrite(10, TimeUnit.SECONDS)
-				.build();
-		executorService = Executors.newFixedThreadPool(numOfThreads);
+	@Autowired
+	private RequestDecompressor requestDecompressor;
+
+	public TimbermillController(@Value("${RECEIVING_THREAD:10}") int numOfThreads,
+								@Value("${RECEIVING_QUEUE_CAPACITY:1000}") int receivingQueueCapacity,
+								@Value("${RETRY_AFTER_SECONDS:5}") int retryAfterSeconds) {
+		executorService = new ThreadPoolExecutor(numOfThreads, numOfThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(receivingQueueCapacity));
+		this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
 	}
 
 	@RequestMapping(method = RequestMethod.POST, value = "/events")
-	public String ingestEvents(@RequestBody @Valid EventsWrapper eventsWrapper) {
-		executorService.submit(() -> {
-			String eventsId = eventsWrapper.getId();
-			if (eventsId != null){
-				if (idsCache.getIfPresent(eventsId) != null){
-					LOG.warn("Got duplicated EventsWrapper {}", eventsWrapper.getEvents());
-					return;
-				}
-				else{
-					idsCache.put(eventsId, eventsId);
-				}
-			}
-			Collection<Event> events = eventsWrapper.getEvents();
-			timbermillService.handleEvents(events);
-		});
-		return "Event received";
+	public ResponseEntity<String> ingestEvents(@RequestBody @Valid EventsWrapper eventsWrapper) {
+		return submitEvents(() -> timbermillService.handleEventsWrapper(eventsWrapper));
 	}
 
 	@RequestMapping(method = RequestMethod.POST, value = "/events/v2")
-	public String ingestEventsNew(@RequestBody @Valid EventsList events) {
-		executorService.submit(() -> timbermillService.handleEvents(events));
-		return "Event received";
+	public ResponseEntity<String> ingestEventsNew(@RequestBody @Valid EventsList events) {
+		return submitEvents(() -> timbermillService.handleEvents(events));
+	}
+
+	private ResponseEntity<String> submitEvents(Runnable handleEventsTask) {
+		if (timbermillService.isSaturated()) {
+			return tooManyRequests("queue_saturated");
+		}
+		try {
+			executorService.submit(handleEventsTask);
+		} catch (RejectedExecutionException e) {
+			return tooManyRequests("receiving_backlog_full");
+		}
+		return new ResponseEntity<>("Event received", HttpStatus.OK);
+	}
+
+	// Clients are expected to wait Retry-After seconds before resending, instead of piling events up in server memory
+	private ResponseEntity<String> tooManyRequests(String reason) {
+		KamonConstants.REJECTED_REQUESTS_COUNTER.withTag("reason", reason).increment();
+		LOG.debug("Rejected events request, reason: {}", reason);
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+				.header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+				.body("Timbermill is overloaded, retry later (" + reason + ")");
+	}
+
+	/**
+	 * Ingests newline delimited events without materializing the whole body.
+	 * Events are parsed one by one from the (optionally gzipped) request stream and pushed to the events queue as soon as they are read.
+	 * A Smile content type is read as a sequence of Smile encoded events.
+	 */
+	@RequestMapping(method = RequestMethod.POST, value = EVENTS_STREAM_PATH)
+	public ResponseEntity<String> ingestEventsStream(HttpServletRequest request) {
+		if (timbermillService.isSaturated()) {
+			return tooManyRequests("queue_saturated");
+		}
+		String contentEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+		if (!RequestDecompressor.isSupported(contentEncoding)) {
+			return unsupportedEncoding(contentEncoding);
+		}
+		InputStream in;
+		try {
+			in = requestDecompressor.decompress(request.getInputStream(), contentEncoding);
+		} catch (IOException e) {
+			LOG.warn("Error reading events stream", e);
+			return partiallyAcceptedStream(0, "Error reading events stream: " + e.getMessage());
+		}
+		return readEventsStream(timbermillService, in, request.getContentType());
+	}
+
+	/**
+	 * Events read before a failure are already queued, so the response tells the client how many were accepted (ACCEPTED_EVENTS_HEADER)
+	 * and it only resends the rest of the stream.
+	 */
+	static ResponseEntity<String> readEventsStream(TimbermillService timbermillService, InputStream in, String contentType) {
+		int eventsAccepted = 0;
+		try (MappingIterator<Event> eventsIterator = EventsReaders.getEventReader(contentType).readValues(in)) {
+			while (eventsIterator.hasNextValue()) {
+				timbermillService.handleEvent(eventsIterator.nextValue());
+				eventsAccepted++;
+			}
+		} catch (JsonProcessingException e) {
+			LOG.error("Error parsing events stream after " + eventsAccepted + " events", e);
+			return partiallyAcceptedStream(eventsAccepted, "Error parsing events stream after " + eventsAccepted + " events: " + e.getOriginalMessage());
+		} catch (IOException e) {
+			// Usually the client disconnected, it would resend the whole stream
+			LOG.warn("Error reading events stream after " + eventsAccepted + " events", e);
+			return partiallyAcceptedStream(eventsAccepted, "Error reading events stream after " + eventsAccepted + " events: " + e.getMessage());
+		}
+		return new ResponseEntity<>("Event received", HttpStatus.OK);
+	}
+
+	static ResponseEntity<String> partiallyAcceptedStream(int eventsAccepted, String message) {
+		return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+				.header(Constants.ACCEPTED_EVENTS_HEADER, String.valueOf(eventsAccepted))
+				.body(message);
+	}
+
+	static ResponseEntity<String> unsupportedEncoding(String contentEncoding) {
+		return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+				.header(HttpHeaders.ACCEPT_ENCODING, RequestDecompressor.SUPPORTED_ENCODINGS)
+				.body("Unsupported Content-Encoding: " + contentEncoding);
 	}
 
 	@ExceptionHandler(HttpMessageNotReadableException.class)
 	@ResponseBody
 	public ResponseEntity<?> handleHttpMessageNotReadableException(HttpServletRequest request, Exception ex) throws IOException {
-		HttpServletRequestWrapper wrapper = (HttpServletRequestWrapper) request;
-		String body = IOUtils.toString(wrapper.getInputStream(), wrapper.getCharacterEncoding());
-		LOG.error("Error parsing request. Body:\n " + body, ex);
-		return new ResponseEntity<>("Error parsing request: " + body, HttpStatus.BAD_REQUEST);
+		String contentType = request.getContentType();
+		String error = "Error parsing request. Content-Type: " + contentType + ", Content-Length: " + request.getContentLengthLong();
+		// Smile bodies are binary and any body can be megabytes long, only the beginning of a JSON body is worth echoing
+		if (StringUtils.containsIgnoreCase(contentType, "json")) {
+			error += ", Body:\n " + getBodyPrefix(request);
+		}
+		LOG.error(error, ex);
+		return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
+	}
+
+	private static String getBodyPrefix(HttpServletRequest request) throws IOException {
+		String characterEncoding = request.getCharacterEncoding();
+		Reader reader = new InputStreamReader(request.getInputStream(), characterEncoding != null ? characterEncoding : StandardCharsets.UTF_8.name());
+		char[] body = new char[MAX_ECHOED_BODY_CHARS];
+		int length = IOUtils.read(reader, body);
+		String bodyPrefix = new String(body, 0, length);
+		return length == MAX_ECHOED_BODY_CHARS ? bodyPrefix + "..." : bodyPrefix;
 	}
 }
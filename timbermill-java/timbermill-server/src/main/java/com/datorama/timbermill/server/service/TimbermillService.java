@@ -1,11 +1,16 @@
 package com.datorama.timbermill.server.service;
 
+import com.datorama.oss.timbermill.AdaptiveBatcher;
+import com.datorama.oss.timbermill.CacheWarmer;
 import com.datorama.oss.timbermill.ElasticsearchClient;
+import com.datorama.oss.timbermill.IndexingPipeline;
 import com.datorama.oss.timbermill.TaskIndexer;
 import com.datorama.oss.timbermill.common.ElasticsearchUtil;
 import com.datorama.oss.timbermill.common.cache.AbstractCacheHandler;
 import com.datorama.oss.timbermill.common.cache.CacheConfig;
 import com.datorama.oss.timbermill.common.cache.CacheHandlerUtil;
+import com.datorama.oss.timbermill.common.dedup.BatchIdsFilter;
+import com.datorama.oss.timbermill.common.dedup.BatchIdsFilterUtil;
 import com.datorama.oss.timbermill.common.persistence.PersistenceHandler;
 import com.datorama.oss.timbermill.common.persistence.PersistenceHandlerUtil;
 import com.datorama.oss.timbermill.common.ratelimiter.RateLimiterUtil;
@@ -13,6 +18,7 @@ import com.datorama.oss.timbermill.common.redis.RedisService;
 import com.datorama.oss.timbermill.cron.CronsRunner;
 import com.datorama.oss.timbermill.pipe.LocalOutputPipe;
 import com.datorama.oss.timbermill.unit.Event;
+import com.datorama.oss.timbermill.unit.EventsWrapper;
 import com.google.common.cache.LoadingCache;
 import io.github.resilience4j.ratelimiter.RateLimiter;
 import org.apache.commons.lang3.StringUtils;
@@ -35,9 +41,13 @@ public class TimbermillService {
 	private static final Logger LOG = LoggerFactory.getLogger(TimbermillService.class);
 
 	private TaskIndexer taskIndexer;
+	private CacheWarmer cacheWarmer;
+	private IndexingPipeline indexingPipeline;
+	private AdaptiveBatcher adaptiveBatcher;
 	private BlockingQueue<Event> eventsQueue;
 	private BlockingQueue<Event> overflowedQueue;
     private LoadingCache<String, RateLimiter> rateLimiterMap;
+	private final BatchIdsFilter batchIdsFilter;
 
 
 	private boolean keepRunning = true;
@@ -45,7 +55,9 @@ public class TimbermillService {
 	private long terminationTimeout;
 	private PersistenceHandler persistenceHandler;
 	private CronsRunner cronsRunner = new CronsRunner();
-	private int eventsMaxElement;
+	private long targetIndexingLagMillis;
+	private int eventsQueueSaturationSize;
+	private int overflowedQueueSaturationSize;
 
 	@Autowired
 	public TimbermillService(@Value("${INDEX_BULK_SIZE:200000}") Integer indexBulkSize,
@@ -67,6 +79,8 @@ public class TimbermillService {
 							 @Value("${TERMINATION_TIMEOUT_SECONDS:60}") int terminationTimeoutSeconds,
 							 @Value("${PLUGINS_JSON:[]}") String pluginsJson,
 							 @Value("${EVENT_MAX_ELEMTS:100000}") int eventsMaxElement,
+							 @Value("${EVENT_MIN_ELEMENTS:100}") int eventsMinElement,
+							 @Value("${TARGET_INDEXING_LAG_MILLIS:1000}") long targetIndexingLagMillis,
 							 @Value("${EVENT_QUEUE_CAPACITY:10000000}") int eventsQueueCapacity,
 							 @Value("${OVERFLOWED_QUEUE_CAPACITY:10000000}") int overFlowedQueueCapacity,
 							 @Value("${MAX_BULK_INDEX_FETCHES:3}") int maxBulkIndexFetches,
@@ -76,6 +90,7 @@ public class TimbermillService {
 							 @Value("${PERSISTENCE_STRATEGY:sqlite}") String persistenceStrategy,
 							 @Value("${BULK_PERSISTENT_FETCH_CRON_EXPRESSION:0 0/1 * 1/1 * ? *}") String bulkPersistentFetchCronExp,
 							 @Value("${EVENTS_PERSISTENT_FETCH_CRON_EXPRESSION:0 0/5 * 1/1 * ? *}") String eventsPersistentFetchCronExp,
+							 @Value("${ROLLOVER_CRON_EXPRESSION:0 0/1 * 1/1 * ? *}") String rolloverCronExp,
 							 @Value("${MAX_FETCHED_BULKS_IN_ONE_TIME:100}") int maxFetchedBulksInOneTime,
 							 @Value("${MAX_FETCHED_EVENTS_IN_ONE_TIME:10}") int maxOverflowedEventsInOneTime,
 							 @Value("${MAX_INSERT_TRIES:3}") int maxInsertTries,
@@ -86,11 +101,18 @@ public class TimbermillService {
 							 @Value("${MAXIMUM_TASKS_CACHE_WEIGHT:100000000}") long maximumTasksCacheWeight,
 							 @Value("${MAXIMUM_ORPHANS_CACHE_WEIGHT:1000000000}") long maximumOrphansCacheWeight,
 							 @Value("${CACHE_STRATEGY:}") String cacheStrategy,
+							 @Value("${LOCAL_CACHE_COMPRESSION:false}") boolean localCacheCompression,
+							 @Value("${MAXIMUM_NEAR_CACHE_WEIGHT:0}") long maximumNearCacheWeight,
+							 @Value("${NEAR_CACHE_TTL_SECONDS:60}") int nearCacheTtlSeconds,
+							 @Value("${CACHE_WARM_UP_SECONDS:0}") int cacheWarmUpSeconds,
+							 @Value("${CACHE_WARM_UP_LOOKBACK_MINUTES:60}") int cacheWarmUpLookbackMinutes,
+							 @Value("${CACHE_WARM_UP_MAX_TASKS:1000000}") int cacheWarmUpMaxTasks,
 							 @Value("${CACHE_TTL_IN_SECONDS:604800}") int cacheRedisTtlInSeconds,
 							 @Value("${REDIS_MAX_MEMORY:}") String redisMaxMemory,
 							 @Value("${REDIS_MAX_MEMORY_POLICY:}") String redisMaxMemoryPolicy,
 							 @Value("${REDIS_HOST:}") String redisHost,
 							 @Value("${REDIS_PORT:6379}") int redisPort,
+							 @Value("${REDIS_CLUSTER_NODES:}") String redisClusterNodes,
 							 @Value("${REDIS_PASS:}") String redisPass,
 							 @Value("${REDIS_USE_SSL:false}") Boolean redisUseSsl,
 							 @Value("${REDIS_GET_SIZE:100}") int redisGetSize,
@@ -99,20 +121,41 @@ public class TimbermillService {
 							 @Value("${REDIS_POOL_MAX_TOTAL:50}") int redisPoolMaxTotal,
 							 @Value("${REDIS_MAX_TRIED:3}") int redisMaxTries,
 							 @Value("${FETCH_BY_IDS_PARTITIONS:10000}") int fetchByIdsPartitions,
+							 @Value("${MULTI_GET_MAX_IDS:500}") int multiGetMaxIds,
                              @Value("${LIMIT_FOR_PERIOD:30000}") int limitForPeriod,
                              @Value("${LIMIT_REFRESH_PERIOD_MINUTES:1}") int limitRefreshPeriod,
-							 @Value("${RATE_LIMITER_CAPACITY:1000000}") int rateLimiterCapacity) {
+							 @Value("${RATE_LIMITER_CAPACITY:1000000}") int rateLimiterCapacity,
+							 @Value("${QUEUE_SATURATION_PERCENTAGE:90}") int queueSaturationPercentage,
+							 @Value("${BATCH_IDS_FILTER_STRATEGY:}") String batchIdsFilterStrategy,
+							 @Value("${BATCH_IDS_FILTER_WINDOW_MINUTES:10}") int batchIdsFilterWindowMinutes,
+							 @Value("${BATCH_IDS_FILTER_EXPECTED_BATCHES:1000000}") long batchIdsFilterExpectedBatches,
+							 @Value("${BATCH_IDS_FILTER_FALSE_POSITIVE_RATE:0.001}") double batchIdsFilterFalsePositiveRate,
+							 @Value("${INDEXING_PIPELINE_QUEUE_CAPACITY:10}") int pipelineQueueCapacity,
+							 @Value("${INDEXING_PIPELINE_NORMALIZE_THREADS:2}") int pipelineNormalizeThreads,
+							 @Value("${INDEXING_PIPELINE_TREE_THREADS:2}") int pipelineTreeThreads,
+							 @Value("${INDEXING_PIPELINE_BULK_BUILD_THREADS:2}") int pipelineBulkBuildThreads,
+							 @Value("${INDEXING_PIPELINE_MAX_IN_FLIGHT_BATCHES:4}") int pipelineMaxInFlightBatches,
+							 @Value("${ENRICHMENT_SHARDS:4}") int enrichmentShards,
+							 @Value("${COALESCING_WINDOW_MILLIS:0}") long coalescingWindowMillis,
+							 @Value("${COALESCING_MAX_TASKS:100000}") int coalescingMaxTasks,
+							 @Value("${SCRIPTLESS_UPDATES:false}") boolean scriptlessUpdates,
+							 @Value("${INDEX_STATE_CACHE_TTL_SECONDS:300}") int indexStateCacheTtlSeconds,
+							 @Value("${MISSING_PARENTS_CACHE_MAX_SIZE:100000}") int missingParentsCacheMaxSize,
+							 @Value("${MISSING_PARENTS_CACHE_TTL_SECONDS:60}") int missingParentsCacheTtlSeconds) {
 
 		eventsQueue = new LinkedBlockingQueue<>(eventsQueueCapacity);
 		overflowedQueue = new LinkedBlockingQueue<>(overFlowedQueueCapacity);
+		eventsQueueSaturationSize = (int) ((long) eventsQueueCapacity * queueSaturationPercentage / 100);
+		overflowedQueueSaturationSize = (int) ((long) overFlowedQueueCapacity * queueSaturationPercentage / 100);
 		terminationTimeout = terminationTimeoutSeconds * 1000;
 
 		RedisService redisService = null;
-		if (!StringUtils.isEmpty(redisHost)) {
-			redisService = new RedisService(redisHost, redisPort, redisPass, redisMaxMemory,
+		if (!StringUtils.isEmpty(redisHost) || !StringUtils.isEmpty(redisClusterNodes)) {
+			redisService = new RedisService(redisHost, redisPort, redisClusterNodes, redisPass, redisMaxMemory,
 					redisMaxMemoryPolicy, redisUseSsl, redisGetSize, redisPoolMinIdle, redisPoolMaxIdle,
 					redisPoolMaxTotal, redisMaxTries);
 		}
+		batchIdsFilter = BatchIdsFilterUtil.getBatchIdsFilter(batchIdsFilterStrategy, redisService, batchIdsFilterWindowMinutes, batchIdsFilterExpectedBatches, batchIdsFilterFalsePositiveRate);
 		Map<String, Object> params = PersistenceHandler.buildPersistenceHandlerParams(maxFetchedBulksInOneTime, maxOverflowedEventsInOneTime, maxInsertTries, locationInDisk, persistenceRedisTtlInSec, redisService);
 		persistenceHandler = PersistenceHandlerUtil.getPersistenceHandler(persistenceStrategy, params);
         rateLimiterMap = RateLimiterUtil.initRateLimiter(limitForPeriod, Duration.ofMinutes(limitRefreshPeriod), rateLimiterCapacity);
@@ -120,14 +163,22 @@ public class TimbermillService {
 
 		ElasticsearchClient es = new ElasticsearchClient(elasticUrl, indexBulkSize, indexingThreads, awsRegion, elasticUser,
 				elasticPassword, maxIndexAge, maxIndexSizeInGB, maxIndexDocs, numOfElasticSearchActionsTries, maxBulkIndexFetches, searchMaxSize, persistenceHandler, numberOfShards, numberOfReplicas,
-				maxTotalFields, null, scrollLimitation, scrollTimeoutSeconds, fetchByIdsPartitions, expiredMaxIndicesToDeleteInParallel);
+				maxTotalFields, null, scrollLimitation, scrollTimeoutSeconds, fetchByIdsPartitions, expiredMaxIndicesToDeleteInParallel,
+				scriptlessUpdates, indexStateCacheTtlSeconds, multiGetMaxIds);
 
-		CacheConfig cacheParams = new CacheConfig(redisService, cacheRedisTtlInSeconds, maximumTasksCacheWeight, maximumOrphansCacheWeight);
+		CacheConfig cacheParams = new CacheConfig(redisService, cacheRedisTtlInSeconds, maximumTasksCacheWeight, maximumOrphansCacheWeight, localCacheCompression,
+				locationInDisk, maximumNearCacheWeight, nearCacheTtlSeconds);
 		AbstractCacheHandler cacheHandler = CacheHandlerUtil.getCacheHandler(cacheStrategy, cacheParams);
-		this.eventsMaxElement = eventsMaxElement;
-		taskIndexer = new TaskIndexer(pluginsJson, daysRotation, es, timbermillVersion, cacheHandler);
+		taskIndexer = new TaskIndexer(pluginsJson, daysRotation, es, timbermillVersion, cacheHandler, enrichmentShards, coalescingWindowMillis, coalescingMaxTasks,
+				missingParentsCacheMaxSize, missingParentsCacheTtlSeconds);
+		cacheWarmer = new CacheWarmer(es, cacheHandler, cacheWarmUpSeconds, cacheWarmUpLookbackMinutes, cacheWarmUpMaxTasks);
+		indexingPipeline = new IndexingPipeline(taskIndexer, pipelineQueueCapacity, pipelineNormalizeThreads, pipelineTreeThreads, pipelineBulkBuildThreads, indexingThreads,
+				pipelineMaxInFlightBatches);
+		adaptiveBatcher = new AdaptiveBatcher(indexingPipeline, targetIndexingLagMillis, eventsMinElement, eventsMaxElement);
+		this.targetIndexingLagMillis = targetIndexingLagMillis;
 		cronsRunner.runCrons(bulkPersistentFetchCronExp, eventsPersistentFetchCronExp, persistenceHandler, es, deletionCronExp,
-				eventsQueue, overflowedQueue, mergingCronExp, redisService, rateLimiterMap);
+				eventsQueue, overflowedQueue, mergingCronExp, redisService, rateLimiterMap, rolloverCronExp);
+		cacheWarmer.start();
 		startQueueSpillerThread();
 		startWorkingThread();
 	}
@@ -136,9 +187,8 @@ public class TimbermillService {
 		Thread spillerThread = new Thread(() -> {
 			LOG.info("Starting Queue Spiller Thread");
 			while (keepRunning) {
-				persistenceHandler.spillOverflownEvents(overflowedQueue);
 				try {
-					Thread.sleep(ElasticsearchUtil.THREAD_SLEEP);
+					persistenceHandler.spillOverflownEvents(overflowedQueue, targetIndexingLagMillis);
 				} catch (InterruptedException e) {
 					LOG.error("InterruptedException was thrown from TaskIndexer:", e);
 				}
@@ -151,7 +201,7 @@ public class TimbermillService {
 		Thread workingThread = new Thread(() -> {
 			LOG.info("Timbermill has started");
 			while (keepRunning) {
-				ElasticsearchUtil.drainAndIndex(eventsQueue, taskIndexer, eventsMaxElement);
+				ElasticsearchUtil.drainAndIndex(eventsQueue, indexingPipeline, adaptiveBatcher);
 			}
 			stoppedRunning = true;
 		});
@@ -168,6 +218,8 @@ public class TimbermillService {
 				Thread.sleep(ElasticsearchUtil.THREAD_SLEEP);
 			} catch (InterruptedException ignored) {}
 		}
+		cacheWarmer.close();
+		indexingPipeline.close(Math.max(terminationTimeout - (System.currentTimeMillis() - currentTimeMillis), 0));
 		if (persistenceHandler != null){
 			persistenceHandler.close();
 		}
@@ -184,12 +236,30 @@ public class TimbermillService {
 		return reachTerminationTimeout;
 	}
 
+	void handleEventsWrapper(EventsWrapper eventsWrapper){
+		String eventsId = eventsWrapper.getId();
+		if (eventsId != null && batchIdsFilter.isDuplicate(eventsId)){
+			LOG.warn("Got duplicated EventsWrapper {}", eventsWrapper.getEvents());
+			return;
+		}
+		handleEvents(eventsWrapper.getEvents());
+	}
+
 	void handleEvents(Collection<Event> events){
 		for (Event event : events) {
-			LocalOutputPipe.pushEventToQueues(persistenceHandler, eventsQueue, overflowedQueue, rateLimiterMap, event);
+			handleEvent(event);
 		}
 	}
 
+	void handleEvent(Event event){
+		LocalOutputPipe.pushEventToQueues(persistenceHandler, eventsQueue, overflowedQueue, rateLimiterMap, event);
+	}
+
+	// Events only reach the overflowed queue once the events queue is full, so both have to be nearly full for new events to be at risk
+	boolean isSaturated() {
+		return eventsQueue.size() >= eventsQueueSaturationSize && overflowedQueue.size() >= overflowedQueueSaturationSize;
+	}
+
 	PersistenceHandler getPersistenceHandler() {
 		return persistenceHandler;
 	}
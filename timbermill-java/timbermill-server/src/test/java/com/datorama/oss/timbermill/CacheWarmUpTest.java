@@ -0,0 +1,47 @@
+package com.datorama.oss.timbermill;
+
+import com.datorama.oss.timbermill.common.cache.AbstractCacheHandler;
+import com.datorama.oss.timbermill.common.cache.CacheConfig;
+import com.datorama.oss.timbermill.common.cache.CacheHandlerUtil;
+import com.datorama.oss.timbermill.unit.ParentInfo;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.TaskStatus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CacheWarmUpTest extends TimberLogTest {
+
+	private static final String WARM_UP_TEST = "warm_up_test";
+
+	@BeforeClass
+	public static void init() {
+		TimberLogLocalTest.init();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TimberLogLocalTest.tearDown();
+	}
+
+	@Test
+	public void unterminatedTaskIsWarmedUp() {
+		String id = TimberLogger.start(WARM_UP_TEST, LogParams.create().context("ctx", "value"));
+		TimberLogTest.waitForTask(id, TaskStatus.UNTERMINATED);
+		String index = client.getTaskById(id).getIndex();
+
+		AbstractCacheHandler cacheHandler = CacheHandlerUtil.getCacheHandler("local", new CacheConfig(null, 0, 1000000000, 1000000));
+		int cachedTasks = new CacheWarmer(client, cacheHandler, 60, 60, 1000000).warmUp();
+
+		ParentInfo cachedTask = cacheHandler.logGetFromTasksCache(Collections.singletonList(id), "test").get(id);
+		assertTrue(cachedTasks > 0);
+		assertNotNull(cachedTask);
+		assertEquals(WARM_UP_TEST, cachedTask.getName());
+		assertEquals("value", cachedTask.getCtx().get("ctx"));
+		assertEquals(index, cachedTask.getIndex());
+	}
+}
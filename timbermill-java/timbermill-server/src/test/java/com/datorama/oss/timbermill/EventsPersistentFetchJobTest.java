@@ -32,7 +32,7 @@ public class EventsPersistentFetchJobTest {
 			elasticUrl = "http://localhost:9200";
 		}
 		LocalOutputPipe.Builder builder = new LocalOutputPipe.Builder().persistenceHandlerStrategy("sqlite").url(elasticUrl).deletionCronExp("").
-				bulkPersistentFetchCronExp("").eventsPersistentFetchCronExp("").mergingCronExp("");
+				bulkPersistentFetchCronExp("").eventsPersistentFetchCronExp("").mergingCronExp("").rolloverCronExp("");
 		pipe = builder.build();
 
 		client = new ElasticsearchClientForTests(elasticUrl, null);
@@ -0,0 +1,159 @@
+package com.datorama.oss.timbermill;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datorama.oss.timbermill.unit.Event;
+import com.datorama.oss.timbermill.unit.EventsWrapper;
+import com.datorama.oss.timbermill.unit.LogParams;
+import com.datorama.oss.timbermill.unit.StartEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the servlet (Tomcat) and reactive (Netty) ingestion modes.
+ * Start one server per mode, the reactive one with spring.main.web-application-type=reactive, then point SERVLET_TIMBERMILL_URL and REACTIVE_TIMBERMILL_URL at them.
+ * Every connection uploads its body in chunks with CHUNK_DELAY_MILLIS between them, to simulate many slow clients holding connections open.
+ */
+@Ignore
+public class IngestionModesStressTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestionModesStressTest.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int NUM_OF_CHUNKS = 4;
+    private static String servletTimbermillUrl = "http://localhost:8484";
+    private static String reactiveTimbermillUrl = "http://localhost:8485";
+    private static int numOfConnections = 1000;
+    private static int eventsPerRequest = 100;
+    private static int testDurationSeconds = 30;
+    private static int chunkDelayMillis = 50;
+    private static int serverCores = Runtime.getRuntime().availableProcessors();
+
+    @BeforeClass
+    public static void init() {
+        try {
+            numOfConnections = Integer.parseInt(System.getenv("NUM_OF_CONNECTIONS"));
+            eventsPerRequest = Integer.parseInt(System.getenv("EVENTS_PER_REQUEST"));
+            testDurationSeconds = Integer.parseInt(System.getenv("TEST_DURATION_SECONDS"));
+            chunkDelayMillis = Integer.parseInt(System.getenv("CHUNK_DELAY_MILLIS"));
+            serverCores = Integer.parseInt(System.getenv("SERVER_CORES"));
+        } catch (Throwable ignored){}
+        if (!StringUtils.isEmpty(System.getenv("SERVLET_TIMBERMILL_URL"))){
+            servletTimbermillUrl = System.getenv("SERVLET_TIMBERMILL_URL");
+        }
+        if (!StringUtils.isEmpty(System.getenv("REACTIVE_TIMBERMILL_URL"))){
+            reactiveTimbermillUrl = System.getenv("REACTIVE_TIMBERMILL_URL");
+        }
+
+        LOG.info("numOfConnections = {}", numOfConnections);
+        LOG.info("eventsPerRequest = {}", eventsPerRequest);
+        LOG.info("testDurationSeconds = {}", testDurationSeconds);
+        LOG.info("chunkDelayMillis = {}", chunkDelayMillis);
+        LOG.info("serverCores = {}", serverCores);
+    }
+
+    @Test
+    public void compareIngestionModes() throws Exception {
+        LoadResult servletResult = runLoad(servletTimbermillUrl);
+        LoadResult reactiveResult = runLoad(reactiveTimbermillUrl);
+        LOG.info("servlet  mode: {}", servletResult);
+        LOG.info("reactive mode: {}", reactiveResult);
+        assertTrue(servletResult.acceptedEvents.get() > 0);
+        assertTrue(reactiveResult.acceptedEvents.get() > 0);
+    }
+
+    private LoadResult runLoad(String timbermillUrl) throws Exception {
+        URL eventsUrl = new URL(timbermillUrl + "/events");
+        LoadResult result = new LoadResult();
+        ExecutorService executorService = Executors.newFixedThreadPool(numOfConnections);
+        long deadline = System.currentTimeMillis() + testDurationSeconds * 1000L;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < numOfConnections; i++) {
+            futures.add(executorService.submit(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    sendSlowRequest(eventsUrl, result);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        result.durationMillis = testDurationSeconds * 1000L;
+        return result;
+    }
+
+    private void sendSlowRequest(URL eventsUrl, LoadResult result) {
+        int inFlight = result.inFlight.incrementAndGet();
+        result.maxInFlight.accumulateAndGet(inFlight, Math::max);
+        try {
+            byte[] body = OBJECT_MAPPER.writeValueAsBytes(createEventsWrapper());
+            HttpURLConnection httpCon = (HttpURLConnection) eventsUrl.openConnection();
+            httpCon.setRequestMethod("POST");
+            httpCon.setRequestProperty("content-type", "application/json");
+            httpCon.setDoOutput(true);
+            httpCon.setChunkedStreamingMode(body.length / NUM_OF_CHUNKS + 1);
+            try (OutputStream os = httpCon.getOutputStream()) {
+                int chunkSize = body.length / NUM_OF_CHUNKS + 1;
+                for (int offset = 0; offset < body.length; offset += chunkSize) {
+                    os.write(body, offset, Math.min(chunkSize, body.length - offset));
+                    os.flush();
+                    Thread.sleep(chunkDelayMillis);
+                }
+            }
+            int responseCode = httpCon.getResponseCode();
+            if (responseCode == 200) {
+                result.acceptedEvents.addAndGet(eventsPerRequest);
+            } else if (responseCode == 429) {
+                result.throttledRequests.incrementAndGet();
+            } else {
+                result.failedRequests.incrementAndGet();
+            }
+        } catch (IOException | InterruptedException e) {
+            result.failedRequests.incrementAndGet();
+        } finally {
+            result.inFlight.decrementAndGet();
+        }
+    }
+
+    private EventsWrapper createEventsWrapper() {
+        List<Event> events = new ArrayList<>(eventsPerRequest);
+        for (int i = 0; i < eventsPerRequest; i++) {
+            events.add(new StartEvent(Event.generateTaskId("ingestion_stress"), "ingestion_stress", LogParams.create().text("text", "TEXT"), null));
+        }
+        return new EventsWrapper(events);
+    }
+
+    private static class LoadResult {
+        private final AtomicLong acceptedEvents = new AtomicLong();
+        private final AtomicLong throttledRequests = new AtomicLong();
+        private final AtomicLong failedRequests = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private long durationMillis;
+
+        @Override
+        public String toString() {
+            double eventsPerSecond = acceptedEvents.get() * 1000.0 / durationMillis;
+            return String.format("maxConcurrentConnections=%d, eventsPerSecond=%.0f, eventsPerSecondPerCore=%.0f, throttledRequests=%d, failedRequests=%d",
+                    maxInFlight.get(), eventsPerSecond, eventsPerSecond / serverCores, throttledRequests.get(), failedRequests.get());
+        }
+    }
+}